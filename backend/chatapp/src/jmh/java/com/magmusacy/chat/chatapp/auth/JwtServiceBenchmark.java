@@ -0,0 +1,73 @@
+package com.magmusacy.chat.chatapp.auth;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tokens verified per second. {@code verifyPerCallKey} reproduces how tokens were checked before the key and
+ * parser were precomputed: the secret decoded and a parser built on every call, and the token parsed three times
+ * (subject, subject again inside isTokenValid, then the expiration).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtServiceBenchmark {
+    private static final String SECRET = "029DObcj44vaBTbx1PrSsFW0CbbdKefq6gLJGKY7meQ=";
+
+    private JwtService jwtService;
+    private UserDetails userDetails;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        jwtService = new JwtService(SECRET);
+        userDetails = User.withUsername("benchmark@example.com").password("").authorities(new String[0]).build();
+        token = jwtService.generateAccessToken(userDetails);
+    }
+
+    @Benchmark
+    public String issueAccessToken() {
+        return jwtService.generateAccessToken(userDetails);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        JwtClaims claims = jwtService.parse(token);
+        return jwtService.isTokenValid(claims, userDetails);
+    }
+
+    @Benchmark
+    public boolean verifyPerCallKey() {
+        String username = parsePerCallKey(token).getSubject();
+        boolean subjectMatches = parsePerCallKey(token).getSubject().equals(username);
+        return subjectMatches && !parsePerCallKey(token).getExpiration().before(new Date());
+    }
+
+    private static Claims parsePerCallKey(String token) {
+        return Jwts.parser()
+                .verifyWith(Keys.hmacShaKeyFor(Decoders.BASE64.decode(SECRET)))
+                .build()
+                .parseSignedClaims(token)
+                .getPayload();
+    }
+}
@@ -0,0 +1,72 @@
+package com.magmusacy.chat.chatapp.config;
+
+import com.magmusacy.chat.chatapp.chat.ChatMessageDTO;
+import com.magmusacy.chat.chatapp.chat.ChatMessageResponseDTO;
+import com.magmusacy.chat.chatapp.chatroom.LatestMessageResponseDTO;
+import com.magmusacy.chat.chatapp.user.dto.UserDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Payload conversion through the converter {@link WebSocketConfig} registers for the broker, one benchmark per
+ * payload type that is pushed to clients plus the inbound chat message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageConverterBenchmark {
+    private MappingJackson2MessageConverter converter;
+    private ChatMessageResponseDTO chatMessage;
+    private LatestMessageResponseDTO latestMessage;
+    private UserDTO user;
+    private Message<?> inboundChatMessage;
+
+    @Setup
+    public void setUp() {
+        converter = WebSocketConfig.createMessageConverter();
+        LocalDateTime timestamp = LocalDateTime.of(2025, 1, 1, 12, 0, 0, 123_456_000);
+        chatMessage = new ChatMessageResponseDTO(42, "Hey, are we still on for tonight?", 1, 2, "1_2", timestamp);
+        latestMessage = new LatestMessageResponseDTO(false, 1, 2, "Hey, are we still on for tonight?", "1_2", timestamp);
+        user = new UserDTO(1, "Dummy One", true, null, "https://example.blob.core.windows.net/profile-pictures/1.png", 1);
+        inboundChatMessage = MessageBuilder
+                .withPayload("{\"content\":\"Hey, are we still on for tonight?\",\"senderId\":1,\"recipientId\":2,\"chatRoomId\":\"1_2\"}".getBytes())
+                .build();
+    }
+
+    @Benchmark
+    public Message<?> serializeChatMessage() {
+        return converter.toMessage(chatMessage, null);
+    }
+
+    @Benchmark
+    public Message<?> serializeLatestMessage() {
+        return converter.toMessage(latestMessage, null);
+    }
+
+    @Benchmark
+    public Message<?> serializeUser() {
+        return converter.toMessage(user, null);
+    }
+
+    @Benchmark
+    public Object deserializeChatMessage() {
+        return converter.fromMessage(inboundChatMessage, ChatMessageDTO.class);
+    }
+}
@@ -0,0 +1,132 @@
+package com.magmusacy.chat.chatapp.config;
+
+import com.magmusacy.chat.chatapp.chat.ChatMessageDTO;
+import com.magmusacy.chat.chatapp.chat.ChatMessageResponseDTO;
+import com.magmusacy.chat.chatapp.chatroom.LatestMessageResponseDTO;
+import com.magmusacy.chat.chatapp.chatroom.SignalingMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON against CBOR for the payloads a session can ask to get as CBOR: encoding and decoding through the
+ * converters {@link WebSocketConfig} registers, and pushChatMessage, what a push to one session costs, the broker's
+ * JSON conversion plus the transcoding for CBOR sessions. The payload sizes are printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadEncodingBenchmark {
+    @Param({"json", "cbor"})
+    public String encoding;
+
+    private MappingJackson2MessageConverter jsonConverter;
+    private MappingJackson2MessageConverter converter;
+    private PayloadEncodingInterceptor interceptor;
+    private MessageHeaders headers;
+    private MessageHeaders pushHeaders;
+    private ChatMessageResponseDTO chatMessage;
+    private LatestMessageResponseDTO latestMessage;
+    private SignalingMessage signalingMessage;
+    private Message<?> inboundChatMessage;
+    private Message<?> inboundSignalingMessage;
+
+    @Setup
+    public void setUp() {
+        jsonConverter = WebSocketConfig.createMessageConverter();
+        boolean cbor = encoding.equals("cbor");
+        converter = cbor ? new CborMessageConverter() : jsonConverter;
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create();
+        accessor.setContentType(cbor ? CborMessageConverter.APPLICATION_CBOR_FRAME : MimeTypeUtils.APPLICATION_JSON);
+        headers = accessor.getMessageHeaders();
+
+        LocalDateTime timestamp = LocalDateTime.of(2025, 1, 1, 12, 0, 0, 123_456_000);
+        chatMessage = new ChatMessageResponseDTO(42, "Hey, are we still on for tonight?", 1, 2, "1_2", timestamp);
+        latestMessage = new LatestMessageResponseDTO(false, 1, 2, "Hey, are we still on for tonight?", "1_2", timestamp);
+        signalingMessage = new SignalingMessage("candidate",
+                Map.of("candidate", "candidate:842163049 1 udp 1677729535 203.0.113.7 46154 typ srflx raddr 10.0.0.5 rport 46154",
+                        "sdpMid", "0", "sdpMLineIndex", 0),
+                "2", "1");
+        inboundChatMessage = converter.toMessage(new ChatMessageDTO("Hey, are we still on for tonight?", 1, 2, "1_2"), headers);
+        inboundSignalingMessage = converter.toMessage(signalingMessage, headers);
+
+        interceptor = new PayloadEncodingInterceptor();
+        SimpMessageHeaderAccessor push = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        push.setSessionId("session-a");
+        push.setDestination("/user/queue/messages-from-2");
+        pushHeaders = push.getMessageHeaders();
+        if (cbor) {
+            Map<String, Object> attributes = new HashMap<>();
+            interceptor.beforeHandshake(null, null, null, attributes);
+            StompHeaderAccessor connect = StompHeaderAccessor.create(StompCommand.CONNECT);
+            connect.setSessionId("session-a");
+            connect.setSessionAttributes(attributes);
+            connect.setNativeHeader(PayloadEncodingInterceptor.PAYLOAD_ENCODING_HEADER, "cbor");
+            connect.setLeaveMutable(true);
+            interceptor.preSend(MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders()), null);
+        }
+
+        System.out.printf("%n%s payload bytes: chat message %d, latest message %d, signaling %d, inbound chat message %d%n",
+                encoding, size(converter.toMessage(chatMessage, headers)), size(converter.toMessage(latestMessage, headers)),
+                size(inboundSignalingMessage), size(inboundChatMessage));
+    }
+
+    @Benchmark
+    public Message<?> encodeChatMessage() {
+        return converter.toMessage(chatMessage, headers);
+    }
+
+    @Benchmark
+    public Message<?> encodeLatestMessage() {
+        return converter.toMessage(latestMessage, headers);
+    }
+
+    @Benchmark
+    public Message<?> encodeSignalingMessage() {
+        return converter.toMessage(signalingMessage, headers);
+    }
+
+    @Benchmark
+    public Object decodeChatMessage() {
+        return converter.fromMessage(inboundChatMessage, ChatMessageDTO.class);
+    }
+
+    @Benchmark
+    public Object decodeSignalingMessage() {
+        return converter.fromMessage(inboundSignalingMessage, SignalingMessage.class);
+    }
+
+    @Benchmark
+    public Message<?> pushChatMessage() {
+        return interceptor.preSend(jsonConverter.toMessage(chatMessage, pushHeaders), null);
+    }
+
+    private static int size(Message<?> message) {
+        return ((byte[]) message.getPayload()).length;
+    }
+}
@@ -0,0 +1,72 @@
+package com.magmusacy.chat.chatapp.config;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * STOMP framing as done by the WebSocket transport: decoding the SEND frame of an outgoing chat message and
+ * encoding the MESSAGE frame the broker pushes to the recipient.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StompCodecBenchmark {
+    private static final String CHAT_MESSAGE_JSON =
+            "{\"id\":42,\"content\":\"Hey, are we still on for tonight?\",\"senderId\":1,\"recipientId\":2,\"chatRoomId\":\"1_2\",\"timestamp\":\"2025-01-01T12:00:00.123456\"}";
+
+    private final StompEncoder encoder = new StompEncoder();
+    private final StompDecoder decoder = new StompDecoder();
+    private byte[] sendFrame;
+    private Message<byte[]> messageFrame;
+
+    @Setup
+    public void setUp() {
+        sendFrame = ("SEND\n" +
+                "destination:/app/chat.send-message\n" +
+                "content-type:application/json\n" +
+                "content-length:" + CHAT_MESSAGE_JSON.getBytes(StandardCharsets.UTF_8).length + "\n" +
+                "\n" +
+                CHAT_MESSAGE_JSON + "\0").getBytes(StandardCharsets.UTF_8);
+
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        accessor.setDestination("/user/queue/messages-from-2");
+        accessor.setSubscriptionId("sub-0");
+        accessor.setMessageId("a1b2c3d4-0");
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setLeaveMutable(true);
+        messageFrame = MessageBuilder.createMessage(CHAT_MESSAGE_JSON.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+
+    @Benchmark
+    public List<Message<byte[]>> decodeSendFrame() {
+        return decoder.decode(ByteBuffer.wrap(sendFrame));
+    }
+
+    @Benchmark
+    public byte[] encodeMessageFrame() {
+        return encoder.encode(messageFrame);
+    }
+}
@@ -0,0 +1,155 @@
+package com.magmusacy.chat.chatapp.user;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.user.DefaultUserDestinationResolver;
+import org.springframework.messaging.simp.user.UserDestinationMessageHandler;
+import org.springframework.messaging.support.AbstractMessageChannel;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.DefaultSimpUserRegistry;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Presence changes per second through the real simple broker, with every connected user subscribed the way the
+ * client is. {@code globalTopic} is one change sent to /topic/users, {@code chatPartnerQueues} the same change sent
+ * to the /user/queue/users of each chat partner, user destination resolution included. The frames written to
+ * clients per change are printed at the end of each run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PresenceFanOutBenchmark {
+    private static final byte[] PRESENCE_JSON = "[{\"id\":42,\"name\":\"Test User\",\"isOnline\":false,\"lastSeen\":\"2025-01-01T12:00:00.123456\",\"profilePictureUrl\":null,\"version\":7}]"
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Param({"1000", "10000"})
+    private int connectedUsers;
+
+    @Param({"20"})
+    private int chatPartnersPerUser;
+
+    private final ExecutorSubscribableChannel clientInboundChannel = new ExecutorSubscribableChannel();
+    private final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+    private final CountingChannel clientOutboundChannel = new CountingChannel();
+    private SimpleBrokerMessageHandler broker;
+    private UserDestinationMessageHandler userDestinationHandler;
+    private Message<byte[]> topicMessage;
+    private List<Message<byte[]>> userQueueMessages;
+    private int[][] chatPartners;
+    private int nextUser;
+    private long changes;
+
+    @Setup
+    public void setUp() {
+        DefaultSimpUserRegistry userRegistry = new DefaultSimpUserRegistry();
+        broker = new SimpleBrokerMessageHandler(clientInboundChannel, clientOutboundChannel, brokerChannel, List.of("/queue", "/topic"));
+        // as configured in WebSocketConfig, with the default of 1024 the per-session queues miss the cache
+        broker.setCacheLimit(65536);
+        userDestinationHandler = new UserDestinationMessageHandler(clientInboundChannel, brokerChannel, new DefaultUserDestinationResolver(userRegistry));
+        broker.start();
+        userDestinationHandler.start();
+
+        userQueueMessages = new ArrayList<>(connectedUsers);
+        for (int user = 0; user < connectedUsers; user++) {
+            String sessionId = "session-" + user;
+            String email = "user" + user + "@example.com";
+            Principal principal = () -> email;
+            broker.handleMessage(header(SimpMessageType.CONNECT, sessionId, null, null));
+            userRegistry.onApplicationEvent(new SessionConnectedEvent(this, header(SimpMessageType.CONNECT_ACK, sessionId, null, null), principal));
+            broker.handleMessage(header(SimpMessageType.SUBSCRIBE, sessionId, "/topic/users", "topic-users"));
+            // what /user/queue/users resolves to for this session
+            broker.handleMessage(header(SimpMessageType.SUBSCRIBE, sessionId, "/queue/users-user" + sessionId, "queue-users"));
+            userQueueMessages.add(payload("/user/" + email + "/queue/users"));
+        }
+        topicMessage = payload("/topic/users");
+
+        Random random = new Random(42);
+        chatPartners = new int[connectedUsers][];
+        for (int user = 0; user < connectedUsers; user++) {
+            chatPartners[user] = random.ints(0, connectedUsers).distinct().limit(chatPartnersPerUser).toArray();
+        }
+
+        // resolve every destination once, a running server has long done that for its connected sessions
+        brokerChannel.send(topicMessage);
+        for (Message<byte[]> userQueueMessage : userQueueMessages) {
+            userDestinationHandler.handleMessage(userQueueMessage);
+        }
+        clientOutboundChannel.frames = 0;
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.printf("%n%d connected users: %,.1f frames per presence change%n",
+                connectedUsers, (double) clientOutboundChannel.frames / changes);
+        userDestinationHandler.stop();
+        broker.stop();
+    }
+
+    @Benchmark
+    public void globalTopic() {
+        brokerChannel.send(topicMessage);
+        changes++;
+    }
+
+    @Benchmark
+    public void chatPartnerQueues() {
+        int user = nextUser;
+        nextUser = (nextUser + 1) % connectedUsers;
+        for (int partner : chatPartners[user]) {
+            userDestinationHandler.handleMessage(userQueueMessages.get(partner));
+        }
+        changes++;
+    }
+
+    private static Message<byte[]> header(SimpMessageType type, String sessionId, String destination, String subscriptionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination(destination);
+        accessor.setSubscriptionId(subscriptionId);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static Message<byte[]> payload(String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        return MessageBuilder.createMessage(PRESENCE_JSON, accessor.getMessageHeaders());
+    }
+
+    // stands in for the WebSocket sessions, every message reaching it is one frame written to a client
+    private static final class CountingChannel extends AbstractMessageChannel {
+        private long frames;
+
+        @Override
+        protected boolean sendInternal(Message<?> message, long timeout) {
+            frames++;
+            return true;
+        }
+    }
+}
@@ -16,8 +16,6 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.util.Date;
-
 @RestController
 @RequestMapping("/auth")
 @RequiredArgsConstructor
@@ -44,10 +42,10 @@ public class AuthController {
     @MessageMapping("/refresh.connection.token")
     public void refreshAccessToken(@Payload websocketRefreshConnectionRequest request, SimpMessageHeaderAccessor accessor) {
         String newJwt = request.token();
-        String email = jwtService.extractUsername(newJwt);
+        JwtClaims claims = jwtService.parse(newJwt);
 
-        UserDetails userDetails = userDetailsService.loadUserByUsername(email);
-        if (!jwtService.isTokenValid(newJwt, userDetails)) {
+        UserDetails userDetails = userDetailsService.loadUserByUsername(claims.subject());
+        if (!jwtService.isTokenValid(claims, userDetails)) {
             throw new MessagingException("Invalid refresh token");
         }
 
@@ -56,7 +54,6 @@ public class AuthController {
 
         accessor.setUser(newAuth);
 
-        Date expirationDate = jwtService.extractExpiration(newJwt);
-        accessor.getSessionAttributes().put("jwt_expiry_time", expirationDate.getTime());
+        accessor.getSessionAttributes().put("jwt_expiry_time", claims.expiration().getTime());
     }
 }
@@ -50,14 +50,14 @@ public class AuthService {
             throw new RuntimeException("Refresh token cannot be null or empty");
         }
 
-        String username = jwtService.extractUsername(refreshToken);
+        JwtClaims claims = jwtService.parse(refreshToken);
 
-        if (username == null) {
+        if (claims.subject() == null) {
             throw new RuntimeException("Invalid refresh token");
         }
 
-        UserDetails userDetails = userService.loadUserByUsername(username);
-        if (jwtService.isTokenValid(refreshToken, userDetails)) {
+        UserDetails userDetails = userService.loadUserByUsername(claims.subject());
+        if (jwtService.isTokenValid(claims, userDetails)) {
             String newAccessToken = jwtService.generateAccessToken(userDetails);
             return new AuthenticationResponse(newAccessToken, refreshToken);
         } else {
@@ -0,0 +1,16 @@
+package com.magmusacy.chat.chatapp.auth;
+
+import java.util.Date;
+
+/**
+ * The claims this app puts into its tokens, read once from a verified token.
+ */
+public record JwtClaims(
+        String subject,
+        Date issuedAt,
+        Date expiration
+) {
+    public boolean isExpired() {
+        return expiration.before(new Date());
+    }
+}
@@ -1,73 +1,64 @@
 package com.magmusacy.chat.chatapp.auth;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
-import java.security.Key;
+import javax.crypto.SecretKey;
 import java.util.Date;
-import java.util.function.Function;
 
 @Service
 public class JwtService {
-    @Value("${jwt.secret}")
-    private String SECRET_KEY;
+    private static final long ACCESS_TOKEN_VALIDITY_MILLIS = 1000L * 60 * 15; // 15 minutes till expiration
+    private static final long REFRESH_TOKEN_VALIDITY_MILLIS = 1000L * 60 * 60 * 24 * 7; // 7 days till expiration
 
-    public String extractUsername(String token) {
-        return extractClaim(token, Claims::getSubject);
+    // both are immutable and thread safe, so they are built once instead of per token
+    private final SecretKey signInKey;
+    private final JwtParser parser;
+
+    public JwtService(@Value("${jwt.secret}") String secretKey) {
+        this.signInKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(secretKey));
+        this.parser = Jwts.parser()
+                .verifyWith(signInKey)
+                .build();
     }
 
-    public <T> T extractClaim(String token, Function<Claims, T> claimsResolver) {
-        final Claims claims = extractAllClaims(token);
-        return claimsResolver.apply(claims);
+    public String extractUsername(String token) {
+        return parse(token).subject();
     }
 
     public String generateRefreshToken(UserDetails userDetails) {
-        return Jwts.builder()
-                .setSubject(userDetails.getUsername())
-                .setIssuedAt(new Date(System.currentTimeMillis()))
-                .setExpiration(new Date(System.currentTimeMillis() + 1000 * 60 * 60 * 24 * 7)) // 7 days till expiration
-                .signWith(getSignInKey(), SignatureAlgorithm.HS256)
-                .compact();
+        return generateToken(userDetails, REFRESH_TOKEN_VALIDITY_MILLIS);
     }
 
     public String generateAccessToken(UserDetails userDetails) {
-        return Jwts.builder()
-                .setSubject(userDetails.getUsername())
-                .setIssuedAt(new Date(System.currentTimeMillis())) // 1 minute for testint looll
-                .setExpiration(new Date(System.currentTimeMillis() + 1000 * 60 * 15 )) // 15 minutes till expiration
-                .signWith(getSignInKey(), SignatureAlgorithm.HS256)
-                .compact();
+        return generateToken(userDetails, ACCESS_TOKEN_VALIDITY_MILLIS);
     }
 
-    public boolean isTokenValid(String token, UserDetails userDetails) {
-        final String username = extractUsername(token);
-        return (username.equals(userDetails.getUsername())) && !isTokenExpired(token);
+    public boolean isTokenValid(JwtClaims claims, UserDetails userDetails) {
+        return claims.subject().equals(userDetails.getUsername()) && !claims.isExpired();
     }
 
-    private boolean isTokenExpired(String token) {
-        return extractExpiration(token).before(new Date());
+    /**
+     * Verifies the signature and expiration of the token and reads its claims, so callers never parse twice.
+     */
+    public JwtClaims parse(String token) {
+        Claims claims = parser.parseSignedClaims(token).getPayload();
+        return new JwtClaims(claims.getSubject(), claims.getIssuedAt(), claims.getExpiration());
     }
 
-    public Date extractExpiration(String token) {
-        return extractClaim(token, Claims::getExpiration);
-    }
-
-    private Claims extractAllClaims(String token) {
-        return Jwts.parser()
-                .setSigningKey(getSignInKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
-    }
-
-    private Key getSignInKey() {
-        byte[] keyBytes = Decoders.BASE64.decode(SECRET_KEY);
-        return Keys.hmacShaKeyFor(keyBytes);
+    private String generateToken(UserDetails userDetails, long validityMillis) {
+        long now = System.currentTimeMillis();
+        return Jwts.builder()
+                .subject(userDetails.getUsername())
+                .issuedAt(new Date(now))
+                .expiration(new Date(now + validityMillis))
+                .signWith(signInKey, Jwts.SIG.HS256)
+                .compact();
     }
 }
@@ -0,0 +1,88 @@
+package com.magmusacy.chat.chatapp.auth;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.magmusacy.chat.chatapp.cluster.ClusterForwarder;
+import com.magmusacy.chat.chatapp.user.UserDirectory;
+import com.magmusacy.chat.chatapp.user.UserDirectoryEntry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Date;
+
+/**
+ * Principals of recently seen access tokens, keyed by subject and issued-at so every token is resolved once
+ * instead of on every request. Misses go through the {@link UserDirectory}, which keeps deleted users out.
+ */
+@Component
+public class PrincipalCache {
+    private final UserDirectory userDirectory;
+    private final Cache<TokenKey, UserDetails> principals;
+    private final ObjectProvider<ClusterForwarder> clusterForwarder;
+
+    public PrincipalCache(UserDirectory userDirectory,
+                          ObjectProvider<ClusterForwarder> clusterForwarder,
+                          MeterRegistry meterRegistry,
+                          @Value("${chat.auth.principal-cache.maximum-size:10000}") long maximumSize,
+                          @Value("${chat.auth.principal-cache.ttl:60s}") Duration ttl) {
+        this.userDirectory = userDirectory;
+        this.clusterForwarder = clusterForwarder;
+        this.principals = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, principals, "auth.principals");
+    }
+
+    public UserDetails get(String subject, Date issuedAt) {
+        long issuedAtMillis = issuedAt != null ? issuedAt.getTime() : 0;
+        return principals.get(new TokenKey(subject, issuedAtMillis), key -> load(key.subject()));
+    }
+
+    /**
+     * Evicts the principals of the subject here and, once the change is committed, again here and on every other node.
+     */
+    public void invalidate(String subject) {
+        evict(subject);
+        // a request resolving the subject before the change commits caches the old principal again
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(subject);
+                    clusterForwarder.ifAvailable(forwarder -> forwarder.invalidatePrincipals(subject));
+                }
+            });
+        } else {
+            clusterForwarder.ifAvailable(forwarder -> forwarder.invalidatePrincipals(subject));
+        }
+    }
+
+    /**
+     * Evicts the principals of the subject on this node only, for the invalidations another node broadcast.
+     */
+    public void evict(String subject) {
+        principals.asMap().keySet().removeIf(key -> key.subject().equals(subject));
+    }
+
+    private UserDetails load(String subject) {
+        UserDirectoryEntry entry = userDirectory.findByEmail(subject);
+        // request handlers only ever read the name off the principal, no need to carry the entity around
+        return User.withUsername(entry.email())
+                .password("")
+                .authorities(new String[0])
+                .build();
+    }
+
+    private record TokenKey(String subject, long issuedAt) {
+    }
+}
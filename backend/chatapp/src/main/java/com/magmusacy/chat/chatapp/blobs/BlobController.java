@@ -1,18 +1,17 @@
 package com.magmusacy.chat.chatapp.blobs;
 
+import com.magmusacy.chat.chatapp.user.PresenceService;
 import com.magmusacy.chat.chatapp.user.User;
 import com.magmusacy.chat.chatapp.user.dto.UserDTO;
 import com.magmusacy.chat.chatapp.user.UserService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.security.Principal;
-import java.util.List;
 
 @RestController
 @RequestMapping("/api/blobs")
@@ -20,7 +19,7 @@ import java.util.List;
 public class BlobController {
     private final BlobService blobService;
     private final UserService userService;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final PresenceService presenceService;
 
     @PostMapping("/upload")
     public ResponseEntity<?> uploadBlob(@RequestParam("file") MultipartFile file, Principal principal) {
@@ -34,8 +33,7 @@ public class BlobController {
         try {
             User user = userService.findByEmail(principal.getName());
             UserDTO UpdatedUser = userService.handleUserProfilePictureUpload(user, file);
-            List<UserDTO> users = userService.findAllUsers();
-            messagingTemplate.convertAndSend("/topic/users", users);
+            presenceService.publishProfileUpdate(UpdatedUser);
             return ResponseEntity.ok(UpdatedUser);
         } catch (IOException e) {
             e.printStackTrace();
@@ -3,9 +3,12 @@ package com.magmusacy.chat.chatapp.chat;
 import com.magmusacy.chat.chatapp.chatroom.ChatRoomService;
 import com.magmusacy.chat.chatapp.chatroom.LatestMessageResponseDTO;
 import com.magmusacy.chat.chatapp.user.User;
+import com.magmusacy.chat.chatapp.user.UserDirectory;
+import com.magmusacy.chat.chatapp.user.UserDirectoryEntry;
 import com.magmusacy.chat.chatapp.user.UserService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
@@ -13,6 +16,7 @@ import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
 
 import java.security.Principal;
 import java.util.List;
@@ -22,60 +26,99 @@ import java.util.List;
 public class ChatController {
     private final SimpMessagingTemplate messagingTemplate;
     private final UserService userService;
+    private final UserDirectory userDirectory;
     private final ChatMessageService chatMessageService;
     private final ChatRoomService chatRoomService;
+    private final ObjectProvider<ChatMessageWriteBehindQueue> writeBehindQueue;
 
     @MessageMapping("/chat.send-message")
     public void processMessage(
             @Valid @Payload ChatMessageDTO messageDTO,
             Principal principal
     ) {
-        ChatMessage message = chatMessageService.save(messageDTO);
-        User recipient = userService.findById(messageDTO.recipientId());
-        ChatMessageResponseDTO responseDTO = new ChatMessageResponseDTO(
-                message.getId(),
-                messageDTO.content(),
+        ChatMessageResponseDTO responseDTO = persistMessage(messageDTO, principal);
+        UserDirectoryEntry recipient = userDirectory.findById(messageDTO.recipientId());
+
+        // read status is per participant, the sender has read their own message
+        LatestMessageResponseDTO recipientLatestMessageDTO = new LatestMessageResponseDTO(
+                false,
                 messageDTO.senderId(),
                 messageDTO.recipientId(),
+                messageDTO.content(),
                 messageDTO.chatRoomId(),
-                message.getTimestamp()
+                responseDTO.timestamp()
         );
-
-        LatestMessageResponseDTO latestMessageResponseDTO = new LatestMessageResponseDTO(
-                false,
+        LatestMessageResponseDTO senderLatestMessageDTO = new LatestMessageResponseDTO(
+                true,
                 messageDTO.senderId(),
                 messageDTO.recipientId(),
                 messageDTO.content(),
                 messageDTO.chatRoomId(),
-                message.getTimestamp()
+                responseDTO.timestamp()
         );
 
         // send the message
         messagingTemplate.convertAndSendToUser(
-                recipient.getEmail(),
+                recipient.email(),
                 String.format("/queue/messages-from-%s", messageDTO.recipientId()),
                 responseDTO
         );
         // send the latest message
         messagingTemplate.convertAndSendToUser(
-                recipient.getEmail(),
+                recipient.email(),
                 "/queue/chat.latest-message-updated",
-                latestMessageResponseDTO
+                recipientLatestMessageDTO
         );
         messagingTemplate.convertAndSendToUser(
                 principal.getName(),
                 "/queue/chat.latest-message-updated",
-                latestMessageResponseDTO
+                senderLatestMessageDTO
         );
     }
 
+    private ChatMessageResponseDTO persistMessage(ChatMessageDTO messageDTO, Principal principal) {
+        ChatMessageWriteBehindQueue queue = writeBehindQueue.getIfAvailable();
+        if (queue == null) {
+            ChatMessage message = chatMessageService.save(messageDTO);
+            return new ChatMessageResponseDTO(
+                    message.getId(),
+                    messageDTO.content(),
+                    messageDTO.senderId(),
+                    messageDTO.recipientId(),
+                    messageDTO.chatRoomId(),
+                    message.getTimestamp()
+            );
+        }
+        // the insert is deferred and nothing checks the ids on the way to the spool, reject bad ones before fan-out
+        if (!userDirectory.findById(messageDTO.senderId()).email().equals(principal.getName())) {
+            throw new IllegalArgumentException("Messages can only be sent as yourself");
+        }
+        userDirectory.findById(messageDTO.recipientId());
+        return queue.submit(messageDTO, principal.getName());
+    }
+
     @GetMapping("/messages/{recipientId}")
-    public ResponseEntity<List<ChatMessageResponseDTO>> getMessages(
+    public ResponseEntity<ChatMessagePageDTO> getMessages(
             @PathVariable int recipientId,
+            @RequestParam(required = false) MessageCursor before,
+            @RequestParam(required = false) MessageCursor after,
+            @RequestParam(defaultValue = "" + ChatMessageService.DEFAULT_PAGE_SIZE) int limit,
             Principal principal
     ) {
-        User currentUser = userService.findByEmail(principal.getName());
-        return ResponseEntity.ok(chatMessageService.findChatMessages(currentUser.getId(), recipientId));
+        int currentUserId = userDirectory.findByEmail(principal.getName()).id();
+        return ResponseEntity.ok(chatMessageService.findChatMessages(currentUserId, recipientId, before, after, limit));
+    }
+
+    // websearch syntax: words, "quoted phrases", OR and -excluded words
+    @GetMapping("/messages/search")
+    public ResponseEntity<ChatMessageSearchPageDTO> searchMessages(
+            @RequestParam String query,
+            @RequestParam(required = false) SearchCursor after,
+            @RequestParam(defaultValue = "" + ChatMessageService.DEFAULT_PAGE_SIZE) int limit,
+            Principal principal
+    ) {
+        int currentUserId = userDirectory.findByEmail(principal.getName()).id();
+        return ResponseEntity.ok(chatMessageService.searchMessages(currentUserId, query, after, limit));
     }
 
     @GetMapping("/latest-messages")
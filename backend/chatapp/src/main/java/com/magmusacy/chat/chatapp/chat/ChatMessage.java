@@ -13,10 +13,18 @@ import java.time.LocalDateTime;
 @RequiredArgsConstructor
 @NoArgsConstructor
 @Entity
-@Table(name = "chat_messages")
+@Table(name = "chat_messages", indexes = {
+        @Index(name = "idx_chat_messages_room_history", columnList = "chat_rooms_id, timestamp, id, sender_id, recipient_id"),
+        @Index(name = "idx_chat_messages_sender_room", columnList = "sender_id, chat_rooms_id"),
+        @Index(name = "idx_chat_messages_recipient_room", columnList = "recipient_id, chat_rooms_id")
+})
 public class ChatMessage {
+    public static final String ID_SEQUENCE = "chat_messages_seq";
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = ID_SEQUENCE)
+    @SequenceGenerator(name = ID_SEQUENCE, sequenceName = ID_SEQUENCE, allocationSize = ID_ALLOCATION_SIZE)
     private Integer id;
     @NotNull
     @NonNull
@@ -26,17 +34,17 @@ public class ChatMessage {
     private String content;
 
     @NonNull
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "chat_rooms_id")
     private ChatRoom chatRoom;
 
     @NonNull
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "sender_id")
     private User sender;
 
     @NonNull
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "recipient_id")
     private User recipient;
 }
@@ -0,0 +1,332 @@
+package com.magmusacy.chat.chatapp.chat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Messages of the partitions {@link ChatMessagePartitions} has archived, one JSON-lines file per month sorted by
+ * conversation and gzipped one conversation at a time, each its own gzip member. chat_message_archive_rooms records
+ * which months hold messages of which conversation and where in the file its member is, so a page of history that
+ * reaches past the live partitions reads and decompresses only that conversation's bytes. In a cluster the directory
+ * has to be shared storage, whichever node archives a month writes its file.
+ */
+@Component
+public class ChatMessageArchive {
+    private static final DateTimeFormatter FILE_MONTH = DateTimeFormatter.ofPattern("yyyy_MM");
+    private static final String EXPORT_SQL =
+            "SELECT id, content, sender_id, recipient_id, chat_rooms_id, timestamp FROM %s ORDER BY chat_rooms_id COLLATE \"C\", timestamp, id";
+    private static final String INDEX_ROOM_SQL =
+            "INSERT INTO chat_message_archive_rooms (chat_room_id, month, message_count, file_offset, byte_length) VALUES (?, ?, ?, ?, ?) " +
+            "ON CONFLICT (chat_room_id, month) DO UPDATE SET message_count = EXCLUDED.message_count, " +
+            "file_offset = EXCLUDED.file_offset, byte_length = EXCLUDED.byte_length";
+    private static final String MONTHS_SQL = "SELECT month, file_offset, byte_length FROM chat_message_archive_rooms WHERE chat_room_id = ? ";
+    private static final int EXPORT_FETCH_SIZE = 1000;
+    private static final int INDEX_BATCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    // the partition is only ever read once, stream it instead of holding a month of messages in memory
+    private final JdbcTemplate exportJdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final Path directory;
+
+    public ChatMessageArchive(JdbcTemplate jdbcTemplate,
+                              ObjectMapper objectMapper,
+                              @Value("${chat.message-partitions.archive-directory:archive}") String directory) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.exportJdbcTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        this.exportJdbcTemplate.setFetchSize(EXPORT_FETCH_SIZE);
+        this.objectMapper = objectMapper;
+        this.directory = Path.of(directory);
+    }
+
+    /**
+     * Writes every message of the partition to the file of its month and records the month for its conversations.
+     * Has to run in the transaction that drops the partition, if that rolls back the file is rewritten next time.
+     */
+    public void store(YearMonth month, String partition) {
+        Path file = file(month);
+        Path partialFile = file.resolveSibling(file.getFileName() + ".partial");
+        List<ArchivedRoom> rooms;
+        try {
+            Files.createDirectories(directory);
+            try (FileOutputStream fileOut = new FileOutputStream(partialFile.toFile())) {
+                MonthWriter monthWriter = new MonthWriter(new BufferedOutputStream(fileOut));
+                exportJdbcTemplate.query(EXPORT_SQL.formatted(partition), monthWriter);
+                rooms = monthWriter.finish();
+                fileOut.getFD().sync();
+            }
+            Files.move(partialFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | UncheckedIOException e) {
+            throw new IllegalStateException("Could not archive " + partition + " to " + file, e);
+        }
+        Date monthStart = Date.valueOf(month.atDay(1));
+        jdbcTemplate.batchUpdate(INDEX_ROOM_SQL, rooms, INDEX_BATCH_SIZE, (ps, room) -> {
+            ps.setString(1, room.chatRoomId());
+            ps.setDate(2, monthStart);
+            ps.setInt(3, room.messageCount());
+            ps.setLong(4, room.offset());
+            ps.setLong(5, room.length());
+        });
+    }
+
+    /**
+     * Up to {@code limit} archived messages of the conversation older than {@code before}, newest first.
+     * @param before null for the newest archived messages
+     */
+    public List<ChatMessageResponseDTO> findBefore(String chatRoomId, MessageCursor before, int limit) {
+        List<ArchivedMonth> months = before == null
+                ? months(MONTHS_SQL + "ORDER BY month DESC", chatRoomId)
+                : months(MONTHS_SQL + "AND month <= ? ORDER BY month DESC",
+                        chatRoomId, Date.valueOf(before.timestamp().toLocalDate().withDayOfMonth(1)));
+
+        List<ChatMessageResponseDTO> messages = new ArrayList<>();
+        for (ArchivedMonth month : months) {
+            // the file is in chronological order, keep the newest that qualify
+            Deque<ChatMessageResponseDTO> newest = new ArrayDeque<>();
+            for (ChatMessageResponseDTO message : read(month, chatRoomId)) {
+                if (before == null || isOlderThan(message, before)) {
+                    newest.addLast(message);
+                    if (newest.size() > limit - messages.size()) {
+                        newest.removeFirst();
+                    }
+                }
+            }
+            newest.descendingIterator().forEachRemaining(messages::add);
+            if (messages.size() >= limit) {
+                break;
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Up to {@code limit} archived messages of the conversation newer than {@code after}, oldest first.
+     */
+    public List<ChatMessageResponseDTO> findAfter(String chatRoomId, MessageCursor after, int limit) {
+        List<ArchivedMonth> months = months(MONTHS_SQL + "AND month >= ? ORDER BY month",
+                chatRoomId, Date.valueOf(after.timestamp().toLocalDate().withDayOfMonth(1)));
+
+        List<ChatMessageResponseDTO> messages = new ArrayList<>();
+        for (ArchivedMonth month : months) {
+            for (ChatMessageResponseDTO message : read(month, chatRoomId)) {
+                if (isNewerThan(message, after)) {
+                    messages.add(message);
+                    if (messages.size() >= limit) {
+                        return messages;
+                    }
+                }
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Forgets the archived messages of the conversations, they are no longer returned from the archive files.
+     */
+    public void deleteByChatRoomIds(Collection<String> chatRoomIds) {
+        if (!chatRoomIds.isEmpty()) {
+            jdbcTemplate.update("DELETE FROM chat_message_archive_rooms WHERE chat_room_id = ANY(?)",
+                    (Object) chatRoomIds.toArray(String[]::new));
+        }
+    }
+
+    Path file(YearMonth month) {
+        return directory.resolve("chat_messages_" + month.format(FILE_MONTH) + ".jsonl.gz");
+    }
+
+    private List<ArchivedMonth> months(String sql, Object... args) {
+        return jdbcTemplate.query(sql, (rs, rowNum) -> new ArchivedMonth(
+                YearMonth.from(rs.getDate("month").toLocalDate()),
+                rs.getObject("file_offset", Long.class),
+                rs.getObject("byte_length", Long.class)
+        ), args);
+    }
+
+    private List<ChatMessageResponseDTO> read(ArchivedMonth month, String chatRoomId) {
+        if (month.offset() == null) {
+            return scan(month.month(), chatRoomId);
+        }
+        Path file = file(month.month());
+        ByteBuffer compressed = ByteBuffer.allocate(Math.toIntExact(month.length()));
+        List<ChatMessageResponseDTO> messages = new ArrayList<>();
+        try {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                while (compressed.hasRemaining()) {
+                    if (channel.read(compressed, month.offset() + compressed.position()) < 0) {
+                        throw new EOFException("Archive file " + file + " ends inside the messages of " + chatRoomId);
+                    }
+                }
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new ByteArrayInputStream(compressed.array())), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    messages.add(objectMapper.readValue(line, ChatMessageResponseDTO.class));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read archive file " + file, e);
+        }
+        return messages;
+    }
+
+    // months archived before the rooms' offsets were recorded, decompress from the start up to the room
+    private List<ChatMessageResponseDTO> scan(YearMonth month, String chatRoomId) {
+        Path file = file(month);
+        List<ChatMessageResponseDTO> messages = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ChatMessageResponseDTO message = objectMapper.readValue(line, ChatMessageResponseDTO.class);
+                // sorted by conversation in byte order, rooms without an id last, nothing of this one further down
+                int order = message.chatRoomId() == null ? 1 : message.chatRoomId().compareTo(chatRoomId);
+                if (order == 0) {
+                    messages.add(message);
+                } else if (order > 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read archive file " + file, e);
+        }
+        return messages;
+    }
+
+    private static boolean isOlderThan(ChatMessageResponseDTO message, MessageCursor cursor) {
+        LocalDateTime timestamp = message.timestamp();
+        return timestamp.isBefore(cursor.timestamp()) || (timestamp.isEqual(cursor.timestamp()) && message.id() < cursor.id());
+    }
+
+    private static boolean isNewerThan(ChatMessageResponseDTO message, MessageCursor cursor) {
+        LocalDateTime timestamp = message.timestamp();
+        return timestamp.isAfter(cursor.timestamp()) || (timestamp.isEqual(cursor.timestamp()) && message.id() > cursor.id());
+    }
+
+    private record ArchivedMonth(YearMonth month, Long offset, Long length) {}
+
+    private record ArchivedRoom(String chatRoomId, int messageCount, long offset, long length) {}
+
+    /**
+     * Writes the export of a month, rows come sorted by conversation and every conversation gets its own gzip member.
+     * Messages without a conversation are written too but nothing reads them.
+     */
+    private final class MonthWriter implements RowCallbackHandler {
+        private final CountingOutputStream out;
+        private final List<ArchivedRoom> rooms = new ArrayList<>();
+        private BufferedWriter writer;
+        private String chatRoomId;
+        private long offset;
+        private int messageCount;
+
+        private MonthWriter(OutputStream out) {
+            this.out = new CountingOutputStream(out);
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            ChatMessageResponseDTO message = new ChatMessageResponseDTO(
+                    rs.getInt("id"),
+                    rs.getString("content"),
+                    rs.getInt("sender_id"),
+                    rs.getInt("recipient_id"),
+                    rs.getString("chat_rooms_id"),
+                    rs.getTimestamp("timestamp").toLocalDateTime()
+            );
+            try {
+                if (writer == null || !Objects.equals(chatRoomId, message.chatRoomId())) {
+                    finishRoom();
+                    chatRoomId = message.chatRoomId();
+                    offset = out.count;
+                    messageCount = 0;
+                    writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(out), StandardCharsets.UTF_8));
+                }
+                writer.write(objectMapper.writeValueAsString(message));
+                writer.newLine();
+                messageCount++;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private List<ArchivedRoom> finish() throws IOException {
+            finishRoom();
+            out.flush();
+            return rooms;
+        }
+
+        private void finishRoom() throws IOException {
+            if (writer == null) {
+                return;
+            }
+            writer.close();
+            writer = null;
+            if (chatRoomId != null) {
+                rooms.add(new ArchivedRoom(chatRoomId, messageCount, offset, out.count - offset));
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        // closing a room's gzip stream must not close the file
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
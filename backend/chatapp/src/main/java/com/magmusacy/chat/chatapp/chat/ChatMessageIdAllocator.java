@@ -0,0 +1,32 @@
+package com.magmusacy.chat.chatapp.chat;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hands out chat message ids before the row exists. Ids come from the pooled sequence Hibernate uses for
+ * chat_messages, every nextval reserves a whole block so only every n-th message costs a round-trip.
+ */
+@Component
+@ConditionalOnProperty(prefix = "chat.write-behind", name = "enabled", havingValue = "true")
+public class ChatMessageIdAllocator {
+    private static final String RESERVE_BLOCK_SQL = "SELECT nextval('" + ChatMessage.ID_SEQUENCE + "')";
+
+    private final JdbcTemplate jdbcTemplate;
+    private int nextId;
+    private int blockEnd;
+
+    public ChatMessageIdAllocator(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public synchronized int nextId() {
+        if (nextId == 0 || nextId > blockEnd) {
+            // same convention as Hibernate's pooled optimizer, the sequence value is the last id of the block
+            blockEnd = jdbcTemplate.queryForObject(RESERVE_BLOCK_SQL, Integer.class);
+            nextId = Math.max(1, blockEnd - ChatMessage.ID_ALLOCATION_SIZE + 1);
+        }
+        return nextId++;
+    }
+}
@@ -0,0 +1,27 @@
+package com.magmusacy.chat.chatapp.chat;
+
+import java.util.List;
+
+/**
+ * One page of a conversation, messages are always in chronological order.
+ * Pass {@code beforeCursor} as {@code ?before=} to load older messages and {@code afterCursor} as {@code ?after=}
+ * to load newer ones.
+ */
+public record ChatMessagePageDTO(
+        List<ChatMessageResponseDTO> messages,
+        boolean hasMore,
+        String beforeCursor,
+        String afterCursor
+) {
+    public static ChatMessagePageDTO of(List<ChatMessageResponseDTO> messages, boolean hasMore) {
+        if (messages.isEmpty()) {
+            return new ChatMessagePageDTO(messages, hasMore, null, null);
+        }
+        return new ChatMessagePageDTO(
+                messages,
+                hasMore,
+                MessageCursor.of(messages.getFirst()).encode(),
+                MessageCursor.of(messages.getLast()).encode()
+        );
+    }
+}
@@ -0,0 +1,139 @@
+package com.magmusacy.chat.chatapp.chat;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks after the monthly partitions of chat_messages. Partitions are created a few months ahead so an insert never
+ * finds its month missing, and partitions older than the archive age are written to {@link ChatMessageArchive},
+ * then detached and dropped. Runs at startup and on an interval, nodes of a cluster skip a run while another node
+ * holds the maintenance lock.
+ */
+@Slf4j
+@Component
+public class ChatMessagePartitions {
+    private static final DateTimeFormatter PARTITION_MONTH = DateTimeFormatter.ofPattern("yyyy_MM");
+    private static final String PARTITION_PREFIX = "chat_messages_";
+    // any constant works, it only has to be the same on every node
+    private static final long MAINTENANCE_LOCK_KEY = 7_310_431_259_482_115_001L;
+    private static final String LIST_PARTITIONS_SQL = "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+            "WHERE i.inhparent = 'chat_messages'::regclass";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ChatMessageArchive chatMessageArchive;
+    private final int monthsAhead;
+    private final int archiveAfterMonths;
+    private final Duration maintenanceInterval;
+    private ScheduledExecutorService maintenanceExecutor;
+
+    public ChatMessagePartitions(JdbcTemplate jdbcTemplate,
+                                 TransactionTemplate transactionTemplate,
+                                 ChatMessageArchive chatMessageArchive,
+                                 @Value("${chat.message-partitions.months-ahead:3}") int monthsAhead,
+                                 @Value("${chat.message-partitions.archive-after-months:12}") int archiveAfterMonths,
+                                 @Value("${chat.message-partitions.maintenance-interval:6h}") Duration maintenanceInterval) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.chatMessageArchive = chatMessageArchive;
+        this.monthsAhead = monthsAhead;
+        this.archiveAfterMonths = archiveAfterMonths;
+        this.maintenanceInterval = maintenanceInterval;
+    }
+
+    @PostConstruct
+    void start() {
+        maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("chat-message-partitions").daemon(true).factory()
+        );
+        maintenanceExecutor.scheduleWithFixedDelay(this::maintain, 0, maintenanceInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        maintenanceExecutor.shutdownNow();
+    }
+
+    void maintain() {
+        try {
+            YearMonth currentMonth = YearMonth.now();
+            withMaintenanceLock(() -> {
+                for (int i = 0; i <= monthsAhead; i++) {
+                    createPartition(currentMonth.plusMonths(i));
+                }
+            });
+            YearMonth oldestLiveMonth = oldestLiveMonth();
+            for (YearMonth month : partitionMonths()) {
+                if (month.isBefore(oldestLiveMonth)) {
+                    // one transaction per month, a failure keeps the months already archived
+                    withMaintenanceLock(() -> archive(month));
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Chat message partition maintenance failed", e);
+        }
+    }
+
+    /**
+     * Messages from here on stay in the live partitions, older months are archived or about to be.
+     */
+    public LocalDateTime liveSince() {
+        return oldestLiveMonth().atDay(1).atStartOfDay();
+    }
+
+    public void createPartition(YearMonth month) {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS %s PARTITION OF chat_messages FOR VALUES FROM ('%s') TO ('%s')"
+                .formatted(partitionName(month), month.atDay(1), month.plusMonths(1).atDay(1)));
+    }
+
+    public List<YearMonth> partitionMonths() {
+        return jdbcTemplate.queryForList(LIST_PARTITIONS_SQL, String.class).stream()
+                .map(name -> YearMonth.parse(name.substring(PARTITION_PREFIX.length()), PARTITION_MONTH))
+                .sorted()
+                .toList();
+    }
+
+    void archive(YearMonth month) {
+        String partition = partitionName(month);
+        if (!partitionMonths().contains(month)) {
+            // archived by another node since the list was read
+            return;
+        }
+        chatMessageArchive.store(month, partition);
+        // there is no foreign key to keep this consistent anymore, see V10__partition_chat_messages.sql
+        jdbcTemplate.update("UPDATE chat_rooms SET latest_message_id = NULL WHERE latest_message_id IN (SELECT id FROM " + partition + ")");
+        jdbcTemplate.execute("ALTER TABLE chat_messages DETACH PARTITION " + partition);
+        jdbcTemplate.execute("DROP TABLE " + partition);
+        log.info("Archived chat message partition {}", partition);
+    }
+
+    private void withMaintenanceLock(Runnable task) {
+        transactionTemplate.executeWithoutResult(status -> {
+            if (Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT pg_try_advisory_xact_lock(?)", Boolean.class, MAINTENANCE_LOCK_KEY))) {
+                task.run();
+            }
+        });
+    }
+
+    private YearMonth oldestLiveMonth() {
+        return YearMonth.now().minusMonths(archiveAfterMonths);
+    }
+
+    static String partitionName(YearMonth month) {
+        return PARTITION_PREFIX + month.format(PARTITION_MONTH);
+    }
+}
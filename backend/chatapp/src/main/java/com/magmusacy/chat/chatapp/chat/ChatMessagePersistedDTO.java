@@ -0,0 +1,7 @@
+package com.magmusacy.chat.chatapp.chat;
+
+public record ChatMessagePersistedDTO(
+        int id,
+        String chatRoomId
+) {
+}
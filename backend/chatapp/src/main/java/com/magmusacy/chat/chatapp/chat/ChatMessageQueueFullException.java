@@ -0,0 +1,7 @@
+package com.magmusacy.chat.chatapp.chat;
+
+public class ChatMessageQueueFullException extends RuntimeException {
+    public ChatMessageQueueFullException(String message) {
+        super(message);
+    }
+}
@@ -1,12 +1,40 @@
 package com.magmusacy.chat.chatapp.chat;
 
-import com.magmusacy.chat.chatapp.user.User;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 public interface ChatMessageRepository extends JpaRepository<ChatMessage, Integer> {
-    @Query("SELECT m FROM ChatMessage m WHERE (m.sender = :sender AND m.recipient = :recipient) OR (m.sender = :recipient AND m.recipient = :sender) ORDER BY m.timestamp ASC")
-    List<ChatMessage> findBySenderAndRecipient(User sender, User recipient);
+    String RESPONSE_PROJECTION = "SELECT new com.magmusacy.chat.chatapp.chat.ChatMessageResponseDTO(" +
+            "m.id, m.content, m.sender.id, m.recipient.id, m.chatRoom.id, m.timestamp) FROM ChatMessage m ";
+
+    @Query(RESPONSE_PROJECTION +
+            "WHERE m.chatRoom.id = :chatRoomId ORDER BY m.timestamp DESC, m.id DESC")
+    List<ChatMessageResponseDTO> findLatestByChatRoomId(String chatRoomId, Limit limit);
+
+    @Query(RESPONSE_PROJECTION +
+            "WHERE m.chatRoom.id = :chatRoomId " +
+            "AND (m.timestamp < :timestamp OR (m.timestamp = :timestamp AND m.id < :id)) " +
+            "ORDER BY m.timestamp DESC, m.id DESC")
+    List<ChatMessageResponseDTO> findByChatRoomIdBefore(String chatRoomId, LocalDateTime timestamp, int id, Limit limit);
+
+    @Query(RESPONSE_PROJECTION +
+            "WHERE m.chatRoom.id = :chatRoomId " +
+            "AND (m.timestamp > :timestamp OR (m.timestamp = :timestamp AND m.id > :id)) " +
+            "ORDER BY m.timestamp ASC, m.id ASC")
+    List<ChatMessageResponseDTO> findByChatRoomIdAfter(String chatRoomId, LocalDateTime timestamp, int id, Limit limit);
+
+    long countByChatRoomIdIn(Collection<String> chatRoomIds);
+
+    // one bounded chunk, the primary key is (id, timestamp) since chat_messages is partitioned
+    @Modifying
+    @Query(value = "DELETE FROM chat_messages WHERE (id, timestamp) IN (" +
+            "SELECT id, timestamp FROM chat_messages WHERE chat_rooms_id IN (:chatRoomIds) LIMIT :limit)", nativeQuery = true)
+    int deleteChunkByChatRoomIds(@Param("chatRoomIds") Collection<String> chatRoomIds, @Param("limit") int limit);
 }
@@ -0,0 +1,18 @@
+package com.magmusacy.chat.chatapp.chat;
+
+import java.time.LocalDateTime;
+
+/**
+ * A message matching a search. {@code snippet} is the best matching part of the content with the matched words
+ * wrapped in {@code <b></b>}.
+ */
+public record ChatMessageSearchHitDTO(
+        int id,
+        String snippet,
+        int senderId,
+        int recipientId,
+        String chatRoomId,
+        LocalDateTime timestamp,
+        float rank
+) {
+}
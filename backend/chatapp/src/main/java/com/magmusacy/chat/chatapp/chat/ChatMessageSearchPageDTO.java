@@ -0,0 +1,16 @@
+package com.magmusacy.chat.chatapp.chat;
+
+import java.util.List;
+
+/**
+ * One page of search hits, best match first. Pass {@code nextCursor} as {@code ?after=} to load the next page.
+ */
+public record ChatMessageSearchPageDTO(
+        List<ChatMessageSearchHitDTO> hits,
+        boolean hasMore,
+        String nextCursor
+) {
+    public static ChatMessageSearchPageDTO of(List<ChatMessageSearchHitDTO> hits, boolean hasMore) {
+        return new ChatMessageSearchPageDTO(hits, hasMore, hits.isEmpty() ? null : SearchCursor.of(hits.getLast()).encode());
+    }
+}
@@ -0,0 +1,61 @@
+package com.magmusacy.chat.chatapp.chat;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Full-text queries over chat_messages.content_tsv, a column generated by Postgres from content and indexed with GIN
+ * (V8__chat_message_search.sql), so every insert path keeps it up to date. Plain JDBC since neither the column nor the text
+ * search functions are known to JPQL.
+ */
+@Repository
+@RequiredArgsConstructor
+public class ChatMessageSearchRepository {
+    // must match the configuration content_tsv is generated with, no stemming or stop words, conversations are not
+    // in any one language
+    private static final String CONFIG = "simple";
+
+    // snippets are only built for the rows of the page, ts_headline re-parses the whole content
+    private static final String SEARCH_SQL = """
+            SELECT h.id, h.sender_id, h.recipient_id, h.chat_rooms_id, h.timestamp, h.rank,
+                   ts_headline('%1$s', h.content, h.query, 'MaxFragments=2, MaxWords=20, MinWords=5') AS snippet
+            FROM (
+                SELECT m.id, m.content, m.sender_id, m.recipient_id, m.chat_rooms_id, m.timestamp, q.query,
+                       ts_rank(m.content_tsv, q.query) AS rank
+                FROM websearch_to_tsquery('%1$s', ?) AS q(query)
+                JOIN chat_messages m ON m.content_tsv @@ q.query
+                WHERE m.sender_id = ? OR m.recipient_id = ?
+            ) h
+            %2$s
+            ORDER BY h.rank DESC, h.id DESC
+            LIMIT ?
+            """;
+    private static final String FIRST_PAGE_SQL = SEARCH_SQL.formatted(CONFIG, "");
+    private static final String NEXT_PAGE_SQL = SEARCH_SQL.formatted(CONFIG,
+            "WHERE h.rank < CAST(? AS real) OR (h.rank = CAST(? AS real) AND h.id < ?)");
+
+    private static final RowMapper<ChatMessageSearchHitDTO> HIT_MAPPER = (rs, rowNum) -> new ChatMessageSearchHitDTO(
+            rs.getInt("id"),
+            rs.getString("snippet"),
+            rs.getInt("sender_id"),
+            rs.getInt("recipient_id"),
+            rs.getString("chat_rooms_id"),
+            rs.getTimestamp("timestamp").toLocalDateTime(),
+            rs.getFloat("rank")
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // only messages the user sent or received, which are exactly the messages of their chat rooms
+    public List<ChatMessageSearchHitDTO> search(int userId, String query, SearchCursor after, int limit) {
+        if (after == null) {
+            return jdbcTemplate.query(FIRST_PAGE_SQL, HIT_MAPPER, query, userId, userId, limit);
+        }
+        return jdbcTemplate.query(NEXT_PAGE_SQL, HIT_MAPPER,
+                query, userId, userId, after.rank(), after.rank(), after.id(), limit);
+    }
+}
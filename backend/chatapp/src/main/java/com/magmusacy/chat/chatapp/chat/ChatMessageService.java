@@ -6,22 +6,35 @@ import com.magmusacy.chat.chatapp.user.User;
 import com.magmusacy.chat.chatapp.user.UserService;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class ChatMessageService {
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 100;
+
     private final ChatMessageRepository chatMessageRepository;
     private final ChatRoomService chatRoomService;
     private final UserService userService;
+    private final ChatMessageSearchRepository chatMessageSearchRepository;
+    private final ChatMessageArchive chatMessageArchive;
+    private final ChatMessagePartitions chatMessagePartitions;
 
     @Transactional
     public ChatMessage save(ChatMessageDTO messageDTO) {
-        User sender = userService.findById(messageDTO.senderId());
-        User recipient = userService.findById(messageDTO.recipientId());
+        User sender = userService.getReference(messageDTO.senderId());
+        User recipient = userService.getReference(messageDTO.recipientId());
+        userService.requireActive(List.of(sender.getId(), recipient.getId()));
 
         ChatRoom chatRoom = chatRoomService.getChatRoom(
                 sender,
@@ -34,20 +47,104 @@ public class ChatMessageService {
         chatRoom.setLatestMessage(latestMessage);
         chatRoom.setReadStatus(false);
         chatRoomService.save(chatRoom);
+        chatRoomService.updateInboxes(latestMessage);
         return latestMessage;
     }
 
-    public List<ChatMessageResponseDTO> findChatMessages(int senderId, int recipientId) {
-        User sender = userService.findById(senderId);
-        User recipient = userService.findById(recipientId);
-        return chatMessageRepository.findBySenderAndRecipient(sender, recipient).stream().map(m -> new ChatMessageResponseDTO(
-                m.getId(),
-                m.getContent(),
-                m.getSender().getId(),
-                m.getRecipient().getId(),
-                m.getChatRoom().getId(),
-                m.getTimestamp()
-                )
-        ).toList();
+    /**
+     * Bulk variant of {@link #save(ChatMessageDTO)} for seeding and imports. Users and chat rooms are resolved once
+     * and all rows are flushed together, so the inserts go out in JDBC batches instead of one round-trip each.
+     */
+    @Transactional
+    public List<ChatMessage> saveAll(List<ChatMessageDTO> messageDTOs) {
+        userService.requireActive(messageDTOs.stream()
+                .flatMap(messageDTO -> Stream.of(messageDTO.senderId(), messageDTO.recipientId()))
+                .toList());
+        Map<Integer, User> users = new HashMap<>();
+        Map<String, ChatRoom> chatRooms = new HashMap<>();
+        List<ChatMessage> chatMessages = new ArrayList<>(messageDTOs.size());
+        for (ChatMessageDTO messageDTO : messageDTOs) {
+            User sender = users.computeIfAbsent(messageDTO.senderId(), userService::getReference);
+            User recipient = users.computeIfAbsent(messageDTO.recipientId(), userService::getReference);
+            ChatRoom chatRoom = chatRooms.computeIfAbsent(
+                    ChatRoomService.generateChatRoomId(sender.getId(), recipient.getId()),
+                    chatRoomId -> chatRoomService.getChatRoom(sender, recipient, true).orElseThrow()
+            );
+            ChatMessage chatMessage = new ChatMessage(LocalDateTime.now(), messageDTO.content(), chatRoom, sender, recipient);
+            chatRoom.setLatestMessage(chatMessage);
+            chatRoom.setReadStatus(false);
+            chatMessages.add(chatMessage);
+        }
+
+        List<ChatMessage> savedMessages = chatMessageRepository.saveAll(chatMessages);
+        chatRoomService.saveAll(chatRooms.values());
+        chatRoomService.updateInboxes(savedMessages.stream()
+                .map(message -> new ChatMessageResponseDTO(
+                        message.getId(),
+                        message.getContent(),
+                        message.getSender().getId(),
+                        message.getRecipient().getId(),
+                        message.getChatRoom().getId(),
+                        message.getTimestamp()
+                ))
+                .toList());
+        return savedMessages;
+    }
+
+    public ChatMessagePageDTO findChatMessages(
+            int senderId,
+            int recipientId,
+            MessageCursor before,
+            MessageCursor after,
+            int limit
+    ) {
+        if (before != null && after != null) {
+            throw new InvalidCursorException("Only one of 'before' and 'after' can be used at a time");
+        }
+        int pageSize = Math.clamp(limit, 1, MAX_PAGE_SIZE);
+        String chatRoomId = ChatRoomService.generateChatRoomId(senderId, recipientId);
+
+        // fetch one extra row to know if there is anything past this page
+        Limit fetchLimit = Limit.of(pageSize + 1);
+        List<ChatMessageResponseDTO> messages;
+        // archived months are all older than the live partitions, so a page continues into the archive on the old
+        // end and comes out of it on the new end. The archive is only asked for rooms it lists, for a cursor older
+        // than the live partitions or once they have nothing older left for the room.
+        if (after != null) {
+            messages = after.timestamp().isBefore(chatMessagePartitions.liveSince())
+                    ? new ArrayList<>(chatMessageArchive.findAfter(chatRoomId, after, fetchLimit.max()))
+                    : new ArrayList<>();
+            if (messages.size() < fetchLimit.max()) {
+                messages.addAll(chatMessageRepository.findByChatRoomIdAfter(
+                        chatRoomId, after.timestamp(), after.id(), Limit.of(fetchLimit.max() - messages.size())));
+            }
+        } else {
+            messages = new ArrayList<>(before != null
+                    ? chatMessageRepository.findByChatRoomIdBefore(chatRoomId, before.timestamp(), before.id(), fetchLimit)
+                    : chatMessageRepository.findLatestByChatRoomId(chatRoomId, fetchLimit));
+            if (messages.size() < fetchLimit.max()) {
+                MessageCursor oldest = messages.isEmpty() ? before : MessageCursor.of(messages.getLast());
+                messages.addAll(chatMessageArchive.findBefore(chatRoomId, oldest, fetchLimit.max() - messages.size()));
+            }
+        }
+
+        boolean hasMore = messages.size() > pageSize;
+        List<ChatMessageResponseDTO> page = new ArrayList<>(messages.subList(0, Math.min(pageSize, messages.size())));
+        // everything except ?after= is read newest first
+        if (after == null) {
+            Collections.reverse(page);
+        }
+        return ChatMessagePageDTO.of(page, hasMore);
+    }
+
+    public ChatMessageSearchPageDTO searchMessages(int userId, String query, SearchCursor after, int limit) {
+        if (query == null || query.isBlank()) {
+            return ChatMessageSearchPageDTO.of(List.of(), false);
+        }
+        int pageSize = Math.clamp(limit, 1, MAX_PAGE_SIZE);
+        // fetch one extra row to know if there is anything past this page
+        List<ChatMessageSearchHitDTO> hits = chatMessageSearchRepository.search(userId, query, after, pageSize + 1);
+        boolean hasMore = hits.size() > pageSize;
+        return ChatMessageSearchPageDTO.of(hits.subList(0, Math.min(pageSize, hits.size())), hasMore);
     }
 }
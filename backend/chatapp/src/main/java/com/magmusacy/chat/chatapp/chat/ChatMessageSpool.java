@@ -0,0 +1,157 @@
+package com.magmusacy.chat.chatapp.chat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Append-only local log of messages accepted by the write-behind queue. Every flush rotates to a new segment,
+ * segments are deleted once everything in them is committed, so whatever is left on disk at startup was never
+ * confirmed by the database. Appends are only forced to disk by {@link #sync()} and {@link #rotate()}, so many of them
+ * can share one fsync. Not thread safe, the queue guards it with its own lock.
+ */
+public class ChatMessageSpool {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".jsonl";
+    static final String DEAD_LETTER_FILE = "dead-letter.jsonl";
+
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+    private final boolean fsync;
+    private FileChannel currentChannel;
+    private Path currentSegment;
+    private long segmentCounter;
+
+    public ChatMessageSpool(Path directory, ObjectMapper objectMapper, boolean fsync) {
+        this.directory = directory;
+        this.objectMapper = objectMapper;
+        this.fsync = fsync;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create spool directory " + directory, e);
+        }
+    }
+
+    public void append(PendingChatMessage message) {
+        try {
+            if (currentChannel == null) {
+                currentSegment = directory.resolve(SEGMENT_PREFIX + System.currentTimeMillis() + "-" + segmentCounter++ + SEGMENT_SUFFIX);
+                currentChannel = FileChannel.open(currentSegment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            }
+            write(currentChannel, message);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not append message " + message.id() + " to the spool", e);
+        }
+    }
+
+    /**
+     * Forces what was appended to the current segment to disk. Appends don't, so one force covers every append since
+     * the last one. Segments that were rotated away were forced when they were closed.
+     */
+    public void sync() {
+        if (!fsync || currentChannel == null) {
+            return;
+        }
+        try {
+            currentChannel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not force spool segment " + currentSegment, e);
+        }
+    }
+
+    /**
+     * Closes the segment that is currently written to, the next append starts a new one.
+     * @return the closed segment or null if nothing was appended since the last rotation
+     */
+    public Path rotate() {
+        if (currentChannel == null) {
+            return null;
+        }
+        try {
+            if (fsync) {
+                currentChannel.force(false);
+            }
+            currentChannel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close spool segment " + currentSegment, e);
+        }
+        Path closedSegment = currentSegment;
+        currentChannel = null;
+        currentSegment = null;
+        return closedSegment;
+    }
+
+    public List<Path> existingSegments() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .filter(file -> !file.equals(currentSegment))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not list spool directory " + directory, e);
+        }
+    }
+
+    public List<PendingChatMessage> read(List<Path> segments) {
+        List<PendingChatMessage> messages = new ArrayList<>();
+        for (Path segment : segments) {
+            try {
+                for (String line : Files.readAllLines(segment)) {
+                    // a crash mid-append can leave a torn last line, that message was never acknowledged
+                    if (!line.isBlank() && line.endsWith("}")) {
+                        messages.add(objectMapper.readValue(line, PendingChatMessage.class));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read spool segment " + segment, e);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Appends messages the database refused for good to a file that is never replayed, it only touches that file and
+     * needs no lock. They are kept there for someone to look at instead of being lost with their segment.
+     */
+    public void deadLetter(List<PendingChatMessage> messages) {
+        try (FileChannel channel = FileChannel.open(directory.resolve(DEAD_LETTER_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (PendingChatMessage message : messages) {
+                write(channel, message);
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not dead-letter " + messages.size() + " messages", e);
+        }
+    }
+
+    public void delete(List<Path> segments) {
+        for (Path segment : segments) {
+            try {
+                Files.deleteIfExists(segment);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not delete spool segment " + segment, e);
+            }
+        }
+    }
+
+    private void write(FileChannel channel, PendingChatMessage message) throws IOException {
+        byte[] line = objectMapper.writeValueAsBytes(message);
+        ByteBuffer buffer = ByteBuffer.allocate(line.length + 1).put(line).put((byte) '\n').flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package com.magmusacy.chat.chatapp.chat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.magmusacy.chat.chatapp.chatroom.ChatRoomService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.TransactionSystemException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Optional send path that takes the database out of the delivery latency. Messages get their id up front, are
+ * appended to a local spool and handed back for fan-out right away, a single writer thread then commits them in
+ * multi-row JDBC batches and acknowledges every committed message to its sender on /queue/chat.message-persisted.
+ * While the database can't be reached batches are retried, a message it refuses goes to the spool's dead letter file.
+ * At most {@code capacity} messages wait for their commit, past that submit refuses new ones until the writer caught up.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "chat.write-behind", name = "enabled", havingValue = "true")
+public class ChatMessageWriteBehindQueue {
+    private static final String INSERT_CHAT_ROOM_SQL =
+            "INSERT INTO chat_rooms (id, read_status) VALUES (?, false) ON CONFLICT (id) DO NOTHING";
+    private static final String INSERT_MESSAGE_SQL =
+            "INSERT INTO chat_messages (id, timestamp, content, chat_rooms_id, sender_id, recipient_id) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_LATEST_MESSAGE_SQL =
+            "UPDATE chat_rooms SET latest_message_id = ?, read_status = false WHERE id = ?";
+    // the directory the ids were checked against on submit can be stale for a user just deleted on another node. KEY
+    // SHARE like the foreign keys of the inserts, the deletion replaces the email and waits for the commit
+    private static final String LOCK_ACTIVE_USERS_SQL =
+            "SELECT id FROM users WHERE id = ANY(?) AND deleted_at IS NULL FOR KEY SHARE";
+    private static final Comparator<PendingChatMessage> CHRONOLOGICAL =
+            Comparator.comparing(PendingChatMessage::timestamp).thenComparingInt(PendingChatMessage::id);
+
+    private final ChatMessageIdAllocator idAllocator;
+    private final ChatRoomService chatRoomService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ChatMessageSpool spool;
+    private final boolean spoolFsync;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final int capacity;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchReady = lock.newCondition();
+    // submitted or recovered and neither committed nor dead-lettered yet
+    private final AtomicInteger uncommittedCount = new AtomicInteger();
+    private List<PendingChatMessage> pending = new ArrayList<>();
+    // appends so far, guarded by lock
+    private long appendedCount;
+    // group commit of the spool, see awaitSpoolSync
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition spoolSynced = syncLock.newCondition();
+    private long syncedCount;
+    private boolean syncing;
+    // only touched by the writer thread
+    private final List<PendingChatMessage> retryMessages = new ArrayList<>();
+    private final List<Path> retrySegments = new ArrayList<>();
+    private volatile boolean running = true;
+    private Thread writerThread;
+
+    public ChatMessageWriteBehindQueue(ChatMessageIdAllocator idAllocator,
+                                       ChatRoomService chatRoomService,
+                                       JdbcTemplate jdbcTemplate,
+                                       TransactionTemplate transactionTemplate,
+                                       SimpMessagingTemplate messagingTemplate,
+                                       ObjectMapper objectMapper,
+                                       @Value("${chat.write-behind.spool-directory:spool}") Path spoolDirectory,
+                                       @Value("${chat.write-behind.spool-fsync:true}") boolean spoolFsync,
+                                       @Value("${chat.write-behind.batch-size:200}") int batchSize,
+                                       @Value("${chat.write-behind.flush-interval-ms:50}") long flushIntervalMillis,
+                                       @Value("${chat.write-behind.capacity:10000}") int capacity) {
+        this.idAllocator = idAllocator;
+        this.chatRoomService = chatRoomService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.messagingTemplate = messagingTemplate;
+        this.spool = new ChatMessageSpool(spoolDirectory, objectMapper, spoolFsync);
+        this.spoolFsync = spoolFsync;
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.capacity = capacity;
+    }
+
+    @PostConstruct
+    void start() {
+        recoverSpool();
+        writerThread = Thread.ofPlatform().name("chat-write-behind").daemon(true).start(this::runWriter);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        lock.lock();
+        try {
+            batchReady.signal();
+        } finally {
+            lock.unlock();
+        }
+        // whatever does not make it before the timeout stays in the spool and is recovered on the next start
+        writerThread.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    public ChatMessageResponseDTO submit(ChatMessageDTO messageDTO, String senderEmail) {
+        PendingChatMessage message = new PendingChatMessage(
+                idAllocator.nextId(),
+                // postgres keeps microseconds, truncating keeps cursors built from this frame valid
+                LocalDateTime.now().truncatedTo(ChronoUnit.MICROS),
+                messageDTO.content(),
+                messageDTO.senderId(),
+                messageDTO.recipientId(),
+                ChatRoomService.generateChatRoomId(messageDTO.senderId(), messageDTO.recipientId()),
+                senderEmail
+        );
+
+        long appended;
+        lock.lock();
+        try {
+            if (uncommittedCount.get() >= capacity) {
+                throw new ChatMessageQueueFullException("Too many chat messages are waiting to be persisted, try again later");
+            }
+            spool.append(message);
+            appended = ++appendedCount;
+            uncommittedCount.incrementAndGet();
+            pending.add(message);
+            if (pending.size() >= batchSize) {
+                batchReady.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        // the message is fanned out once this returns, it has to survive a crash by then
+        if (spoolFsync) {
+            awaitSpoolSync(appended);
+        }
+        return message.toResponseDTO();
+    }
+
+    /**
+     * Group commit: returns once the spool was forced past the given append. Whoever finds no force running forces
+     * everything appended so far, the others wait for it, so concurrent senders share one fsync instead of taking one
+     * each under the lock.
+     */
+    private void awaitSpoolSync(long appended) {
+        syncLock.lock();
+        try {
+            while (syncedCount < appended) {
+                if (syncing) {
+                    spoolSynced.awaitUninterruptibly();
+                    continue;
+                }
+                syncing = true;
+                syncLock.unlock();
+                long forcedCount = 0;
+                try {
+                    forcedCount = forceSpool();
+                } finally {
+                    syncLock.lock();
+                    syncing = false;
+                    syncedCount = Math.max(syncedCount, forcedCount);
+                    spoolSynced.signalAll();
+                }
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private long forceSpool() {
+        lock.lock();
+        try {
+            spool.sync();
+            return appendedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recoverSpool() {
+        List<Path> segments = spool.existingSegments();
+        if (segments.isEmpty()) {
+            return;
+        }
+        List<PendingChatMessage> spooled = spool.read(segments);
+        // the writer may have committed a batch and crashed before deleting its segment
+        Set<Integer> committedIds = new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT id FROM chat_messages WHERE id = ANY(?)",
+                Integer.class,
+                (Object) spooled.stream().map(PendingChatMessage::id).toArray(Integer[]::new)
+        ));
+        spooled.stream().filter(message -> !committedIds.contains(message.id())).forEach(retryMessages::add);
+        uncommittedCount.addAndGet(retryMessages.size());
+        retrySegments.addAll(segments);
+        log.info("Recovered {} uncommitted chat messages from {} spool segments", retryMessages.size(), segments.size());
+    }
+
+    private void runWriter() {
+        while (running || !retryMessages.isEmpty()) {
+            try {
+                flush(awaitBatch());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Unexpected failure in the chat message writer", e);
+            }
+        }
+    }
+
+    private List<PendingChatMessage> awaitBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            if (running && pending.size() < batchSize) {
+                batchReady.await(flushIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+            Path segment = spool.rotate();
+            if (segment != null) {
+                retrySegments.add(segment);
+            }
+            List<PendingChatMessage> batch = pending;
+            pending = new ArrayList<>();
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flush(List<PendingChatMessage> batch) throws InterruptedException {
+        List<PendingChatMessage> messages = new ArrayList<>(retryMessages);
+        messages.addAll(batch);
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        List<PendingChatMessage> committed = new ArrayList<>();
+        List<PendingChatMessage> uncommitted = new ArrayList<>();
+        try {
+            Set<PendingChatMessage> dropped = persist(messages);
+            messages.stream().filter(message -> !dropped.contains(message)).forEach(committed::add);
+        } catch (RuntimeException batchFailure) {
+            if (isTransient(batchFailure)) {
+                log.warn("Could not reach the database for {} chat messages", messages.size(), batchFailure);
+                uncommitted.addAll(messages);
+            } else {
+                // one message the database refuses fails the whole batch, go one by one to find it
+                persistIndividually(messages, committed, uncommitted);
+            }
+        }
+
+        retryMessages.clear();
+        retryMessages.addAll(uncommitted);
+        uncommittedCount.addAndGet(uncommitted.size() - messages.size());
+        committed.forEach(message -> messagingTemplate.convertAndSendToUser(
+                message.senderEmail(),
+                "/queue/chat.message-persisted",
+                new ChatMessagePersistedDTO(message.id(), message.chatRoomId())
+        ));
+        if (uncommitted.isEmpty()) {
+            spool.delete(retrySegments);
+            retrySegments.clear();
+        } else {
+            // the segments stay until everything in them is committed or dead-lettered
+            TimeUnit.MILLISECONDS.sleep(Math.max(flushIntervalMillis, 1000));
+        }
+    }
+
+    private void persistIndividually(List<PendingChatMessage> messages,
+                                     List<PendingChatMessage> committed,
+                                     List<PendingChatMessage> uncommitted) {
+        List<PendingChatMessage> rejected = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            PendingChatMessage message = messages.get(i);
+            try {
+                if (persist(List.of(message)).isEmpty()) {
+                    committed.add(message);
+                }
+            } catch (DuplicateKeyException e) {
+                // ids are never reused, an earlier attempt committed it but the commit was not confirmed
+                committed.add(message);
+            } catch (RuntimeException e) {
+                if (isTransient(e)) {
+                    log.warn("Lost the database while persisting chat messages one by one", e);
+                    uncommitted.addAll(messages.subList(i, messages.size()));
+                    break;
+                }
+                log.error("The database refused chat message {}, moving it to the dead letter file", message.id(), e);
+                rejected.add(message);
+            }
+        }
+        if (!rejected.isEmpty()) {
+            spool.deadLetter(rejected);
+        }
+    }
+
+    // only a database that can't be reached or is overloaded is worth retrying, anything else fails the same way again
+    private static boolean isTransient(RuntimeException e) {
+        return e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException
+                || e instanceof CannotCreateTransactionException
+                || e instanceof TransactionSystemException;
+    }
+
+    /**
+     * Commits the messages in one transaction, except those whose sender or recipient has been deleted meanwhile.
+     * @return the messages that were dropped for that, they belong to an account that is being removed
+     */
+    private Set<PendingChatMessage> persist(List<PendingChatMessage> batch) {
+        return transactionTemplate.execute(status -> {
+            Set<Integer> activeUserIds = new HashSet<>(jdbcTemplate.queryForList(
+                    LOCK_ACTIVE_USERS_SQL,
+                    Integer.class,
+                    (Object) batch.stream().flatMap(message -> Stream.of(message.senderId(), message.recipientId())).distinct().toArray(Integer[]::new)
+            ));
+            Map<Boolean, List<PendingChatMessage>> byActive = batch.stream().collect(Collectors.partitioningBy(
+                    message -> activeUserIds.contains(message.senderId()) && activeUserIds.contains(message.recipientId())
+            ));
+            Set<PendingChatMessage> dropped = new HashSet<>(byActive.get(false));
+            if (!dropped.isEmpty()) {
+                log.info("Dropped {} chat messages of deleted users", dropped.size());
+            }
+            List<PendingChatMessage> messages = byActive.get(true);
+            if (!messages.isEmpty()) {
+                insert(messages);
+            }
+            return dropped;
+        });
+    }
+
+    private void insert(List<PendingChatMessage> messages) {
+        List<String> chatRoomIds = messages.stream().map(PendingChatMessage::chatRoomId).distinct().toList();
+        Map<String, PendingChatMessage> latestMessages = messages.stream().collect(Collectors.toMap(
+                PendingChatMessage::chatRoomId,
+                Function.identity(),
+                BinaryOperator.maxBy(CHRONOLOGICAL)
+        ));
+
+        jdbcTemplate.batchUpdate(INSERT_CHAT_ROOM_SQL, chatRoomIds, batchSize, (ps, chatRoomId) -> ps.setString(1, chatRoomId));
+        jdbcTemplate.batchUpdate(INSERT_MESSAGE_SQL, messages, batchSize, (ps, message) -> {
+            ps.setInt(1, message.id());
+            ps.setObject(2, message.timestamp());
+            ps.setString(3, message.content());
+            ps.setString(4, message.chatRoomId());
+            ps.setInt(5, message.senderId());
+            ps.setInt(6, message.recipientId());
+        });
+        jdbcTemplate.batchUpdate(UPDATE_LATEST_MESSAGE_SQL, latestMessages.values(), batchSize, (ps, message) -> {
+            ps.setInt(1, message.id());
+            ps.setString(2, message.chatRoomId());
+        });
+        chatRoomService.updateInboxes(messages.stream().map(PendingChatMessage::toResponseDTO).toList());
+    }
+}
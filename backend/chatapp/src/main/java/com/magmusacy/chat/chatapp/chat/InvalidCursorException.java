@@ -0,0 +1,7 @@
+package com.magmusacy.chat.chatapp.chat;
+
+public class InvalidCursorException extends RuntimeException {
+    public InvalidCursorException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,40 @@
+package com.magmusacy.chat.chatapp.chat;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Keyset position inside a conversation. Messages are ordered by (timestamp, id), the id breaks ties
+ * between messages sent within the same microsecond.
+ */
+public record MessageCursor(
+        LocalDateTime timestamp,
+        int id
+) {
+    private static final String SEPARATOR = "|";
+
+    public static MessageCursor of(ChatMessageResponseDTO message) {
+        return new MessageCursor(message.timestamp(), message.id());
+    }
+
+    // used by Spring to bind the ?before= / ?after= request params
+    public static MessageCursor from(String value) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+            int separatorIndex = decoded.lastIndexOf(SEPARATOR);
+            return new MessageCursor(
+                    LocalDateTime.parse(decoded.substring(0, separatorIndex)),
+                    Integer.parseInt(decoded.substring(separatorIndex + 1))
+            );
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new InvalidCursorException("Invalid message cursor");
+        }
+    }
+
+    public String encode() {
+        String raw = timestamp + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,20 @@
+package com.magmusacy.chat.chatapp.chat;
+
+import java.time.LocalDateTime;
+
+/**
+ * A message that has already been delivered to the participants but is not committed to the database yet.
+ */
+public record PendingChatMessage(
+        int id,
+        LocalDateTime timestamp,
+        String content,
+        int senderId,
+        int recipientId,
+        String chatRoomId,
+        String senderEmail
+) {
+    public ChatMessageResponseDTO toResponseDTO() {
+        return new ChatMessageResponseDTO(id, content, senderId, recipientId, chatRoomId, timestamp);
+    }
+}
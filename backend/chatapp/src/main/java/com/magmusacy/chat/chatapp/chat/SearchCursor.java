@@ -0,0 +1,38 @@
+package com.magmusacy.chat.chatapp.chat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Keyset position inside search results. Hits are ordered by (rank DESC, id DESC), the id breaks ties between
+ * messages that rank the same.
+ */
+public record SearchCursor(
+        float rank,
+        int id
+) {
+    private static final String SEPARATOR = "|";
+
+    public static SearchCursor of(ChatMessageSearchHitDTO hit) {
+        return new SearchCursor(hit.rank(), hit.id());
+    }
+
+    // used by Spring to bind the ?after= request param
+    public static SearchCursor from(String value) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+            int separatorIndex = decoded.lastIndexOf(SEPARATOR);
+            return new SearchCursor(
+                    Float.parseFloat(decoded.substring(0, separatorIndex)),
+                    Integer.parseInt(decoded.substring(separatorIndex + 1))
+            );
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new InvalidCursorException("Invalid search cursor");
+        }
+    }
+
+    public String encode() {
+        String raw = rank + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,7 @@
+package com.magmusacy.chat.chatapp.chatroom;
+
+/**
+ * {@code userId} has a conversation with {@code partnerId}.
+ */
+public record ChatPartner(int userId, int partnerId) {
+}
@@ -25,9 +25,14 @@ public class ChatRoomController {
 
         ChatRoom chatRoom = chatRoomService.setReadLatestMessageStatus(
                 chatRoomService.getChatRoom(firstChatUser, secondChatUser, false).
-                orElseThrow(() -> new IllegalArgumentException("This chat room does not exist")), true);
+                orElseThrow(() -> new IllegalArgumentException("This chat room does not exist")), firstChatUser);
 
-        return new LatestMessageResponseDTO(chatRoom.isReadStatus(),
+        if (chatRoom.getLatestMessage() == null) {
+            // archived with its partition, the inbox keeps a copy
+            return chatRoomService.findLatestMessage(firstChatUser.getId(), chatRoom.getId())
+                    .orElseThrow(() -> new IllegalArgumentException("This chat room has no messages"));
+        }
+        return new LatestMessageResponseDTO(true,
                 chatRoom.getLatestMessage().getSender().getId(),
                 chatRoom.getLatestMessage().getRecipient().getId(),
                 chatRoom.getLatestMessage().getContent(),
@@ -1,22 +1,27 @@
 package com.magmusacy.chat.chatapp.chatroom;
 
-import com.magmusacy.chat.chatapp.chat.ChatMessage;
-import com.magmusacy.chat.chatapp.user.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface ChatRoomRepository extends JpaRepository<ChatRoom, String> {
-    @Query("SELECT c.latestMessage FROM ChatRoom c " +
-            "WHERE c.latestMessage IS NOT NULL " +
-            "AND (c.latestMessage.recipient = :currentUser OR c.latestMessage.sender = :currentUser)")
-    List<ChatMessage> findAllLatestMessages(@Param("currentUser") User currentUser);
+    // each branch is an index-only scan, rooms without messages yet are only known to the inbox
+    @Query(value = "SELECT chat_rooms_id FROM chat_messages WHERE sender_id = :userId AND chat_rooms_id IS NOT NULL " +
+            "UNION SELECT chat_rooms_id FROM chat_messages WHERE recipient_id = :userId AND chat_rooms_id IS NOT NULL " +
+            "UNION SELECT chat_room_id FROM inbox_entries WHERE user_id = :userId", nativeQuery = true)
+    List<String> findChatRoomIdsByParticipant(@Param("userId") int userId);
 
-    @Query("SELECT DISTINCT c FROM ChatRoom c " +
-            "JOIN c.chatMessages m WHERE m.sender = :user OR m.recipient = :user")
-    List<ChatRoom> findChatRoomsByParticipatingUser(@Param("user") User user);
+    @Modifying
+    @Query("UPDATE ChatRoom c SET c.latestMessage = null WHERE c.id IN :chatRoomIds")
+    void clearLatestMessages(@Param("chatRoomIds") Collection<String> chatRoomIds);
+
+    @Modifying
+    @Query("DELETE FROM ChatRoom c WHERE c.id IN :chatRoomIds")
+    void deleteAllByIds(@Param("chatRoomIds") Collection<String> chatRoomIds);
 }
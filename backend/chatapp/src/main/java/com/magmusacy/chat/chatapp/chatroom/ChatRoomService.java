@@ -1,41 +1,105 @@
 package com.magmusacy.chat.chatapp.chatroom;
 
+import com.magmusacy.chat.chatapp.chat.ChatMessage;
+import com.magmusacy.chat.chatapp.chat.ChatMessageArchive;
 import com.magmusacy.chat.chatapp.chat.ChatMessageRepository;
-import com.magmusacy.chat.chatapp.chat.ChatMessageService;
+import com.magmusacy.chat.chatapp.chat.ChatMessageResponseDTO;
 import com.magmusacy.chat.chatapp.user.User;
-import com.magmusacy.chat.chatapp.user.UserRepository;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.BinaryOperator;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class ChatRoomService {
+    private static final Comparator<ChatMessageResponseDTO> CHRONOLOGICAL =
+            Comparator.comparing(ChatMessageResponseDTO::timestamp).thenComparingInt(ChatMessageResponseDTO::id);
+
     private final ChatRoomRepository chatRoomRepository;
     private final ChatMessageRepository chatMessageRepository;
+    private final InboxEntryRepository inboxEntryRepository;
+    private final InboxEntryBatchRepository inboxEntryBatchRepository;
+    private final ChatMessageArchive chatMessageArchive;
 
     public ChatRoom save(ChatRoom chatRoom) {
         return chatRoomRepository.save(chatRoom);
     }
 
-    public ChatRoom setReadLatestMessageStatus(ChatRoom chatRoom, boolean status) {
-        chatRoom.setReadStatus(status);
+    public List<ChatRoom> saveAll(Collection<ChatRoom> chatRooms) {
+        return chatRoomRepository.saveAll(chatRooms);
+    }
+
+    @Transactional
+    public ChatRoom setReadLatestMessageStatus(ChatRoom chatRoom, User reader) {
+        inboxEntryRepository.markRead(reader.getId(), chatRoom.getId());
+        chatRoom.setReadStatus(true);
         return chatRoomRepository.save(chatRoom);
     }
 
-    public List<LatestMessageResponseDTO> getAllLatestMessages(User currentUser) {
-        return chatRoomRepository.findAllLatestMessages(currentUser).stream().map(message -> new LatestMessageResponseDTO(
-                message.getChatRoom().isReadStatus(),
+    public Optional<LatestMessageResponseDTO> findLatestMessage(int userId, String chatRoomId) {
+        return inboxEntryRepository.findLatestMessage(userId, chatRoomId);
+    }
+
+    /**
+     * For each of the given users, the ids of everyone who has a conversation with them.
+     */
+    public Map<Integer, List<Integer>> findChatPartnerIds(Collection<Integer> userIds) {
+        return inboxEntryRepository.findByPartnerIds(userIds).stream()
+                .collect(Collectors.groupingBy(ChatPartner::partnerId, Collectors.mapping(ChatPartner::userId, Collectors.toList())));
+    }
+
+    public void updateInboxes(ChatMessage message) {
+        updateInboxes(List.of(new ChatMessageResponseDTO(
+                message.getId(),
+                message.getContent(),
                 message.getSender().getId(),
                 message.getRecipient().getId(),
-                message.getContent(),
                 message.getChatRoom().getId(),
                 message.getTimestamp()
-                )
-        ).toList();
+        )));
+    }
+
+    /**
+     * Upserts the sender's and the recipient's entry of every message, grouped by entry so that each entry is written
+     * once per kind however many of the messages it gets.
+     */
+    public void updateInboxes(Collection<ChatMessageResponseDTO> messages) {
+        Map<InboxEntryId, ChatMessageResponseDTO> latestSent = new HashMap<>();
+        Map<InboxEntryId, List<ChatMessageResponseDTO>> received = new HashMap<>();
+        for (ChatMessageResponseDTO message : messages) {
+            latestSent.merge(new InboxEntryId(message.senderId(), message.chatRoomId()), message, BinaryOperator.maxBy(CHRONOLOGICAL));
+            if (message.senderId() != message.recipientId()) {
+                received.computeIfAbsent(new InboxEntryId(message.recipientId(), message.chatRoomId()), id -> new ArrayList<>()).add(message);
+            }
+        }
+
+        // a user who answered has read what came before the answer, only what came after it is unread
+        List<InboxEntryBatchRepository.ReceivedMessages> latestReceived = received.entrySet().stream()
+                .map(entry -> {
+                    ChatMessageResponseDTO answer = latestSent.get(entry.getKey());
+                    int unreadCount = (int) entry.getValue().stream()
+                            .filter(message -> answer == null || CHRONOLOGICAL.compare(message, answer) > 0)
+                            .count();
+                    return new InboxEntryBatchRepository.ReceivedMessages(entry.getValue().stream().max(CHRONOLOGICAL).orElseThrow(), unreadCount);
+                })
+                .toList();
+        // sent first, so the answer resets the entry to read and the received upsert adds only what came after it
+        inboxEntryBatchRepository.upsertSent(latestSent.values());
+        inboxEntryBatchRepository.upsertReceived(latestReceived);
+    }
+
+    public List<LatestMessageResponseDTO> getAllLatestMessages(User currentUser) {
+        return inboxEntryRepository.findLatestMessagesByUserId(currentUser.getId());
     }
 
     public Optional<ChatRoom> getChatRoom(
@@ -43,49 +107,60 @@ public class ChatRoomService {
             User recipient,
             boolean createNewRoomIfNotExists
     ) {
-        List<User> orderedUsers = getUsersInOrder(sender, recipient);
-        User firstSender = orderedUsers.getFirst();
-        User secondSender = orderedUsers.getLast();
-        return chatRoomRepository.findById(generateChatRoomId(firstSender, secondSender))
+        String chatId = generateChatRoomId(sender.getId(), recipient.getId());
+        return chatRoomRepository.findById(chatId)
         .or(() -> {
             if (createNewRoomIfNotExists) {
-                return Optional.of(createChat(firstSender, secondSender));
+                return Optional.of(createChat(chatId));
             }
             return Optional.empty();
         });
     }
 
-    private ChatRoom createChat(User firstSender, User secondSender) {
-        String chatId = generateChatRoomId(firstSender, secondSender);
-
+    private ChatRoom createChat(String chatId) {
         ChatRoom room = ChatRoom.builder()
                 .id(chatId)
                 .build();
 
-        chatRoomRepository.save(room);
-        return room;
+        // the id is assigned, so save merges and only the returned copy is managed
+        return chatRoomRepository.save(room);
+    }
+
+    public List<String> findChatRoomIds(int userId) {
+        return chatRoomRepository.findChatRoomIdsByParticipant(userId);
     }
 
+    public long countChatMessages(Collection<String> chatRoomIds) {
+        return chatMessageRepository.countByChatRoomIdIn(chatRoomIds);
+    }
+
+    /**
+     * First step of deleting conversations, removes everything that points at their messages so the messages can
+     * then go in chunks with {@link #deleteChatMessages}.
+     */
     @Transactional
-    public void deleteUserChatRooms(User user) {
-        List<ChatRoom> chatRooms = chatRoomRepository.findChatRoomsByParticipatingUser(user);
-        for (ChatRoom chatRoom : chatRooms) {
-            chatRoom.setLatestMessage(null);
-            chatRoomRepository.save(chatRoom);
-            chatMessageRepository.deleteAll(chatRoom.getChatMessages());
-            chatRoomRepository.delete(chatRoom);
-        }
+    public void detachChatRooms(Collection<String> chatRoomIds) {
+        chatRoomRepository.clearLatestMessages(chatRoomIds);
+        inboxEntryRepository.deleteAllByChatRoomIds(chatRoomIds);
+        chatMessageArchive.deleteByChatRoomIds(chatRoomIds);
     }
 
-    private String generateChatRoomId(User firstSender, User secondSender) {
-        return String.format("%d_%d", firstSender.getId(), secondSender.getId());
+    /**
+     * Deletes up to {@code limit} messages of the conversations.
+     * @return how many were deleted, less than the limit once none are left
+     */
+    @Transactional
+    public int deleteChatMessages(Collection<String> chatRoomIds, int limit) {
+        return chatMessageRepository.deleteChunkByChatRoomIds(chatRoomIds, limit);
     }
 
-    private List<User> getUsersInOrder(User user1, User user2) {
-        if (user1.getId().compareTo(user2.getId()) < 0) {
-            return List.of(user1, user2);
-        } else {
-            return List.of(user2, user1);
-        }
+    @Transactional
+    public void deleteChatRooms(Collection<String> chatRoomIds) {
+        chatRoomRepository.deleteAllByIds(chatRoomIds);
+    }
+
+    // room ids are "lowerId_higherId", so both participants resolve the same room without a lookup
+    public static String generateChatRoomId(int firstUserId, int secondUserId) {
+        return String.format("%d_%d", Math.min(firstUserId, secondUserId), Math.max(firstUserId, secondUserId));
     }
 }
@@ -0,0 +1,37 @@
+package com.magmusacy.chat.chatapp.chatroom;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * One row per (user, chat room) holding a snapshot of the room's latest message and the user's own read state.
+ * Maintained on write by {@link ChatRoomService} so the conversation list is a single index scan on user id.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@Entity
+@Table(name = "inbox_entries", indexes = {
+        @Index(name = "idx_inbox_entries_user_activity", columnList = "user_id, last_message_timestamp"),
+        @Index(name = "idx_inbox_entries_partner", columnList = "partner_id, user_id"),
+        @Index(name = "idx_inbox_entries_chat_room", columnList = "chat_room_id")
+})
+public class InboxEntry {
+    @EmbeddedId
+    private InboxEntryId id;
+
+    private int partnerId;
+
+    private int lastMessageId;
+    private int lastMessageSenderId;
+    private int lastMessageRecipientId;
+    private String lastMessageContent;
+    private LocalDateTime lastMessageTimestamp;
+
+    private int unreadCount;
+    private Integer lastReadMessageId;
+}
@@ -0,0 +1,95 @@
+package com.magmusacy.chat.chatapp.chatroom;
+
+import com.magmusacy.chat.chatapp.chat.ChatMessageResponseDTO;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+
+/**
+ * The inbox upserts of {@link ChatRoomService#updateInboxes}, one JDBC batch per kind. Sends to one room can commit
+ * out of order, so an entry only takes a message later than the one it holds, by (timestamp, id) like history.
+ */
+@Repository
+@RequiredArgsConstructor
+public class InboxEntryBatchRepository {
+    private static final String NEWER_MESSAGE = "(EXCLUDED.last_message_timestamp, EXCLUDED.last_message_id) > " +
+            "(inbox_entries.last_message_timestamp, inbox_entries.last_message_id)";
+    private static final String IF_NEWER = "CASE WHEN " + NEWER_MESSAGE + " THEN ";
+
+    // the sender has obviously read their own message, so their entry is reset to read. An older message changes
+    // nothing, it was read with the newer one
+    private static final String UPSERT_SENT_SQL = "INSERT INTO inbox_entries (user_id, chat_room_id, partner_id, " +
+            "last_message_id, last_message_sender_id, last_message_recipient_id, last_message_content, last_message_timestamp, " +
+            "unread_count, last_read_message_id) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, 0, ?) " +
+            "ON CONFLICT (user_id, chat_room_id) DO UPDATE SET " +
+            "last_message_id = EXCLUDED.last_message_id, " +
+            "last_message_sender_id = EXCLUDED.last_message_sender_id, " +
+            "last_message_recipient_id = EXCLUDED.last_message_recipient_id, " +
+            "last_message_content = EXCLUDED.last_message_content, " +
+            "last_message_timestamp = EXCLUDED.last_message_timestamp, " +
+            "unread_count = 0, " +
+            "last_read_message_id = EXCLUDED.last_read_message_id " +
+            "WHERE " + NEWER_MESSAGE;
+
+    // messages that commit after a newer one still count as unread, they just don't replace the newer one
+    private static final String UPSERT_RECEIVED_SQL = "INSERT INTO inbox_entries (user_id, chat_room_id, partner_id, " +
+            "last_message_id, last_message_sender_id, last_message_recipient_id, last_message_content, last_message_timestamp, " +
+            "unread_count, last_read_message_id) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, NULL) " +
+            "ON CONFLICT (user_id, chat_room_id) DO UPDATE SET " +
+            "last_message_id = " + IF_NEWER + "EXCLUDED.last_message_id ELSE inbox_entries.last_message_id END, " +
+            "last_message_sender_id = " + IF_NEWER + "EXCLUDED.last_message_sender_id ELSE inbox_entries.last_message_sender_id END, " +
+            "last_message_recipient_id = " + IF_NEWER + "EXCLUDED.last_message_recipient_id ELSE inbox_entries.last_message_recipient_id END, " +
+            "last_message_content = " + IF_NEWER + "EXCLUDED.last_message_content ELSE inbox_entries.last_message_content END, " +
+            "last_message_timestamp = " + IF_NEWER + "EXCLUDED.last_message_timestamp ELSE inbox_entries.last_message_timestamp END, " +
+            "unread_count = inbox_entries.unread_count + EXCLUDED.unread_count";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * @param latestSent per sender and room, the latest message the sender sent in it
+     */
+    public void upsertSent(Collection<ChatMessageResponseDTO> latestSent) {
+        if (latestSent.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(UPSERT_SENT_SQL, latestSent, latestSent.size(), (ps, message) -> {
+            setEntry(ps, message.senderId(), message.recipientId(), message);
+            ps.setInt(9, message.id());
+        });
+    }
+
+    /**
+     * @param latestReceived per recipient and room, the latest message the recipient got in it and how many of those
+     *                       messages to add to the unread count
+     */
+    public void upsertReceived(Collection<ReceivedMessages> latestReceived) {
+        if (latestReceived.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(UPSERT_RECEIVED_SQL, latestReceived, latestReceived.size(), (ps, received) -> {
+            ChatMessageResponseDTO message = received.latest();
+            setEntry(ps, message.recipientId(), message.senderId(), message);
+            ps.setInt(9, received.unreadCount());
+        });
+    }
+
+    private static void setEntry(PreparedStatement ps, int userId, int partnerId, ChatMessageResponseDTO message) throws SQLException {
+        ps.setInt(1, userId);
+        ps.setString(2, message.chatRoomId());
+        ps.setInt(3, partnerId);
+        ps.setInt(4, message.id());
+        ps.setInt(5, message.senderId());
+        ps.setInt(6, message.recipientId());
+        ps.setString(7, message.content());
+        ps.setTimestamp(8, Timestamp.valueOf(message.timestamp()));
+    }
+
+    public record ReceivedMessages(ChatMessageResponseDTO latest, int unreadCount) {}
+}
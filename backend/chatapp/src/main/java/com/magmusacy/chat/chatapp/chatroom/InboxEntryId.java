@@ -0,0 +1,19 @@
+package com.magmusacy.chat.chatapp.chatroom;
+
+import jakarta.persistence.Embeddable;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+@Getter
+@EqualsAndHashCode
+@AllArgsConstructor
+@NoArgsConstructor
+@Embeddable
+public class InboxEntryId implements Serializable {
+    private int userId;
+    private String chatRoomId;
+}
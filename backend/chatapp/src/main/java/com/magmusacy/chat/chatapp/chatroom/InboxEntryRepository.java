@@ -0,0 +1,39 @@
+package com.magmusacy.chat.chatapp.chatroom;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface InboxEntryRepository extends JpaRepository<InboxEntry, InboxEntryId> {
+    @Query("SELECT new com.magmusacy.chat.chatapp.chatroom.LatestMessageResponseDTO(" +
+            "CASE WHEN e.unreadCount = 0 THEN true ELSE false END, e.lastMessageSenderId, e.lastMessageRecipientId, " +
+            "e.lastMessageContent, e.id.chatRoomId, e.lastMessageTimestamp) " +
+            "FROM InboxEntry e WHERE e.id.userId = :userId ORDER BY e.lastMessageTimestamp DESC")
+    List<LatestMessageResponseDTO> findLatestMessagesByUserId(@Param("userId") int userId);
+
+    @Query("SELECT new com.magmusacy.chat.chatapp.chatroom.LatestMessageResponseDTO(" +
+            "CASE WHEN e.unreadCount = 0 THEN true ELSE false END, e.lastMessageSenderId, e.lastMessageRecipientId, " +
+            "e.lastMessageContent, e.id.chatRoomId, e.lastMessageTimestamp) " +
+            "FROM InboxEntry e WHERE e.id.userId = :userId AND e.id.chatRoomId = :chatRoomId")
+    Optional<LatestMessageResponseDTO> findLatestMessage(@Param("userId") int userId, @Param("chatRoomId") String chatRoomId);
+
+    @Query("SELECT new com.magmusacy.chat.chatapp.chatroom.ChatPartner(e.id.userId, e.partnerId) " +
+            "FROM InboxEntry e WHERE e.partnerId IN :partnerIds")
+    List<ChatPartner> findByPartnerIds(@Param("partnerIds") Collection<Integer> partnerIds);
+
+    @Modifying
+    @Query("UPDATE InboxEntry e SET e.unreadCount = 0, e.lastReadMessageId = e.lastMessageId " +
+            "WHERE e.id.userId = :userId AND e.id.chatRoomId = :chatRoomId")
+    void markRead(@Param("userId") int userId, @Param("chatRoomId") String chatRoomId);
+
+    @Modifying
+    @Query("DELETE FROM InboxEntry e WHERE e.id.chatRoomId IN :chatRoomIds")
+    void deleteAllByChatRoomIds(@Param("chatRoomIds") Collection<String> chatRoomIds);
+}
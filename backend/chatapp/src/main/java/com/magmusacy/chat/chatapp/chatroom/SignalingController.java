@@ -1,7 +1,7 @@
 package com.magmusacy.chat.chatapp.chatroom;
 
-import com.magmusacy.chat.chatapp.user.User;
-import com.magmusacy.chat.chatapp.user.UserService;
+import com.magmusacy.chat.chatapp.user.UserDirectory;
+import com.magmusacy.chat.chatapp.user.UserDirectoryEntry;
 import lombok.RequiredArgsConstructor;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
@@ -14,13 +14,13 @@ import java.security.Principal;
 @RequiredArgsConstructor
 public class SignalingController {
     private final SimpMessagingTemplate messagingTemplate;
-    private final UserService userService;
+    private final UserDirectory userDirectory;
 
     @MessageMapping("/signal")
     public void handleSignalMessage(@Payload SignalingMessage message) {
         String sender = message.sender();
         int recipientId = Integer.parseInt(message.recipient());
-        User recipient = userService.findById(recipientId);
+        UserDirectoryEntry recipient = userDirectory.findById(recipientId);
 
         System.out.println(
                 "Signal from " + sender + " to " + recipient + ": " +
@@ -28,7 +28,7 @@ public class SignalingController {
         );
 
         messagingTemplate.convertAndSendToUser(
-                recipient.getEmail(),
+                recipient.email(),
                 "/queue/webrtc",
                 message
         );
@@ -0,0 +1,58 @@
+package com.magmusacy.chat.chatapp.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What one node posts to another in a single request, see {@link ClusterForwarder}. The receiving node applies the
+ * invalidations before the deliveries, so a message that follows a change is never handled with the old state, and
+ * user invalidations before principal ones, so a principal is never loaded again from a stale directory entry.
+ */
+public record ClusterBatch(List<Delivery> deliveries,
+                           List<RouteInvalidation> routeInvalidations,
+                           List<UserInvalidation> userInvalidations,
+                           List<PrincipalInvalidation> principalInvalidations) {
+
+    static ClusterBatch of(List<Frame> frames) {
+        List<Delivery> deliveries = new ArrayList<>();
+        List<RouteInvalidation> routeInvalidations = new ArrayList<>();
+        List<UserInvalidation> userInvalidations = new ArrayList<>();
+        List<PrincipalInvalidation> principalInvalidations = new ArrayList<>();
+        for (Frame frame : frames) {
+            switch (frame) {
+                case Delivery delivery -> deliveries.add(delivery);
+                case RouteInvalidation routeInvalidation -> routeInvalidations.add(routeInvalidation);
+                case UserInvalidation userInvalidation -> userInvalidations.add(userInvalidation);
+                case PrincipalInvalidation principalInvalidation -> principalInvalidations.add(principalInvalidation);
+            }
+        }
+        return new ClusterBatch(deliveries, routeInvalidations, userInvalidations, principalInvalidations);
+    }
+
+    sealed interface Frame permits Delivery, RouteInvalidation, UserInvalidation, PrincipalInvalidation {
+    }
+
+    /**
+     * An already serialized broker message for a "/user/..." or "/topic/..." destination.
+     */
+    public record Delivery(String destination, String contentType, byte[] payload) implements Frame {
+    }
+
+    /**
+     * The sessions of {@code email} changed, the receiving node looks up where they are connected again.
+     */
+    public record RouteInvalidation(String email) implements Frame {
+    }
+
+    /**
+     * The user changed, the receiving node drops its {@code UserDirectory} entry.
+     */
+    public record UserInvalidation(int userId, String email) implements Frame {
+    }
+
+    /**
+     * The tokens of {@code email} no longer resolve, the receiving node drops its cached principals.
+     */
+    public record PrincipalInvalidation(String email) implements Frame {
+    }
+}
@@ -0,0 +1,88 @@
+package com.magmusacy.chat.chatapp.cluster;
+
+import com.magmusacy.chat.chatapp.auth.PrincipalCache;
+import com.magmusacy.chat.chatapp.user.UserDirectory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.user.UserDestinationMessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.Assert;
+import org.springframework.util.MimeType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Receives the frames another node's {@link ClusterForwarder} posts. Invalidations only evict the caches of this
+ * node, they were broadcast by the node that made the change. User messages are resolved against the local sessions
+ * of the user, topic messages go to the local broker.
+ */
+@RestController
+@ConditionalOnProperty(prefix = "chat.broker", name = "mode", havingValue = "cluster")
+public class ClusterDeliveryController {
+    static final String DELIVER_PATH = "/internal/cluster/deliver";
+    static final String SECRET_HEADER = "X-Cluster-Secret";
+
+    private final UserDestinationMessageHandler userDestinationMessageHandler;
+    private final MessageChannel brokerChannel;
+    private final ClusterSessionRegistry clusterSessionRegistry;
+    private final UserDirectory userDirectory;
+    private final PrincipalCache principalCache;
+    private final byte[] secret;
+
+    public ClusterDeliveryController(UserDestinationMessageHandler userDestinationMessageHandler,
+                                     @Qualifier("brokerChannel") MessageChannel brokerChannel,
+                                     ClusterSessionRegistry clusterSessionRegistry,
+                                     UserDirectory userDirectory,
+                                     PrincipalCache principalCache,
+                                     @Value("${chat.cluster.secret}") String secret) {
+        this.userDestinationMessageHandler = userDestinationMessageHandler;
+        this.brokerChannel = brokerChannel;
+        this.clusterSessionRegistry = clusterSessionRegistry;
+        this.userDirectory = userDirectory;
+        this.principalCache = principalCache;
+        Assert.hasText(secret, "chat.cluster.secret must be set in cluster mode");
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @PostMapping(DELIVER_PATH)
+    public ResponseEntity<Void> deliver(@RequestHeader(value = SECRET_HEADER, required = false) String clusterSecret,
+                                        @RequestBody ClusterBatch batch) {
+        if (clusterSecret == null || !MessageDigest.isEqual(secret, clusterSecret.getBytes(StandardCharsets.UTF_8))) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (!batch.deliveries().stream().allMatch(delivery -> delivery.destination().startsWith("/user/")
+                || delivery.destination().startsWith("/topic/"))) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        batch.userInvalidations().forEach(invalidation -> userDirectory.evict(invalidation.userId(), invalidation.email()));
+        batch.principalInvalidations().forEach(invalidation -> principalCache.evict(invalidation.email()));
+        batch.routeInvalidations().forEach(invalidation -> clusterSessionRegistry.invalidateRoute(invalidation.email()));
+        for (ClusterBatch.Delivery delivery : batch.deliveries()) {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            accessor.setDestination(delivery.destination());
+            accessor.setContentType(MimeType.valueOf(delivery.contentType()));
+            accessor.setNativeHeader(ClusterForwardingInterceptor.FORWARDED_HEADER, "true");
+            accessor.setLeaveMutable(true);
+            Message<byte[]> message = MessageBuilder.createMessage(delivery.payload(), accessor.getMessageHeaders());
+            if (delivery.destination().startsWith("/user/")) {
+                userDestinationMessageHandler.handleMessage(message);
+            } else {
+                brokerChannel.send(message);
+            }
+        }
+        return ResponseEntity.accepted().build();
+    }
+}
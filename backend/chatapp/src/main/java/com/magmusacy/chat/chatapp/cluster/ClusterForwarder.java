@@ -0,0 +1,187 @@
+package com.magmusacy.chat.chatapp.cluster;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Hands frames to the other nodes in the order they were produced here. Everything goes through one bounded queue
+ * drained by a single routing thread, which looks up the nodes of all recipients of a drained batch at once and
+ * passes every frame on to the {@link ClusterNodeSender} of each node it is for. User messages go to the nodes the
+ * recipient is connected to, topic messages and invalidations to every live node. When the queue is full, frames
+ * are dropped, local delivery is never held up by another node.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "chat.broker", name = "mode", havingValue = "cluster")
+public class ClusterForwarder {
+    private static final Duration SENDER_IDLE_TIMEOUT = Duration.ofMinutes(1);
+
+    private final ClusterSessionRegistry clusterSessionRegistry;
+    private final ClusterMembership clusterMembership;
+    private final String secret;
+    private final RestClient restClient;
+    private final int queueCapacity;
+    private final int batchSize;
+    private final BlockingQueue<Outgoing> outgoing;
+    // only touched by the routing thread
+    private final Map<String, ClusterNodeSender> senders = new HashMap<>();
+    private Thread routerThread;
+    private volatile boolean running = true;
+
+    public ClusterForwarder(ClusterSessionRegistry clusterSessionRegistry,
+                            ClusterMembership clusterMembership,
+                            @Value("${chat.cluster.secret}") String secret,
+                            @Value("${chat.cluster.forward-timeout:5s}") Duration forwardTimeout,
+                            @Value("${chat.cluster.forward-queue-capacity:10000}") int queueCapacity,
+                            @Value("${chat.cluster.forward-batch-size:100}") int batchSize) {
+        this.clusterSessionRegistry = clusterSessionRegistry;
+        this.clusterMembership = clusterMembership;
+        this.secret = secret;
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(
+                HttpClient.newBuilder().connectTimeout(forwardTimeout).build()
+        );
+        requestFactory.setReadTimeout(forwardTimeout);
+        this.restClient = RestClient.builder().requestFactory(requestFactory).build();
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+        this.outgoing = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    @PostConstruct
+    void start() {
+        routerThread = Thread.ofPlatform().name("cluster-router").daemon(true).start(this::route);
+    }
+
+    public void forward(String destination, MimeType contentType, byte[] payload) {
+        String email = destination.startsWith("/user/") ? parseUser(destination) : null;
+        String type = contentType != null ? contentType.toString() : "application/json";
+        enqueue(new Outgoing(email, new ClusterBatch.Delivery(destination, type, payload)));
+    }
+
+    /**
+     * Evicts the user from the {@code UserDirectory} of every other node.
+     */
+    public void invalidateUser(int userId, String email) {
+        enqueue(new Outgoing(null, new ClusterBatch.UserInvalidation(userId, email)));
+    }
+
+    /**
+     * Evicts the cached principals of the user on every other node.
+     */
+    public void invalidatePrincipals(String email) {
+        enqueue(new Outgoing(null, new ClusterBatch.PrincipalInvalidation(email)));
+    }
+
+    // after ClusterSessionRegistry saved the session, a node that looks the user up again right away has to find it
+    @EventListener
+    public void handleSessionConnected(SessionConnectedEvent event) {
+        if (event.getUser() != null) {
+            enqueue(new Outgoing(null, new ClusterBatch.RouteInvalidation(event.getUser().getName())));
+        }
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        routerThread.join(TimeUnit.SECONDS.toMillis(5));
+        for (ClusterNodeSender sender : senders.values()) {
+            sender.close();
+            sender.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    private void enqueue(Outgoing frame) {
+        if (!outgoing.offer(frame)) {
+            log.warn("The cluster forwarding queue is full, dropped a frame for {}", frame.email() != null ? frame.email() : "every node");
+        }
+    }
+
+    private void route() {
+        List<Outgoing> batch = new ArrayList<>(batchSize);
+        while (running || !outgoing.isEmpty()) {
+            try {
+                Outgoing first = outgoing.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    outgoing.drainTo(batch, batchSize - 1);
+                    dispatch(batch);
+                }
+                closeIdleSenders();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Could not route {} cluster frames", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void dispatch(List<Outgoing> batch) {
+        Set<String> emails = batch.stream().map(Outgoing::email).filter(Objects::nonNull).collect(Collectors.toSet());
+        Map<String, List<String>> routes = clusterSessionRegistry.findRemoteNodeUrls(emails);
+        List<String> everyNode = batch.stream().anyMatch(frame -> frame.email() == null)
+                ? clusterMembership.findRemoteNodeUrls()
+                : List.of();
+        for (Outgoing frame : batch) {
+            List<String> nodeUrls = frame.email() != null ? routes.getOrDefault(frame.email(), List.of()) : everyNode;
+            for (String nodeUrl : nodeUrls) {
+                senders.computeIfAbsent(nodeUrl, this::startSender).offer(frame.frame());
+            }
+        }
+    }
+
+    private ClusterNodeSender startSender(String nodeUrl) {
+        ClusterNodeSender sender = new ClusterNodeSender(nodeUrl, restClient, secret, queueCapacity, batchSize);
+        sender.start();
+        return sender;
+    }
+
+    // nodes that left, or that no recipient has been on for a while, don't keep a thread
+    private void closeIdleSenders() {
+        long now = System.nanoTime();
+        Iterator<ClusterNodeSender> iterator = senders.values().iterator();
+        while (iterator.hasNext()) {
+            ClusterNodeSender sender = iterator.next();
+            if (now - sender.lastOfferedNanos() > SENDER_IDLE_TIMEOUT.toNanos()) {
+                sender.close();
+                iterator.remove();
+            }
+        }
+    }
+
+    // "/user/{name}/queue/...", with any "/" inside the name encoded as %2F
+    static String parseUser(String destination) {
+        int start = "/user/".length();
+        int end = destination.indexOf('/', start);
+        return destination.substring(start, end).replace("%2F", "/");
+    }
+
+    // email is null for frames that go to every node
+    private record Outgoing(String email, ClusterBatch.Frame frame) {
+    }
+}
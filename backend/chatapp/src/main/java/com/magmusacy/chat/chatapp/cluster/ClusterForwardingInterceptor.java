@@ -0,0 +1,44 @@
+package com.magmusacy.chat.chatapp.cluster;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sits on the broker channel and sees every "/user/{name}/..." and "/topic/..." message before the local broker
+ * handles it. The message carries on to the local sessions unchanged, and the already serialized payload is handed
+ * to the {@link ClusterForwarder}, which posts user messages to every other node that holds a session of the
+ * recipient and topic messages to every other node, see {@link ClusterDeliveryController}. A user connected to
+ * several nodes gets the message on all of them.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "chat.broker", name = "mode", havingValue = "cluster")
+public class ClusterForwardingInterceptor implements ChannelInterceptor {
+    // set by ClusterDeliveryController, a forwarded message is only for the sessions of the receiving node
+    static final String FORWARDED_HEADER = "cluster-forwarded";
+
+    private final ClusterForwarder clusterForwarder;
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if (SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE
+                || destination == null || !(destination.startsWith("/user/") || destination.startsWith("/topic/"))
+                || !(message.getPayload() instanceof byte[] payload)) {
+            return message;
+        }
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        if (accessor.getFirstNativeHeader(FORWARDED_HEADER) == null) {
+            clusterForwarder.forward(destination, accessor.getContentType(), payload);
+        }
+        return message;
+    }
+}
@@ -0,0 +1,126 @@
+package com.magmusacy.chat.chatapp.cluster;
+
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.context.WebServerInitializedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.user.SimpSession;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registers this node in cluster_nodes once the web server is up and keeps its heartbeat fresh. Nodes that stop
+ * heartbeating are no longer routed to, and their rows are cleaned up by whichever node heartbeats next. A node
+ * that was cleaned up while it was only paused finds its row gone on the next heartbeat and registers itself and
+ * its sessions again. Every heartbeat also drops the cached routes to nodes that are no longer alive.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "chat.broker", name = "mode", havingValue = "cluster")
+public class ClusterMembership {
+    private final ClusterNodeRepository clusterNodeRepository;
+    private final ClusterUserSessionRepository clusterUserSessionRepository;
+    // the broker configuration reaches this class through the forwarding interceptor, look the registry up late
+    private final ObjectProvider<SimpUserRegistry> userRegistry;
+    // depends on this class for the node id
+    private final ObjectProvider<ClusterSessionRegistry> clusterSessionRegistry;
+    private final String advertisedHost;
+    private final Duration heartbeatInterval;
+    private final ScheduledExecutorService heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("cluster-heartbeat").daemon(true).factory()
+    );
+
+    @Getter
+    private final String nodeId = UUID.randomUUID().toString();
+    @Getter
+    private String url;
+
+    public ClusterMembership(ClusterNodeRepository clusterNodeRepository,
+                             ClusterUserSessionRepository clusterUserSessionRepository,
+                             ObjectProvider<SimpUserRegistry> userRegistry,
+                             ObjectProvider<ClusterSessionRegistry> clusterSessionRegistry,
+                             @Value("${chat.cluster.advertised-url:}") String advertisedUrl,
+                             @Value("${chat.cluster.advertised-host:localhost}") String advertisedHost,
+                             @Value("${chat.cluster.heartbeat-interval:10s}") Duration heartbeatInterval) {
+        this.clusterNodeRepository = clusterNodeRepository;
+        this.clusterUserSessionRepository = clusterUserSessionRepository;
+        this.userRegistry = userRegistry;
+        this.clusterSessionRegistry = clusterSessionRegistry;
+        this.url = StringUtils.hasText(advertisedUrl) ? advertisedUrl : null;
+        this.advertisedHost = advertisedHost;
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    @EventListener
+    public void onWebServerInitialized(WebServerInitializedEvent event) {
+        if (url == null) {
+            url = "http://" + advertisedHost + ":" + event.getWebServer().getPort();
+        }
+        clusterNodeRepository.save(new ClusterNode(nodeId, url, LocalDateTime.now()));
+        long intervalMillis = heartbeatInterval.toMillis();
+        heartbeatExecutor.scheduleAtFixedRate(this::heartbeat, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        log.info("Joined the cluster as node {} at {}", nodeId, url);
+    }
+
+    /**
+     * A node counts as alive while its last heartbeat is within three intervals.
+     */
+    public LocalDateTime aliveSince() {
+        return LocalDateTime.now().minus(heartbeatInterval.multipliedBy(3));
+    }
+
+    public List<String> findRemoteNodeUrls() {
+        return clusterNodeRepository.findUrlsOfOtherNodes(nodeId, aliveSince());
+    }
+
+    @PreDestroy
+    void leave() {
+        heartbeatExecutor.shutdownNow();
+        clusterUserSessionRepository.deleteByNodeId(nodeId);
+        clusterNodeRepository.deleteById(nodeId);
+    }
+
+    void heartbeat() {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            if (clusterNodeRepository.updateHeartbeat(nodeId, now) == 0) {
+                rejoin(now);
+            }
+            LocalDateTime deadBefore = aliveSince();
+            clusterUserSessionRepository.deleteSessionsOfDeadNodes(deadBefore);
+            clusterNodeRepository.deleteDeadNodes(deadBefore);
+            List<String> liveNodeUrls = findRemoteNodeUrls();
+            clusterSessionRegistry.ifAvailable(registry -> registry.retainRoutesTo(liveNodeUrls));
+        } catch (RuntimeException e) {
+            log.warn("Cluster heartbeat failed", e);
+        }
+    }
+
+    // the other nodes took this one for dead, after a long GC pause or a partition, and deleted its sessions too
+    private void rejoin(LocalDateTime now) {
+        clusterNodeRepository.save(new ClusterNode(nodeId, url, now));
+        List<ClusterUserSession> sessions = new ArrayList<>();
+        for (SimpUser user : userRegistry.getObject().getUsers()) {
+            for (SimpSession session : user.getSessions()) {
+                sessions.add(new ClusterUserSession(ClusterUserSession.id(nodeId, session.getId()), user.getName(), nodeId, now));
+            }
+        }
+        clusterUserSessionRepository.saveAll(sessions);
+        log.warn("Node {} had been removed from the cluster, registered it again with {} sessions", nodeId, sessions.size());
+    }
+}
@@ -0,0 +1,24 @@
+package com.magmusacy.chat.chatapp.cluster;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "cluster_nodes")
+public class ClusterNode {
+    @Id
+    private String nodeId;
+    private String url;
+    private LocalDateTime heartbeatAt;
+}
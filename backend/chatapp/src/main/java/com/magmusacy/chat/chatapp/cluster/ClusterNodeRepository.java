@@ -0,0 +1,25 @@
+package com.magmusacy.chat.chatapp.cluster;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface ClusterNodeRepository extends JpaRepository<ClusterNode, String> {
+
+    @Query("SELECT n.url FROM ClusterNode n WHERE n.nodeId <> :localNodeId AND n.heartbeatAt > :aliveSince")
+    List<String> findUrlsOfOtherNodes(String localNodeId, LocalDateTime aliveSince);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE ClusterNode n SET n.heartbeatAt = :heartbeatAt WHERE n.nodeId = :nodeId")
+    int updateHeartbeat(String nodeId, LocalDateTime heartbeatAt);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ClusterNode n WHERE n.heartbeatAt < :deadBefore")
+    int deleteDeadNodes(LocalDateTime deadBefore);
+}
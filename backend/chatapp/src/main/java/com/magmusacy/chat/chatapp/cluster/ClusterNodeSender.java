@@ -0,0 +1,93 @@
+package com.magmusacy.chat.chatapp.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The frames for one remote node, in the order they were routed. A single thread drains the queue and posts whatever
+ * piled up during the previous request as the next one, so a node is never sent to concurrently and a slow node only
+ * ever holds one thread. Frames that don't fit into the queue are dropped.
+ */
+@Slf4j
+class ClusterNodeSender {
+    private final String nodeUrl;
+    private final RestClient restClient;
+    private final String secret;
+    private final int batchSize;
+    private final BlockingQueue<ClusterBatch.Frame> queue;
+    private Thread senderThread;
+    private volatile boolean closed;
+    // only touched by the routing thread
+    private long lastOfferedNanos = System.nanoTime();
+
+    ClusterNodeSender(String nodeUrl, RestClient restClient, String secret, int capacity, int batchSize) {
+        this.nodeUrl = nodeUrl;
+        this.restClient = restClient;
+        this.secret = secret;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    void start() {
+        senderThread = Thread.ofPlatform().name("cluster-sender-" + nodeUrl).daemon(true).start(this::run);
+    }
+
+    void offer(ClusterBatch.Frame frame) {
+        lastOfferedNanos = System.nanoTime();
+        if (!queue.offer(frame)) {
+            log.warn("The forwarding queue of {} is full, dropped a frame", nodeUrl);
+        }
+    }
+
+    long lastOfferedNanos() {
+        return lastOfferedNanos;
+    }
+
+    // whatever is queued is still sent, nothing may be offered after this
+    void close() {
+        closed = true;
+    }
+
+    void join(long millis) throws InterruptedException {
+        senderThread.join(millis);
+    }
+
+    private void run() {
+        List<ClusterBatch.Frame> frames = new ArrayList<>(batchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                ClusterBatch.Frame first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                frames.add(first);
+                queue.drainTo(frames, batchSize - 1);
+                post(ClusterBatch.of(frames));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Could not forward {} frames to {}", frames.size(), nodeUrl, e);
+            } finally {
+                frames.clear();
+            }
+        }
+    }
+
+    private void post(ClusterBatch batch) {
+        restClient.post()
+                .uri(nodeUrl + ClusterDeliveryController.DELIVER_PATH)
+                .header(ClusterDeliveryController.SECRET_HEADER, secret)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(batch)
+                .retrieve()
+                .toBodilessEntity();
+    }
+}
@@ -0,0 +1,7 @@
+package com.magmusacy.chat.chatapp.cluster;
+
+/**
+ * {@code email} has a session on the node reachable at {@code url}.
+ */
+public record ClusterRoute(String email, String url) {
+}
@@ -0,0 +1,110 @@
+package com.magmusacy.chat.chatapp.cluster;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Shared email to node mapping, kept in Postgres so every node can see where a user is connected. The remote nodes
+ * of a user are cached for a short while. A new session anywhere invalidates its user on every node through the
+ * {@link ClusterForwarder}, the heartbeat drops routes to nodes that died, and a session that closed only costs a
+ * forward the other node ignores, so the TTL is just a backstop for a lost invalidation.
+ */
+@Component
+@ConditionalOnProperty(prefix = "chat.broker", name = "mode", havingValue = "cluster")
+public class ClusterSessionRegistry {
+    private final ClusterUserSessionRepository clusterUserSessionRepository;
+    private final ClusterMembership clusterMembership;
+    // users with no session on another node are cached too, with no urls
+    private final Cache<String, List<String>> routes;
+
+    public ClusterSessionRegistry(ClusterUserSessionRepository clusterUserSessionRepository,
+                                  ClusterMembership clusterMembership,
+                                  @Value("${chat.cluster.route-cache.maximum-size:10000}") long routeCacheMaximumSize,
+                                  @Value("${chat.cluster.route-cache.ttl:10s}") Duration routeCacheTtl) {
+        this.clusterUserSessionRepository = clusterUserSessionRepository;
+        this.clusterMembership = clusterMembership;
+        this.routes = Caffeine.newBuilder()
+                .maximumSize(routeCacheMaximumSize)
+                .expireAfterWrite(routeCacheTtl)
+                .build();
+    }
+
+    // before ClusterForwarder tells the other nodes about the session, they look it up as soon as they hear of it
+    @EventListener
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void handleSessionConnected(SessionConnectedEvent event) {
+        if (event.getUser() == null) {
+            return;
+        }
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        clusterUserSessionRepository.save(new ClusterUserSession(
+                key(sessionId),
+                event.getUser().getName(),
+                clusterMembership.getNodeId(),
+                LocalDateTime.now()
+        ));
+    }
+
+    @EventListener
+    public void handleSessionDisconnect(SessionDisconnectEvent event) {
+        clusterUserSessionRepository.deleteById(key(event.getSessionId()));
+    }
+
+    /**
+     * For each of the given users, the urls of the other live nodes they have a session on, empty if none.
+     */
+    public Map<String, List<String>> findRemoteNodeUrls(Collection<String> emails) {
+        if (emails.isEmpty()) {
+            return Map.of();
+        }
+        return routes.getAll(emails, missing -> {
+            List<String> missingEmails = List.copyOf(missing);
+            Map<String, List<String>> loaded = new HashMap<>();
+            missingEmails.forEach(email -> loaded.put(email, List.of()));
+            clusterUserSessionRepository.findRoutesByEmails(missingEmails, clusterMembership.getNodeId(), clusterMembership.aliveSince())
+                    .stream()
+                    .collect(Collectors.groupingBy(ClusterRoute::email, Collectors.mapping(ClusterRoute::url, Collectors.toList())))
+                    .forEach(loaded::put);
+            return loaded;
+        });
+    }
+
+    public void invalidateRoute(String email) {
+        routes.invalidate(email);
+    }
+
+    void retainRoutesTo(Collection<String> liveNodeUrls) {
+        Set<String> live = Set.copyOf(liveNodeUrls);
+        routes.asMap().values().removeIf(nodeUrls -> !live.containsAll(nodeUrls));
+    }
+
+    // which of these users still have a session on a live node other than this one
+    public Set<String> findConnectedToOtherNodes(Collection<String> emails) {
+        if (emails.isEmpty()) {
+            return Set.of();
+        }
+        return Set.copyOf(clusterUserSessionRepository.findEmailsOnOtherNodes(emails, clusterMembership.getNodeId(), clusterMembership.aliveSince()));
+    }
+
+    private String key(String sessionId) {
+        return ClusterUserSession.id(clusterMembership.getNodeId(), sessionId);
+    }
+}
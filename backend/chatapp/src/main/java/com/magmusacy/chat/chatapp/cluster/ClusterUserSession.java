@@ -0,0 +1,36 @@
+package com.magmusacy.chat.chatapp.cluster;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * One connected WebSocket session. The id is "nodeId:sessionId" because session ids are only unique per node.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "cluster_user_sessions", indexes = {
+        @Index(name = "idx_cluster_user_sessions_email", columnList = "email, node_id"),
+        @Index(name = "idx_cluster_user_sessions_node", columnList = "node_id")
+})
+public class ClusterUserSession {
+    @Id
+    private String id;
+    private String email;
+    private String nodeId;
+    private LocalDateTime connectedAt;
+
+    public static String id(String nodeId, String sessionId) {
+        return nodeId + ":" + sessionId;
+    }
+}
@@ -0,0 +1,32 @@
+package com.magmusacy.chat.chatapp.cluster;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+public interface ClusterUserSessionRepository extends JpaRepository<ClusterUserSession, String> {
+
+    @Query("SELECT DISTINCT new com.magmusacy.chat.chatapp.cluster.ClusterRoute(s.email, n.url) FROM ClusterUserSession s, ClusterNode n " +
+            "WHERE n.nodeId = s.nodeId AND s.email IN :emails AND n.nodeId <> :localNodeId AND n.heartbeatAt > :aliveSince")
+    List<ClusterRoute> findRoutesByEmails(Collection<String> emails, String localNodeId, LocalDateTime aliveSince);
+
+    @Query("SELECT DISTINCT s.email FROM ClusterUserSession s, ClusterNode n " +
+            "WHERE n.nodeId = s.nodeId AND s.email IN :emails AND n.nodeId <> :localNodeId AND n.heartbeatAt > :aliveSince")
+    List<String> findEmailsOnOtherNodes(Collection<String> emails, String localNodeId, LocalDateTime aliveSince);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ClusterUserSession s WHERE s.nodeId = :nodeId")
+    int deleteByNodeId(String nodeId);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ClusterUserSession s " +
+            "WHERE NOT EXISTS (SELECT 1 FROM ClusterNode n WHERE n.nodeId = s.nodeId AND n.heartbeatAt >= :deadBefore)")
+    int deleteSessionsOfDeadNodes(LocalDateTime deadBefore);
+}
@@ -0,0 +1,28 @@
+package com.magmusacy.chat.chatapp.config;
+
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.util.MimeType;
+
+import java.util.Map;
+
+/**
+ * Payload converter for sessions that asked for CBOR, see {@link PayloadEncodingInterceptor}. Spring only sends
+ * a frame as a binary WebSocket message when its content type is application/octet-stream, so that is the type
+ * and the format parameter says the bytes are CBOR. Frames without that parameter are left to the JSON converter.
+ */
+public class CborMessageConverter extends MappingJackson2MessageConverter {
+    public static final MimeType APPLICATION_CBOR_FRAME = new MimeType("application", "octet-stream", Map.of("format", "cbor"));
+
+    public CborMessageConverter() {
+        super(Jackson2ObjectMapperBuilder.cbor().build(), APPLICATION_CBOR_FRAME);
+    }
+
+    @Override
+    protected boolean supportsMimeType(MessageHeaders headers) {
+        MimeType mimeType = getMimeType(headers);
+        return mimeType != null && APPLICATION_CBOR_FRAME.isCompatibleWith(mimeType)
+                && "cbor".equals(mimeType.getParameter("format"));
+    }
+}
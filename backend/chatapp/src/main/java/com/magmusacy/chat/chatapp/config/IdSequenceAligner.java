@@ -0,0 +1,38 @@
+package com.magmusacy.chat.chatapp.config;
+
+import com.magmusacy.chat.chatapp.chat.ChatMessage;
+import com.magmusacy.chat.chatapp.user.User;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Databases created before ids moved to pooled sequences already hold rows numbered by the old identity columns,
+ * while the new sequences start at 1. Moves each sequence past the highest existing id before the server
+ * accepts requests, it is a no-op once the sequence has been used and is ahead.
+ */
+@Component
+@RequiredArgsConstructor
+public class IdSequenceAligner implements SmartInitializingSingleton {
+    private static final String ALIGN_SEQUENCE_SQL = """
+            SELECT setval('%1$s', (SELECT coalesce(max(id), 0) FROM %2$s) + %3$d)
+            FROM %1$s
+            WHERE NOT is_called OR last_value < (SELECT coalesce(max(id), 0) FROM %2$s)
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        align(ChatMessage.ID_SEQUENCE, "chat_messages", ChatMessage.ID_ALLOCATION_SIZE);
+        align(User.ID_SEQUENCE, "users", User.ID_ALLOCATION_SIZE);
+    }
+
+    private void align(String sequence, String table, int allocationSize) {
+        // a pooled sequence value is the upper end of a handed out block, leave a whole block of headroom.
+        // Also moves fresh sequences off their initial value, which Hibernate's pooled optimizer treats specially
+        // and which would let its first block overlap one reserved by ChatMessageIdAllocator
+        jdbcTemplate.queryForList(ALIGN_SEQUENCE_SQL.formatted(sequence, table, allocationSize));
+    }
+}
@@ -1,5 +1,6 @@
 package com.magmusacy.chat.chatapp.config;
 
+import com.magmusacy.chat.chatapp.auth.JwtClaims;
 import com.magmusacy.chat.chatapp.auth.JwtService;
 import com.magmusacy.chat.chatapp.user.UserService;
 import lombok.RequiredArgsConstructor;
@@ -17,8 +18,6 @@ import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
-import java.util.Date;
-
 @Component
 @RequiredArgsConstructor
 public class JwtInterceptor implements ChannelInterceptor {
@@ -33,17 +32,17 @@ public class JwtInterceptor implements ChannelInterceptor {
             String authorizationHeader = accessor.getFirstNativeHeader("Authorization");
             if (StringUtils.hasText(authorizationHeader) && authorizationHeader.startsWith("Bearer ")) {
                 String jwt = authorizationHeader.substring(7);
-                String email = jwtService.extractUsername(jwt);
+                JwtClaims claims = jwtService.parse(jwt);
+                String email = claims.subject();
 
                 if (email != null && SecurityContextHolder.getContext().getAuthentication() == null) {
                     UserDetails userDetails = this.userDetailsService.loadUserByUsername(email);
-                    if (jwtService.isTokenValid(jwt, userDetails)) {
+                    if (jwtService.isTokenValid(claims, userDetails)) {
                         UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
                                 userDetails, null, userDetails.getAuthorities()
                         );
                         accessor.setUser(authToken);
-                        Date expirationDate = jwtService.extractExpiration(jwt);
-                        accessor.getSessionAttributes().put("jwt_expiry_time", expirationDate.getTime());
+                        accessor.getSessionAttributes().put("jwt_expiry_time", claims.expiration().getTime());
                     }
                 }
             } else {
@@ -0,0 +1,106 @@
+package com.magmusacy.chat.chatapp.config;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.springframework.util.MimeTypeUtils.APPLICATION_JSON;
+
+/**
+ * Lets a session ask for CBOR payloads instead of JSON with a payload-encoding:cbor header on CONNECT. Frames the
+ * client sends pick their converter by content type, so only outgoing MESSAGE frames need work here: the broker
+ * converts a payload to JSON once for all sessions and this transcodes it for the sessions that asked. SockJS
+ * can't carry binary frames, so only sessions that went through the native endpoint's handshake can switch.
+ */
+@Component
+public class PayloadEncodingInterceptor implements ChannelInterceptor, HandshakeInterceptor {
+    public static final String PAYLOAD_ENCODING_HEADER = "payload-encoding";
+    private static final String BINARY_FRAMES_ATTRIBUTE = "binaryFrames";
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final CBORFactory cborFactory = new CBORFactory();
+    private final Set<String> cborSessions = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                   WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        attributes.put(BINARY_FRAMES_ATTRIBUTE, true);
+        return true;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                               WebSocketHandler wsHandler, Exception exception) {
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        SimpMessageType messageType = SimpMessageHeaderAccessor.getMessageType(headers);
+        if (sessionId == null || messageType == null) {
+            return message;
+        }
+        switch (messageType) {
+            case CONNECT -> {
+                StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+                Map<String, Object> attributes = SimpMessageHeaderAccessor.getSessionAttributes(headers);
+                if (accessor != null && "cbor".equals(accessor.getFirstNativeHeader(PAYLOAD_ENCODING_HEADER))
+                        && attributes != null && attributes.containsKey(BINARY_FRAMES_ATTRIBUTE)) {
+                    cborSessions.add(sessionId);
+                }
+            }
+            case DISCONNECT -> cborSessions.remove(sessionId);
+            case MESSAGE -> {
+                if (cborSessions.contains(sessionId)) {
+                    return toCbor(message);
+                }
+            }
+            default -> {
+            }
+        }
+        return message;
+    }
+
+    private Message<?> toCbor(Message<?> message) {
+        MessageHeaderAccessor accessor = MessageHeaderAccessor.getMutableAccessor(message);
+        MimeType contentType = accessor.getContentType();
+        if (!(message.getPayload() instanceof byte[] json) || contentType == null || !APPLICATION_JSON.isCompatibleWith(contentType)) {
+            return message;
+        }
+        // token by token, without building the tree or binding to the payload's class
+        ByteArrayOutputStream cbor = new ByteArrayOutputStream(json.length);
+        try (JsonParser parser = jsonFactory.createParser(json);
+             JsonGenerator generator = cborFactory.createGenerator(cbor)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        } catch (IOException e) {
+            throw new MessageConversionException(message, "Could not transcode the payload to CBOR", e);
+        }
+        accessor.setContentType(CborMessageConverter.APPLICATION_CBOR_FRAME);
+        return MessageBuilder.createMessage(cbor.toByteArray(), accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,57 @@
+package com.magmusacy.chat.chatapp.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor of the client inbound channel. Every session is pinned to one of a fixed number of stripes, a single
+ * thread with its own queue, so the frames of a session are handled in the order they arrived while different
+ * sessions spread over all stripes. The depth of every stripe's queue is published as chat.inbound.stripe.queue.
+ * Not used with virtual threads, see {@link WebSocketConfig}.
+ */
+public class SessionStripedExecutor implements TaskExecutor {
+    private final ThreadPoolExecutor[] stripes;
+
+    public SessionStripedExecutor(MeterRegistry meterRegistry, int stripeCount) {
+        // as many threads as Spring's default inbound pool
+        int count = stripeCount > 0 ? stripeCount : Runtime.getRuntime().availableProcessors() * 2;
+        this.stripes = new ThreadPoolExecutor[count];
+        for (int i = 0; i < count; i++) {
+            BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+            stripes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, queue,
+                    Thread.ofPlatform().name("stomp-inbound-" + i).daemon(true).factory());
+            Gauge.builder("chat.inbound.stripe.queue", queue, BlockingQueue::size)
+                    .description("Inbound STOMP frames waiting for their session's stripe")
+                    .tag("stripe", String.valueOf(i))
+                    .register(meterRegistry);
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        stripes[stripe(task)].execute(task);
+    }
+
+    int stripe(Runnable task) {
+        String sessionId = task instanceof MessageHandlingRunnable handlingRunnable
+                ? SimpMessageHeaderAccessor.getSessionId(handlingRunnable.getMessage().getHeaders())
+                : null;
+        // frames without a session are not ordered against anything, any stripe will do
+        return sessionId == null ? 0 : Math.floorMod(sessionId.hashCode(), stripes.length);
+    }
+
+    // registered as the clientInboundChannelExecutor bean, Spring calls this on shutdown
+    public void shutdown() {
+        for (ThreadPoolExecutor stripe : stripes) {
+            stripe.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.magmusacy.chat.chatapp.config;
+
+import io.micrometer.core.instrument.Counter;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Send buffer of a session that does not keep up. Once more than the shed threshold is waiting, frames to the
+ * sheddable destinations (presence updates) are dropped so the buffer is left to chat messages. Those are kept
+ * until the buffer or time limit is exceeded, then the session is closed like with the plain decorator.
+ */
+public class SlowConsumerSessionDecorator extends ConcurrentWebSocketSessionDecorator {
+    private static final String DESTINATION_HEADER = "\ndestination:";
+
+    private final int shedThreshold;
+    private final List<String> sheddableDestinations;
+    private final Counter shedFrames;
+    private final Counter overflowedSessions;
+
+    public SlowConsumerSessionDecorator(WebSocketSession session,
+                                        int sendTimeLimit,
+                                        int bufferSizeLimit,
+                                        int shedThreshold,
+                                        List<String> sheddableDestinations,
+                                        Counter shedFrames,
+                                        Counter overflowedSessions) {
+        super(session, sendTimeLimit, bufferSizeLimit);
+        this.shedThreshold = shedThreshold;
+        this.sheddableDestinations = sheddableDestinations;
+        this.shedFrames = shedFrames;
+        this.overflowedSessions = overflowedSessions;
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        if (getBufferSize() >= shedThreshold && isSheddable(message)) {
+            shedFrames.increment();
+            return;
+        }
+        try {
+            super.sendMessage(message);
+        } catch (SessionLimitExceededException e) {
+            overflowedSessions.increment();
+            throw e;
+        }
+    }
+
+    // the STOMP frame is already encoded, its destination header sits before the first blank line
+    private boolean isSheddable(WebSocketMessage<?> message) {
+        String frame = switch (message) {
+            case TextMessage textMessage -> textMessage.getPayload();
+            // CBOR payloads, see PayloadEncodingInterceptor, only the headers are text
+            case BinaryMessage binaryMessage -> headersOf(binaryMessage.getPayload());
+            default -> null;
+        };
+        if (frame == null) {
+            return false;
+        }
+        int headersEnd = frame.indexOf("\n\n");
+        int destinationStart = frame.indexOf(DESTINATION_HEADER);
+        if (destinationStart < 0 || (headersEnd >= 0 && destinationStart > headersEnd)) {
+            return false;
+        }
+        destinationStart += DESTINATION_HEADER.length();
+        int destinationEnd = frame.indexOf('\n', destinationStart);
+        String destination = frame.substring(destinationStart, destinationEnd < 0 ? frame.length() : destinationEnd);
+        return sheddableDestinations.contains(destination);
+    }
+
+    private static String headersOf(ByteBuffer frame) {
+        for (int i = frame.position(); i < frame.limit() - 1; i++) {
+            if (frame.get(i) == '\n' && frame.get(i + 1) == '\n') {
+                return StandardCharsets.UTF_8.decode(frame.duplicate().limit(i)).toString();
+            }
+        }
+        return null;
+    }
+}
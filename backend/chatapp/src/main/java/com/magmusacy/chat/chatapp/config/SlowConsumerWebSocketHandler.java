@@ -0,0 +1,73 @@
+package com.magmusacy.chat.chatapp.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link SubProtocolWebSocketHandler} that gives every session a {@link SlowConsumerSessionDecorator} and publishes
+ * how much is buffered: chat.websocket.send.buffer is the total over all sessions, chat.websocket.send.buffer.max
+ * the fullest session's buffer. A gauge per session would add a time series for every connection.
+ */
+public class SlowConsumerWebSocketHandler extends SubProtocolWebSocketHandler {
+    private final int shedThreshold;
+    private final List<String> sheddableDestinations;
+    private final Counter shedFrames;
+    private final Counter overflowedSessions;
+    private final Map<String, SlowConsumerSessionDecorator> sessions = new ConcurrentHashMap<>();
+
+    public SlowConsumerWebSocketHandler(MessageChannel clientInboundChannel,
+                                        SubscribableChannel clientOutboundChannel,
+                                        MeterRegistry meterRegistry,
+                                        int shedThreshold,
+                                        List<String> sheddableDestinations) {
+        super(clientInboundChannel, clientOutboundChannel);
+        this.shedThreshold = shedThreshold;
+        this.sheddableDestinations = sheddableDestinations;
+        this.shedFrames = Counter.builder("chat.websocket.frames.shed")
+                .description("Frames dropped for sessions that fell behind")
+                .register(meterRegistry);
+        this.overflowedSessions = Counter.builder("chat.websocket.sessions.overflowed")
+                .description("Sessions closed for exceeding the send buffer or time limit")
+                .register(meterRegistry);
+        Gauge.builder("chat.websocket.send.buffer", sessions, SlowConsumerWebSocketHandler::totalBufferSize)
+                .description("Bytes waiting in the send buffers of all sessions")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("chat.websocket.send.buffer.max", sessions, SlowConsumerWebSocketHandler::maxBufferSize)
+                .description("Bytes waiting in the fullest send buffer")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected WebSocketSession decorateSession(WebSocketSession session) {
+        SlowConsumerSessionDecorator decorator = new SlowConsumerSessionDecorator(session, getSendTimeLimit(),
+                getSendBufferSizeLimit(), shedThreshold, sheddableDestinations, shedFrames, overflowedSessions);
+        sessions.put(session.getId(), decorator);
+        return decorator;
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+        sessions.remove(session.getId());
+        super.afterConnectionClosed(session, closeStatus);
+    }
+
+    private static double totalBufferSize(Map<String, SlowConsumerSessionDecorator> sessions) {
+        return sessions.values().stream().mapToLong(SlowConsumerSessionDecorator::getBufferSize).sum();
+    }
+
+    private static double maxBufferSize(Map<String, SlowConsumerSessionDecorator> sessions) {
+        return sessions.values().stream().mapToInt(SlowConsumerSessionDecorator::getBufferSize).max().orElse(0);
+    }
+}
@@ -1,20 +1,35 @@
 package com.magmusacy.chat.chatapp.config;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.magmusacy.chat.chatapp.cluster.ClusterForwardingInterceptor;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.messaging.converter.DefaultContentTypeResolver;
 import org.springframework.messaging.converter.MappingJackson2MessageConverter;
 import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.config.StompBrokerRelayRegistration;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
 
+import java.time.Duration;
 import java.util.List;
 
 import static org.springframework.util.MimeTypeUtils.APPLICATION_JSON;
@@ -24,44 +39,177 @@ import static org.springframework.util.MimeTypeUtils.APPLICATION_JSON;
 @RequiredArgsConstructor
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     private final JwtInterceptor webSocketAuthenticationInterceptor;
+    private final PayloadEncodingInterceptor payloadEncodingInterceptor;
+    private final ObjectProvider<ClusterForwardingInterceptor> clusterForwardingInterceptor;
+    private final MeterRegistry meterRegistry;
+
+    // "simple" keeps subscriptions in this JVM, "relay" hands /queue and /topic to an external STOMP broker
+    // so several nodes can run behind a load balancer, "cluster" keeps the simple broker on every node and
+    // forwards user and topic messages between nodes directly
+    @Value("${chat.broker.mode:simple}")
+    private String brokerMode;
+    @Value("${chat.broker.relay.host:localhost}")
+    private String relayHost;
+    @Value("${chat.broker.relay.port:61613}")
+    private int relayPort;
+    @Value("${chat.broker.relay.login:guest}")
+    private String relayLogin;
+    @Value("${chat.broker.relay.passcode:guest}")
+    private String relayPasscode;
+    @Value("${chat.broker.relay.virtual-host:}")
+    private String relayVirtualHost;
+    // also switches Tomcat to virtual threads, see spring.threads.virtual in application.yml
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+    @Value("${chat.inbound-dispatch.stripes:0}")
+    private int inboundStripes;
+    @Value("${chat.websocket.send-buffer-size-limit:512KB}")
+    private DataSize sendBufferSizeLimit;
+    @Value("${chat.websocket.send-time-limit:10s}")
+    private Duration sendTimeLimit;
 
     @Bean
     public TaskScheduler heartBeatScheduler() {
         return new ThreadPoolTaskScheduler();
     }
 
+    // every /user/queue/... subscription is its own broker destination per session, past the default limit of
+    // 1024 destinations the simple broker's lookup cache thrashes and each send scans all subscriptions
+    @Bean
+    static BeanPostProcessor simpleBrokerCacheLimit(@Value("${chat.broker.simple.cache-limit:65536}") int cacheLimit) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof SimpleBrokerMessageHandler handler) {
+                    handler.setCacheLimit(cacheLimit);
+                }
+                return bean;
+            }
+        };
+    }
+
+    // a client that stops reading piles up frames in its session's send buffer, SlowConsumerWebSocketHandler
+    // sheds presence updates first and the transport limits close the session before it can exhaust the heap
+    @Bean
+    static BeanPostProcessor slowConsumerWebSocketHandler(
+            @Qualifier("clientInboundChannel") ObjectProvider<AbstractSubscribableChannel> clientInboundChannel,
+            @Qualifier("clientOutboundChannel") ObjectProvider<AbstractSubscribableChannel> clientOutboundChannel,
+            ObjectProvider<MeterRegistry> meterRegistry,
+            @Value("${chat.websocket.shed-threshold:128KB}") DataSize shedThreshold,
+            @Value("${chat.websocket.sheddable-destinations:/user/queue/users}") List<String> sheddableDestinations) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean.getClass() == SubProtocolWebSocketHandler.class) {
+                    SubProtocolWebSocketHandler handler = (SubProtocolWebSocketHandler) bean;
+                    SlowConsumerWebSocketHandler slowConsumerHandler = new SlowConsumerWebSocketHandler(
+                            clientInboundChannel.getObject(),
+                            clientOutboundChannel.getObject(),
+                            meterRegistry.getObject(),
+                            (int) shedThreshold.toBytes(),
+                            sheddableDestinations
+                    );
+                    slowConsumerHandler.setPhase(handler.getPhase());
+                    return slowConsumerHandler;
+                }
+                return bean;
+            }
+        };
+    }
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/queue", "/topic", "/chat, /signal")
-                .setHeartbeatValue(new long[]{10000, 10000})
-                .setTaskScheduler(heartBeatScheduler());
+        if ("relay".equals(brokerMode)) {
+            StompBrokerRelayRegistration relay = config.enableStompBrokerRelay("/queue", "/topic")
+                    .setRelayHost(relayHost)
+                    .setRelayPort(relayPort)
+                    .setClientLogin(relayLogin)
+                    .setClientPasscode(relayPasscode)
+                    .setSystemLogin(relayLogin)
+                    .setSystemPasscode(relayPasscode)
+                    .setSystemHeartbeatSendInterval(10000)
+                    .setSystemHeartbeatReceiveInterval(10000)
+                    // user destinations that no local session resolves are re-broadcast, the node holding
+                    // the session picks them up, and every node shares its sessions through the registry topic
+                    .setUserDestinationBroadcast("/topic/unresolved-user-destination")
+                    .setUserRegistryBroadcast("/topic/simp-user-registry");
+            if (StringUtils.hasText(relayVirtualHost)) {
+                relay.setVirtualHost(relayVirtualHost);
+            }
+        } else {
+            config.enableSimpleBroker("/queue", "/topic", "/chat, /signal")
+                    .setHeartbeatValue(new long[]{10000, 10000})
+                    .setTaskScheduler(heartBeatScheduler());
+            clusterForwardingInterceptor.ifAvailable(config.configureBrokerChannel()::interceptors);
+        }
         config.setApplicationDestinationPrefixes("/app");
         config.setUserDestinationPrefix("/user");
+        // a virtual thread per message no longer delivers a session's messages in order on its own
+        config.setPreservePublishOrder(virtualThreads);
     }
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
+        registry.setPreserveReceiveOrder(virtualThreads);
         registry.addEndpoint("/ws")
                 .setAllowedOriginPatterns("*")
                 .withSockJS()
                 .setHeartbeatTime(10000);
+        // plain WebSocket without SockJS framing for clients that don't need the fallbacks, the container
+        // negotiates permessage-deflate when the client offers it
+        registry.addEndpoint("/ws-native")
+                .setAllowedOriginPatterns("*")
+                .addInterceptors(payloadEncodingInterceptor);
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendBufferSizeLimit((int) sendBufferSizeLimit.toBytes())
+                .setSendTimeLimit((int) sendTimeLimit.toMillis());
     }
 
     @Override
     public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        messageConverters.add(createMessageConverter());
+        messageConverters.add(new CborMessageConverter());
+        return false;
+    }
+
+    // static so the JMH benchmarks measure exactly the converter the broker uses
+    public static MappingJackson2MessageConverter createMessageConverter() {
         DefaultContentTypeResolver resolver = new DefaultContentTypeResolver();
         resolver.setDefaultMimeType(APPLICATION_JSON);
         MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
-        converter.setObjectMapper(new ObjectMapper());
+        // same defaults as the REST mapper, a bare ObjectMapper cannot write the LocalDateTime timestamps at all
+        converter.setObjectMapper(Jackson2ObjectMapperBuilder.json().build());
         converter.setContentTypeResolver(resolver);
-        messageConverters.add(converter);
-
-        return false;
+        return converter;
     }
 
+    // the default pool handles a session's frames on whichever thread is free, out of order, and a few handlers
+    // blocked on the database hold all of its threads, on virtual threads only the blocked handlers wait
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
-        registration.interceptors(webSocketAuthenticationInterceptor);
+        // before the JWT check, which rejects the DISCONNECT of an expired session that still has to be forgotten
+        registration.interceptors(payloadEncodingInterceptor, webSocketAuthenticationInterceptor);
+        if (virtualThreads) {
+            registration.executor(virtualThreadExecutor("stomp-inbound-"));
+        } else {
+            registration.executor(new SessionStripedExecutor(meterRegistry, inboundStripes));
+        }
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.interceptors(payloadEncodingInterceptor);
+        if (virtualThreads) {
+            registration.executor(virtualThreadExecutor("stomp-outbound-"));
+        }
+    }
+
+    private static SimpleAsyncTaskExecutor virtualThreadExecutor(String threadNamePrefix) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        return executor;
     }
 }
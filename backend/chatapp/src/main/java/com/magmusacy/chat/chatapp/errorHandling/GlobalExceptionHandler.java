@@ -1,5 +1,6 @@
 package com.magmusacy.chat.chatapp.errorHandling;
 
+import com.magmusacy.chat.chatapp.chat.InvalidCursorException;
 import com.magmusacy.chat.chatapp.user.PasswordMismatchException;
 import com.magmusacy.chat.chatapp.user.UserAlreadyExistsException;
 import org.springframework.http.HttpStatus;
@@ -23,7 +24,7 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(errorResponse, HttpStatus.UNAUTHORIZED);
     }
 
-    @ExceptionHandler({PasswordMismatchException.class, UserAlreadyExistsException.class})
+    @ExceptionHandler({PasswordMismatchException.class, UserAlreadyExistsException.class, InvalidCursorException.class})
     public ResponseEntity<ErrorResponse> handleBadRequestExceptions(Exception ex, WebRequest request) {
         ErrorResponse errorResponse = new ErrorResponse(
                 HttpStatus.BAD_REQUEST.value(),
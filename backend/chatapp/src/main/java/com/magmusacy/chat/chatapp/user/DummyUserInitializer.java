@@ -58,9 +58,7 @@ public class DummyUserInitializer {
                     new ChatMessageDTO("SPAMMY message", user2.getId(), user1.getId(), chatRoom.getId()),
                     new ChatMessageDTO("SPAMMY message", user2.getId(), user1.getId(), chatRoom.getId()),
                     new ChatMessageDTO("SPAMMY message", user2.getId(), user1.getId(), chatRoom.getId()));
-            for (var message : spammyMessage) {
-                chatMessageService.save(message);
-            }
+            chatMessageService.saveAll(spammyMessage);
 
         };
     }
@@ -0,0 +1,312 @@
+package com.magmusacy.chat.chatapp.user;
+
+import com.magmusacy.chat.chatapp.chatroom.ChatRoomService;
+import com.magmusacy.chat.chatapp.cluster.ClusterSessionRegistry;
+import com.magmusacy.chat.chatapp.user.dto.UserDTO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps who is online in memory instead of writing and broadcasting every connect and disconnect. A user stays
+ * online while any of their sessions is open and for a grace period after the last one closes, so a reconnecting
+ * client never shows up as a change. Changes are collected per broadcast interval and sent, like profile updates,
+ * only to the users who have a conversation with the changed user, as one list on their /user/queue/users. The
+ * isOnline/lastSeen columns are written in JDBC batches per persist interval.
+ * <p>
+ * Sessions are only known per node. In cluster mode a user whose grace period ran out here is checked against
+ * cluster_user_sessions and stays online while another node still has a session of theirs, the node that sees the
+ * last one close reports them offline. The relay broker shares no such table, there presence is only right for a
+ * single node.
+ */
+@Slf4j
+@Service
+public class PresenceService {
+    private static final String UPDATE_PRESENCE_SQL = "UPDATE users SET is_online = ?, last_seen = ? WHERE id = ?";
+
+    private final UserDirectory userDirectory;
+    private final ChatRoomService chatRoomService;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final Duration offlineGrace;
+    private final Duration broadcastInterval;
+    private final Duration persistInterval;
+    private final ObjectProvider<ClusterSessionRegistry> clusterSessionRegistry;
+    private final String brokerMode;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // users with an open session or still inside their grace period
+    private final Map<Integer, Sessions> sessionsByUser = new HashMap<>();
+    private Map<Integer, PresenceChange> unbroadcast = new LinkedHashMap<>();
+    private Map<Integer, PresenceChange> unpersisted = new LinkedHashMap<>();
+    private ScheduledExecutorService presenceExecutor;
+
+    public PresenceService(UserDirectory userDirectory,
+                           ChatRoomService chatRoomService,
+                           SimpMessagingTemplate messagingTemplate,
+                           JdbcTemplate jdbcTemplate,
+                           @Value("${chat.presence.offline-grace:10s}") Duration offlineGrace,
+                           @Value("${chat.presence.broadcast-interval:1s}") Duration broadcastInterval,
+                           @Value("${chat.presence.persist-interval:5s}") Duration persistInterval,
+                           ObjectProvider<ClusterSessionRegistry> clusterSessionRegistry,
+                           @Value("${chat.broker.mode:simple}") String brokerMode) {
+        this.userDirectory = userDirectory;
+        this.chatRoomService = chatRoomService;
+        this.messagingTemplate = messagingTemplate;
+        this.jdbcTemplate = jdbcTemplate;
+        this.offlineGrace = offlineGrace;
+        this.broadcastInterval = broadcastInterval;
+        this.persistInterval = persistInterval;
+        this.clusterSessionRegistry = clusterSessionRegistry;
+        this.brokerMode = brokerMode;
+    }
+
+    @PostConstruct
+    void start() {
+        if (brokerMode.equals("relay")) {
+            log.warn("Presence is tracked per node and the relay broker does not share sessions between nodes, with more "
+                    + "than one node users show as offline once their sessions on one node close, use chat.broker.mode=cluster");
+        }
+        presenceExecutor = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("presence").daemon(true).factory()
+        );
+        long broadcastMillis = broadcastInterval.toMillis();
+        long persistMillis = persistInterval.toMillis();
+        presenceExecutor.scheduleWithFixedDelay(() -> runSafely(this::broadcastChanges), broadcastMillis, broadcastMillis, TimeUnit.MILLISECONDS);
+        presenceExecutor.scheduleWithFixedDelay(() -> runSafely(this::persistChanges), persistMillis, persistMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        presenceExecutor.shutdown();
+        presenceExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        // the sessions of a node going down are gone too, record them as offline now rather than never
+        Set<Integer> userIds;
+        lock.lock();
+        try {
+            userIds = Set.copyOf(sessionsByUser.keySet());
+            sessionsByUser.clear();
+        } finally {
+            lock.unlock();
+        }
+        Set<Integer> connectedElsewhere = connectedToOtherNodes(userIds);
+        LocalDateTime now = LocalDateTime.now();
+        lock.lock();
+        try {
+            userIds.stream()
+                    .filter(userId -> !connectedElsewhere.contains(userId))
+                    .forEach(userId -> unpersisted.put(userId, new PresenceChange(userId, false, now)));
+        } finally {
+            lock.unlock();
+        }
+        runSafely(this::persistChanges);
+    }
+
+    public void connect(int userId, String sessionId) {
+        lock.lock();
+        try {
+            Sessions sessions = sessionsByUser.get(userId);
+            if (sessions == null) {
+                sessions = new Sessions();
+                sessionsByUser.put(userId, sessions);
+                record(new PresenceChange(userId, true, null));
+            }
+            sessions.ids.add(sessionId);
+            sessions.lastClosedAt = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void disconnect(int userId, String sessionId) {
+        lock.lock();
+        try {
+            Sessions sessions = sessionsByUser.get(userId);
+            // disconnect events can be published more than once per session
+            if (sessions != null && sessions.ids.remove(sessionId) && sessions.ids.isEmpty()) {
+                sessions.lastClosedAt = LocalDateTime.now();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void broadcastChanges() {
+        List<PresenceChange> expired;
+        lock.lock();
+        try {
+            expired = expireGracePeriods();
+        } finally {
+            lock.unlock();
+        }
+        Set<Integer> connectedElsewhere = connectedToOtherNodes(expired.stream().map(PresenceChange::userId).toList());
+
+        Map<Integer, PresenceChange> changes;
+        lock.lock();
+        try {
+            for (PresenceChange change : expired) {
+                // reconnected here while the other nodes were asked
+                if (!connectedElsewhere.contains(change.userId()) && !sessionsByUser.containsKey(change.userId())) {
+                    record(change);
+                }
+            }
+            if (unbroadcast.isEmpty()) {
+                return;
+            }
+            changes = unbroadcast;
+            unbroadcast = new LinkedHashMap<>();
+        } finally {
+            lock.unlock();
+        }
+
+        List<UserDTO> users = new ArrayList<>(changes.size());
+        for (PresenceChange change : changes.values()) {
+            try {
+                UserDirectoryEntry user = userDirectory.findById(change.userId());
+                users.add(new UserDTO(user.id(), user.name(), change.online(), change.lastSeen(), user.profilePictureUrl(), user.directoryVersion()));
+            } catch (UsernameNotFoundException e) {
+                // deleted while connected, /topic/deleted.user already told the clients
+            }
+        }
+        if (!users.isEmpty()) {
+            sendToChatPartners(users);
+        }
+    }
+
+    public void publishProfileUpdate(UserDTO user) {
+        sendToChatPartners(List.of(user));
+    }
+
+    void persistChanges() {
+        Map<Integer, PresenceChange> changes;
+        lock.lock();
+        try {
+            if (unpersisted.isEmpty()) {
+                return;
+            }
+            changes = unpersisted;
+            unpersisted = new LinkedHashMap<>();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_PRESENCE_SQL, List.copyOf(changes.values()), changes.size(), (ps, change) -> {
+                ps.setBoolean(1, change.online());
+                ps.setTimestamp(2, change.lastSeen() != null ? Timestamp.valueOf(change.lastSeen()) : null);
+                ps.setInt(3, change.userId());
+            });
+        } catch (RuntimeException e) {
+            lock.lock();
+            try {
+                // keep anything newer that was recorded in the meantime
+                changes.forEach(unpersisted::putIfAbsent);
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    private void sendToChatPartners(List<UserDTO> users) {
+        Map<Integer, UserDTO> usersById = new HashMap<>();
+        users.forEach(user -> usersById.put(user.id(), user));
+        Map<Integer, List<UserDTO>> updatesByRecipient = new HashMap<>();
+        chatRoomService.findChatPartnerIds(usersById.keySet()).forEach((userId, partnerIds) -> {
+            for (int partnerId : partnerIds) {
+                updatesByRecipient.computeIfAbsent(partnerId, id -> new ArrayList<>()).add(usersById.get(userId));
+            }
+        });
+
+        updatesByRecipient.forEach((recipientId, updates) -> {
+            try {
+                messagingTemplate.convertAndSendToUser(userDirectory.findById(recipientId).email(), "/queue/users", updates);
+            } catch (UsernameNotFoundException e) {
+                // partner deleted in the meantime
+            }
+        });
+    }
+
+    private List<PresenceChange> expireGracePeriods() {
+        LocalDateTime offlineBefore = LocalDateTime.now().minus(offlineGrace);
+        List<PresenceChange> expired = new ArrayList<>();
+        Iterator<Map.Entry<Integer, Sessions>> iterator = sessionsByUser.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Sessions> entry = iterator.next();
+            LocalDateTime lastClosedAt = entry.getValue().lastClosedAt;
+            if (lastClosedAt != null && !lastClosedAt.isAfter(offlineBefore)) {
+                iterator.remove();
+                expired.add(new PresenceChange(entry.getKey(), false, lastClosedAt));
+            }
+        }
+        return expired;
+    }
+
+    private Set<Integer> connectedToOtherNodes(Collection<Integer> userIds) {
+        ClusterSessionRegistry registry = clusterSessionRegistry.getIfAvailable();
+        if (registry == null || userIds.isEmpty()) {
+            return Set.of();
+        }
+        Map<String, Integer> idsByEmail = new HashMap<>();
+        for (int userId : userIds) {
+            try {
+                idsByEmail.put(userDirectory.findById(userId).email(), userId);
+            } catch (UsernameNotFoundException e) {
+                // deleted, offline everywhere
+            }
+        }
+        try {
+            return registry.findConnectedToOtherNodes(idsByEmail.keySet()).stream()
+                    .map(idsByEmail::get)
+                    .collect(Collectors.toSet());
+        } catch (RuntimeException e) {
+            // a user wrongly shown offline fixes itself on their next connect, one stuck online does not
+            log.warn("Could not check the other nodes for sessions of {} users", userIds.size(), e);
+            return Set.of();
+        }
+    }
+
+    private void record(PresenceChange change) {
+        unbroadcast.put(change.userId(), change);
+        unpersisted.put(change.userId(), change);
+    }
+
+    private void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            log.warn("Presence flush failed", e);
+        }
+    }
+
+    private static final class Sessions {
+        private final Set<String> ids = new HashSet<>();
+        private LocalDateTime lastClosedAt;
+    }
+
+    private record PresenceChange(int userId, boolean online, LocalDateTime lastSeen) {}
+}
@@ -9,6 +9,7 @@ import jakarta.validation.constraints.Size;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
+import org.hibernate.annotations.ColumnDefault;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
@@ -21,10 +22,16 @@ import java.util.Set;
 @Getter
 @Setter
 @Entity
-@Table(name = "users")
+@Table(name = "users", indexes = {
+        @Index(name = "idx_users_directory_version", columnList = "directory_version")
+})
 public class User implements UserDetails {
+    public static final String ID_SEQUENCE = "users_seq";
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = ID_SEQUENCE)
+    @SequenceGenerator(name = ID_SEQUENCE, sequenceName = ID_SEQUENCE, allocationSize = ID_ALLOCATION_SIZE)
     private Integer id;
 
     @Email(message = "Please provide a valid email address")
@@ -40,6 +47,12 @@ public class User implements UserDetails {
     @Nullable
     private String profilePictureUrl = null;
     private LocalDateTime lastSeen;
+    // bumped from UserDirectoryVersions on every profile change, rows from before versioning start at 0
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private long directoryVersion;
+    // the account is gone for everyone once this is set, the row lingers until UserDeletionService purged it
+    private LocalDateTime deletedAt;
 
     @Override
     public String getUsername() {
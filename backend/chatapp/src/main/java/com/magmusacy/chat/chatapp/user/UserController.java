@@ -1,8 +1,11 @@
 package com.magmusacy.chat.chatapp.user;
 
 import com.magmusacy.chat.chatapp.user.dto.UpdateUserRequestDTO;
+import com.magmusacy.chat.chatapp.user.dto.UserChangesDTO;
 import com.magmusacy.chat.chatapp.user.dto.UserDTO;
+import com.magmusacy.chat.chatapp.user.dto.UserDeletionDTO;
 import com.magmusacy.chat.chatapp.user.dto.UserMeDTO;
+import com.magmusacy.chat.chatapp.user.dto.UserPageDTO;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
@@ -11,7 +14,6 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
 import java.security.Principal;
-import java.util.List;
 
 @Controller
 @RequiredArgsConstructor
@@ -20,6 +22,8 @@ public class UserController {
     private final UserService userService;
     private final PasswordEncoder passwordEncoder;
     private final SimpMessagingTemplate messagingTemplate;
+    private final PresenceService presenceService;
+    private final UserDeletionService userDeletionService;
 
     @GetMapping("/me")
     public ResponseEntity<UserMeDTO> getUserInfo() {
@@ -27,8 +31,18 @@ public class UserController {
     }
 
     @GetMapping()
-    public ResponseEntity<List<UserDTO>> getAllUsers() {
-        return ResponseEntity.ok(userService.findAllUsers());
+    public ResponseEntity<UserPageDTO> getUsers(
+            @RequestParam(required = false) String query,
+            @RequestParam(defaultValue = "0") int after,
+            @RequestParam(defaultValue = "" + UserService.DEFAULT_PAGE_SIZE) int limit
+    ) {
+        return ResponseEntity.ok(userService.findUsers(query, after, limit));
+    }
+
+    // only the users whose profile changed since that directory version, for catching up after a reconnect
+    @GetMapping(params = "sinceVersion")
+    public ResponseEntity<UserChangesDTO> getUsersChangedSince(@RequestParam long sinceVersion) {
+        return ResponseEntity.ok(userService.findUsersChangedSince(sinceVersion));
     }
 
     @PostMapping("/update")
@@ -37,18 +51,25 @@ public class UserController {
         User user = userService.findByEmail(email);
 
         UserMeDTO myUpdatedInformation = userService.updateUser(user, requestDTO, passwordEncoder);
-        UserDTO userDTO = new UserDTO(user.getId(), user.getName(), user.getIsOnline(), user.getLastSeen(), user.getProfilePictureUrl());
-        messagingTemplate.convertAndSend("/topic/users", userDTO);
+        UserDTO userDTO = new UserDTO(user.getId(), user.getName(), user.getIsOnline(), user.getLastSeen(), user.getProfilePictureUrl(), user.getDirectoryVersion());
+        presenceService.publishProfileUpdate(userDTO);
         return ResponseEntity.ok(myUpdatedInformation);
     }
 
+    // the account is gone once this returns, its conversations are removed in the background
     @DeleteMapping
-    public ResponseEntity<String> deleteUser(Principal principal) {
+    public ResponseEntity<UserDeletionDTO> deleteUser(Principal principal) {
         String email = principal.getName();
         User user = userService.findByEmail(email);
         int userId = user.getId();
-        userService.deleteUser(user);
+        UserDeletionDTO deletion = userService.deleteUser(user);
         messagingTemplate.convertAndSend("/topic/deleted.user", userId);
-        return ResponseEntity.ok("User deleted successfully");
+        return ResponseEntity.accepted().body(deletion);
+    }
+
+    // polled without a token, the one of the deleted account stops working with the request above
+    @GetMapping("/deletions/{deletionId}")
+    public ResponseEntity<UserDeletionDTO> getDeletion(@PathVariable String deletionId) {
+        return ResponseEntity.of(userDeletionService.findDeletion(deletionId));
     }
 }
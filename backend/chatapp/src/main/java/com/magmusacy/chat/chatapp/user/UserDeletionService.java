@@ -0,0 +1,139 @@
+package com.magmusacy.chat.chatapp.user;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.magmusacy.chat.chatapp.chatroom.ChatRoomService;
+import com.magmusacy.chat.chatapp.user.dto.UserDeletionDTO;
+import com.magmusacy.chat.chatapp.user.dto.UserDeletionDTO.Status;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Removes the rows of deleted accounts in the background. Conversations go a batch of rooms at a time, their messages
+ * in set-based chunks of bounded size, each chunk in its own transaction, so neither the request nor any single
+ * transaction grows with the size of the account. Deletions cut short by a restart are picked up again on startup.
+ */
+@Slf4j
+@Service
+public class UserDeletionService {
+    private final ChatRoomService chatRoomService;
+    private final UserRepository userRepository;
+    private final int chatRoomBatchSize;
+    private final int messageChunkSize;
+    private final ExecutorService deletionExecutor = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("user-deletion").daemon(true).factory()
+    );
+    // progress of the deletions started on this node, finished ones are kept around for a while to be polled
+    private final Cache<String, Progress> deletions;
+
+    public UserDeletionService(ChatRoomService chatRoomService,
+                               UserRepository userRepository,
+                               @Value("${chat.user-deletion.chat-room-batch-size:100}") int chatRoomBatchSize,
+                               @Value("${chat.user-deletion.message-chunk-size:5000}") int messageChunkSize,
+                               @Value("${chat.user-deletion.progress-ttl:1h}") Duration progressTtl) {
+        this.chatRoomService = chatRoomService;
+        this.userRepository = userRepository;
+        this.chatRoomBatchSize = chatRoomBatchSize;
+        this.messageChunkSize = messageChunkSize;
+        this.deletions = Caffeine.newBuilder()
+                .expireAfterWrite(progressTtl)
+                .build();
+    }
+
+    /**
+     * Queues the removal of a user already marked as deleted. Inside a transaction it only starts once that commits.
+     */
+    public UserDeletionDTO schedule(int userId) {
+        Progress progress = new Progress(UUID.randomUUID().toString(), userId);
+        deletions.put(progress.id, progress);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    deletionExecutor.execute(() -> purge(progress));
+                }
+            });
+        } else {
+            deletionExecutor.execute(() -> purge(progress));
+        }
+        return progress.toDTO();
+    }
+
+    public Optional<UserDeletionDTO> findDeletion(String deletionId) {
+        return Optional.ofNullable(deletions.getIfPresent(deletionId)).map(Progress::toDTO);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinished() {
+        // a chunk deleted twice by two nodes resuming the same user is simply empty the second time
+        userRepository.findDeletedIds().forEach(this::schedule);
+    }
+
+    @PreDestroy
+    void stop() {
+        deletionExecutor.shutdownNow();
+    }
+
+    private void purge(Progress progress) {
+        progress.status = Status.RUNNING;
+        try {
+            List<List<String>> batches = batches(chatRoomService.findChatRoomIds(progress.userId));
+            progress.totalMessages = batches.stream().mapToLong(chatRoomService::countChatMessages).sum();
+            for (List<String> batch : batches) {
+                chatRoomService.detachChatRooms(batch);
+                int deleted;
+                do {
+                    deleted = chatRoomService.deleteChatMessages(batch, messageChunkSize);
+                    progress.deletedMessages.addAndGet(deleted);
+                } while (deleted == messageChunkSize);
+                chatRoomService.deleteChatRooms(batch);
+            }
+            userRepository.deleteById(progress.userId);
+            progress.status = Status.COMPLETED;
+            log.info("Deleted user {} with {} messages", progress.userId, progress.deletedMessages.get());
+        } catch (RuntimeException e) {
+            // the user stays marked as deleted, the next startup tries again
+            progress.status = Status.FAILED;
+            log.warn("Deleting user {} failed after {} messages", progress.userId, progress.deletedMessages.get(), e);
+        }
+    }
+
+    private List<List<String>> batches(List<String> chatRoomIds) {
+        int batchCount = (chatRoomIds.size() + chatRoomBatchSize - 1) / chatRoomBatchSize;
+        return IntStream.range(0, batchCount)
+                .mapToObj(i -> chatRoomIds.subList(i * chatRoomBatchSize, Math.min(chatRoomIds.size(), (i + 1) * chatRoomBatchSize)))
+                .toList();
+    }
+
+    private static final class Progress {
+        private final String id;
+        private final int userId;
+        private volatile Status status = Status.QUEUED;
+        private volatile long totalMessages;
+        private final AtomicLong deletedMessages = new AtomicLong();
+
+        private Progress(String id, int userId) {
+            this.id = id;
+            this.userId = userId;
+        }
+
+        private UserDeletionDTO toDTO() {
+            return new UserDeletionDTO(id, status, totalMessages, deletedMessages.get());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.magmusacy.chat.chatapp.user;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.magmusacy.chat.chatapp.cluster.ClusterForwarder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+
+/**
+ * Read-through cache in front of {@link UserRepository} for the lookups done on every STOMP frame. Entries expire
+ * after the configured TTL, writes that go through {@link UserService} evict them right away, on every node in
+ * cluster mode.
+ */
+@Service
+public class UserDirectory {
+    private final UserRepository userRepository;
+    private final Cache<Integer, UserDirectoryEntry> entriesById;
+    private final Cache<String, Integer> idsByEmail;
+    private final ObjectProvider<ClusterForwarder> clusterForwarder;
+
+    public UserDirectory(UserRepository userRepository,
+                         ObjectProvider<ClusterForwarder> clusterForwarder,
+                         MeterRegistry meterRegistry,
+                         @Value("${chat.user-directory.maximum-size:10000}") long maximumSize,
+                         @Value("${chat.user-directory.ttl:10m}") Duration ttl) {
+        this.userRepository = userRepository;
+        this.clusterForwarder = clusterForwarder;
+        this.entriesById = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.idsByEmail = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, entriesById, "users.directory.by-id");
+        CaffeineCacheMetrics.monitor(meterRegistry, idsByEmail, "users.directory.by-email");
+    }
+
+    public UserDirectoryEntry findById(int id) {
+        UserDirectoryEntry entry = entriesById.get(id, key -> userRepository.findDirectoryEntryById(key).orElse(null));
+        if (entry == null) {
+            throw new UsernameNotFoundException("User not found");
+        }
+        return entry;
+    }
+
+    public UserDirectoryEntry findByEmail(String email) {
+        Integer id = idsByEmail.get(email, key -> userRepository.findDirectoryEntryByEmail(key)
+                .map(entry -> {
+                    entriesById.put(entry.id(), entry);
+                    return entry.id();
+                })
+                .orElse(null));
+        if (id == null) {
+            throw new UsernameNotFoundException("User not found");
+        }
+        return findById(id);
+    }
+
+    public void invalidate(User user) {
+        int id = user.getId();
+        String email = user.getEmail();
+        evict(id, email);
+        // evict again once the change is visible, a concurrent miss could have reloaded the old row in between, and
+        // only then tell the other nodes, before that they could reload it just the same
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(id, email);
+                    clusterForwarder.ifAvailable(forwarder -> forwarder.invalidateUser(id, email));
+                }
+            });
+        } else {
+            clusterForwarder.ifAvailable(forwarder -> forwarder.invalidateUser(id, email));
+        }
+    }
+
+    /**
+     * Evicts the user on this node only, for the invalidations another node broadcast.
+     */
+    public void evict(int id, String email) {
+        entriesById.invalidate(id);
+        idsByEmail.invalidate(email);
+    }
+}
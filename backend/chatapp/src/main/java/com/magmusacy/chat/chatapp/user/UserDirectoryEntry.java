@@ -0,0 +1,14 @@
+package com.magmusacy.chat.chatapp.user;
+
+/**
+ * The parts of a user that message routing needs and that only change through {@link UserService}.
+ * Presence fields are left out on purpose, they change far too often to be cached.
+ */
+public record UserDirectoryEntry(
+        int id,
+        String email,
+        String name,
+        String profilePictureUrl,
+        long directoryVersion
+) {
+}
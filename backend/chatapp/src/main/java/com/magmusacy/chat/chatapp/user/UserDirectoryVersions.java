@@ -0,0 +1,27 @@
+package com.magmusacy.chat.chatapp.user;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Directory versions are the id of the transaction that changed a user's public profile. Transactions don't commit
+ * in the order their versions were handed out, so the highest version a client has seen says nothing about the
+ * ones below it. A watermark does: every transaction below it has finished, so a client that got one along with a
+ * read has seen every change below it and only needs the versions at or above it next time.
+ */
+@Component
+@RequiredArgsConstructor
+public class UserDirectoryVersions {
+    private final JdbcTemplate jdbcTemplate;
+
+    // has to run in the transaction that saves the change, the version is that transaction's id
+    public long next() {
+        return jdbcTemplate.queryForObject("SELECT pg_current_xact_id()::text::bigint", Long.class);
+    }
+
+    // the oldest transaction still running, or the next one to start when none is
+    public long watermark() {
+        return jdbcTemplate.queryForObject("SELECT pg_snapshot_xmin(pg_current_snapshot())::text::bigint", Long.class);
+    }
+}
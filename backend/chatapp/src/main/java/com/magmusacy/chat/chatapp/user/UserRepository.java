@@ -1,17 +1,52 @@
 package com.magmusacy.chat.chatapp.user;
 
+import com.magmusacy.chat.chatapp.user.dto.UserDTO;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Integer> {
+    String DIRECTORY_ENTRY_PROJECTION = "SELECT new com.magmusacy.chat.chatapp.user.UserDirectoryEntry(" +
+            "u.id, u.email, u.name, u.profilePictureUrl, u.directoryVersion) FROM User u ";
+
+    String USER_PROJECTION = "SELECT new com.magmusacy.chat.chatapp.user.dto.UserDTO(" +
+            "u.id, u.name, u.isOnline, u.lastSeen, u.profilePictureUrl, u.directoryVersion) FROM User u ";
 
     List<User> findAllByIsOnline(Boolean isOnline);
 
     Optional<User> findByEmail(String email);
 
     boolean existsByEmail(String email);
+
+    @Query(DIRECTORY_ENTRY_PROJECTION + "WHERE u.id = :id AND u.deletedAt IS NULL")
+    Optional<UserDirectoryEntry> findDirectoryEntryById(int id);
+
+    @Query(DIRECTORY_ENTRY_PROJECTION + "WHERE u.email = :email")
+    Optional<UserDirectoryEntry> findDirectoryEntryByEmail(String email);
+
+    @Query(USER_PROJECTION + "WHERE u.directoryVersion >= :version AND u.deletedAt IS NULL ORDER BY u.directoryVersion")
+    List<UserDTO> findChangedSince(long version);
+
+    @Query(USER_PROJECTION + "WHERE u.id > :after AND u.deletedAt IS NULL ORDER BY u.id")
+    List<UserDTO> findPageAfter(int after, Limit limit);
+
+    // pattern is an escaped ILIKE pattern, served by the trigram indexes on name and email
+    @Query(USER_PROJECTION +
+            "WHERE u.id > :after AND u.deletedAt IS NULL AND (u.name ILIKE :pattern ESCAPE '\\' OR u.email ILIKE :pattern ESCAPE '\\') " +
+            "ORDER BY u.id")
+    List<UserDTO> searchPageAfter(String pattern, int after, Limit limit);
+
+    // KEY SHARE like the foreign keys of a message insert, a deletion replaces the email, a key column, so it waits
+    // for the writes that checked the user and they see it deleted once it committed
+    @Query(value = "SELECT id FROM users WHERE id IN (:ids) AND deleted_at IS NULL FOR KEY SHARE", nativeQuery = true)
+    List<Integer> lockActiveIds(Collection<Integer> ids);
+
+    @Query("SELECT u.id FROM User u WHERE u.deletedAt IS NOT NULL")
+    List<Integer> findDeletedIds();
 }
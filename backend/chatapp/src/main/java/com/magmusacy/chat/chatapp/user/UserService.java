@@ -1,13 +1,18 @@
 package com.magmusacy.chat.chatapp.user;
 
+import com.magmusacy.chat.chatapp.auth.PrincipalCache;
 import com.magmusacy.chat.chatapp.auth.dto.RegisterRequest;
 import com.magmusacy.chat.chatapp.blobs.BlobService;
 import com.magmusacy.chat.chatapp.chatroom.ChatRoomService;
 import com.magmusacy.chat.chatapp.user.dto.UpdateUserRequestDTO;
+import com.magmusacy.chat.chatapp.user.dto.UserChangesDTO;
 import com.magmusacy.chat.chatapp.user.dto.UserDTO;
+import com.magmusacy.chat.chatapp.user.dto.UserDeletionDTO;
 import com.magmusacy.chat.chatapp.user.dto.UserMeDTO;
+import com.magmusacy.chat.chatapp.user.dto.UserPageDTO;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Limit;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
@@ -18,15 +23,25 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 
 @Service
 @RequiredArgsConstructor
 public class UserService implements UserDetailsService {
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 200;
+
     private final UserRepository userRepository;
     private final BlobService blobService;
     private final ChatRoomService chatRoomService;
+    private final UserDirectory userDirectory;
+    private final PrincipalCache principalCache;
+    private final UserDirectoryVersions directoryVersions;
+    private final UserDeletionService userDeletionService;
+    private final UserTombstoneRepository userTombstoneRepository;
 
     @Transactional
     public User createUser(RegisterRequest request, PasswordEncoder passwordEncoder) {
@@ -40,6 +55,7 @@ public class UserService implements UserDetailsService {
         user.setEmail(request.email());
         user.setName(request.name());
         user.setPassword(passwordEncoder.encode(request.password()));
+        user.setDirectoryVersion(directoryVersions.next());
         return userRepository.save(user);
     }
 
@@ -51,7 +67,9 @@ public class UserService implements UserDetailsService {
     @Transactional
     public void saveUserProfilePictureUrl(User user, String url) {
         user.setProfilePictureUrl(url);
+        user.setDirectoryVersion(directoryVersions.next());
         userRepository.save(user);
+        userDirectory.invalidate(user);
     }
 
 //    public UserDTO setUserOnline(int userId) {
@@ -80,28 +98,53 @@ public class UserService implements UserDetailsService {
         });
     }
 
-    public List<UserDTO> findAllUsers() {
-        return userRepository.findAll().stream().map(user -> new UserDTO(user.getId(), user.getName(), user.getIsOnline(), user.getLastSeen(), user.getProfilePictureUrl())).toList();
+    /**
+     * One page of users with an id greater than {@code after}, optionally only those whose name or email contains
+     * {@code query}, case-insensitively.
+     */
+    public UserPageDTO findUsers(String query, int after, int limit) {
+        // before reading, a change committing in between is sent again with the next delta rather than missed
+        long version = directoryVersions.watermark();
+        int pageSize = Math.clamp(limit, 1, MAX_PAGE_SIZE);
+        // fetch one extra row to know if there is anything past this page
+        Limit fetchLimit = Limit.of(pageSize + 1);
+        List<UserDTO> users = query == null || query.isBlank()
+                ? userRepository.findPageAfter(after, fetchLimit)
+                : userRepository.searchPageAfter("%" + escapeLikePattern(query.trim()) + "%", after, fetchLimit);
+
+        boolean hasMore = users.size() > pageSize;
+        return UserPageDTO.of(users.subList(0, Math.min(pageSize, users.size())), hasMore, version);
     }
 
-    @Transactional
-    public void handleUserLogout(User user) {
-        user.setIsOnline(false);
-        user.setLastSeen(LocalDateTime.now());
-        userRepository.save(user);
-    }
-
-    @Transactional
-    public void handleUserLogin(User user) {
-        user.setIsOnline(true);
-        user.setLastSeen(null);
-        userRepository.save(user);
+    public UserChangesDTO findUsersChangedSince(long version) {
+        long watermark = directoryVersions.watermark();
+        return new UserChangesDTO(userRepository.findChangedSince(version), userTombstoneRepository.findDeletedSince(version), watermark);
     }
 
     public User findById(int id) {
         return userRepository.findById(id).orElseThrow(() -> new UsernameNotFoundException("User not found"));
     }
 
+    /**
+     * Checks that the user exists through the {@link UserDirectory} and returns an uninitialized reference,
+     * enough to set an association without loading the row.
+     */
+    public User getReference(int id) {
+        userDirectory.findById(id);
+        return userRepository.getReferenceById(id);
+    }
+
+    /**
+     * Checks the users against the database rather than the {@link UserDirectory}, which can still hold a user that
+     * was just deleted on another node, and keeps them from being deleted until the transaction ends.
+     */
+    public void requireActive(Collection<Integer> ids) {
+        List<Integer> distinctIds = ids.stream().distinct().toList();
+        if (userRepository.lockActiveIds(distinctIds).size() != distinctIds.size()) {
+            throw new UsernameNotFoundException("User not found");
+        }
+    }
+
     public User findByEmail(String email) {
         return userRepository.findByEmail(email)
                 .orElseThrow(() -> new UsernameNotFoundException("User not found"));
@@ -124,16 +167,29 @@ public class UserService implements UserDetailsService {
     public UserDTO handleUserProfilePictureUpload(User user, MultipartFile file) throws IOException {
         String blobUrl = blobService.uploadBlob(user, file);
         saveUserProfilePictureUrl(user, blobUrl);
-        return new UserDTO(user.getId(), user.getName(), user.getIsOnline(), user.getLastSeen(), user.getProfilePictureUrl());
+        return new UserDTO(user.getId(), user.getName(), user.getIsOnline(), user.getLastSeen(), user.getProfilePictureUrl(), user.getDirectoryVersion());
     }
 
+    /**
+     * Takes the account out of use right away and leaves removing its rows to {@link UserDeletionService}. The email
+     * is replaced so it can be registered again and lookups by it fail, deletedAt hides the user from the directory
+     * and the tombstone tells clients catching up through a delta to drop them.
+     */
     @Transactional
-    public void deleteUser(User user) {
+    public UserDeletionDTO deleteUser(User user) {
         if (user.getProfilePictureUrl() != null) {
             blobService.deleteBlob(user.getProfilePictureUrl());
         }
-        chatRoomService.deleteUserChatRooms(user);
-        userRepository.delete(user);
+        userDirectory.invalidate(user);
+        principalCache.invalidate(user.getEmail());
+        user.setEmail("deleted-" + user.getId() + "-" + UUID.randomUUID() + "@deleted.invalid");
+        user.setProfilePictureUrl(null);
+        user.setIsOnline(false);
+        user.setDeletedAt(LocalDateTime.now());
+        user.setDirectoryVersion(directoryVersions.next());
+        userRepository.save(user);
+        userTombstoneRepository.save(new UserTombstone(user.getId(), user.getDirectoryVersion()));
+        return userDeletionService.schedule(user.getId());
     }
 
     @Transactional
@@ -153,8 +209,10 @@ public class UserService implements UserDetailsService {
 
             user.setPassword(passwordEncoder.encode(requestDTO.password()));
         }
+        user.setDirectoryVersion(directoryVersions.next());
 
         User updatedUser = userRepository.save(user);
+        userDirectory.invalidate(updatedUser);
         return new UserMeDTO(
                 updatedUser.getId(),
                 updatedUser.getName(),
@@ -162,4 +220,8 @@ public class UserService implements UserDetailsService {
                 updatedUser.getProfilePictureUrl()
         );
     }
+
+    private static String escapeLikePattern(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
 }
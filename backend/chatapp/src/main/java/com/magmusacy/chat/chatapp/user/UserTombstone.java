@@ -0,0 +1,28 @@
+package com.magmusacy.chat.chatapp.user;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * A deleted user, kept after {@link UserDeletionService} removed the row so directory deltas can still tell clients
+ * to drop them. The version is the directory version the deletion was stamped with.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "user_tombstones", indexes = {
+        @Index(name = "idx_user_tombstones_directory_version", columnList = "directory_version")
+})
+public class UserTombstone {
+    @Id
+    private Integer userId;
+    private long directoryVersion;
+}
@@ -0,0 +1,14 @@
+package com.magmusacy.chat.chatapp.user;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface UserTombstoneRepository extends JpaRepository<UserTombstone, Integer> {
+
+    @Query("SELECT t.userId FROM UserTombstone t WHERE t.directoryVersion >= :version ORDER BY t.directoryVersion")
+    List<Integer> findDeletedSince(long version);
+}
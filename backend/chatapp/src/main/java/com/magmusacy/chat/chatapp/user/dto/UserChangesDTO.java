@@ -0,0 +1,14 @@
+package com.magmusacy.chat.chatapp.user.dto;
+
+import java.util.List;
+
+/**
+ * The users whose profile changed and the ids of those deleted at or after the requested directory version. Pass
+ * {@code version} as {@code ?sinceVersion=} next time, not the highest version among the users.
+ */
+public record UserChangesDTO(
+        List<UserDTO> users,
+        List<Integer> deletedIds,
+        long version
+) {
+}
@@ -0,0 +1,19 @@
+package com.magmusacy.chat.chatapp.user.dto;
+
+/**
+ * Progress of an account deletion, poll {@code GET /users/deletions/{id}} until it is completed.
+ * {@code totalMessages} is known once the deletion is running.
+ */
+public record UserDeletionDTO(
+        String id,
+        Status status,
+        long totalMessages,
+        long deletedMessages
+) {
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+}
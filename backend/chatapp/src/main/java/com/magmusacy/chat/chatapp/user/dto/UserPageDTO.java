@@ -0,0 +1,18 @@
+package com.magmusacy.chat.chatapp.user.dto;
+
+import java.util.List;
+
+/**
+ * One page of the user directory ordered by id. Pass {@code nextAfter} as {@code ?after=} to load the next page.
+ * The {@code version} of the first page is where {@code ?sinceVersion=} picks up once all pages are loaded.
+ */
+public record UserPageDTO(
+        List<UserDTO> users,
+        boolean hasMore,
+        Integer nextAfter,
+        long version
+) {
+    public static UserPageDTO of(List<UserDTO> users, boolean hasMore, long version) {
+        return new UserPageDTO(users, hasMore, users.isEmpty() ? null : users.getLast().id(), version);
+    }
+}
@@ -0,0 +1,52 @@
+-- chat_messages becomes range partitioned by timestamp, one partition per month, so that old history can be detached
+-- and archived a month at a time (ChatMessagePartitions). A primary key on a partitioned table has to include the
+-- partition key, and a foreign key cannot reference one, so chat_rooms.latest_message_id loses its constraint.
+
+CREATE TABLE chat_messages_partitioned (
+    id            integer      NOT NULL,
+    timestamp     timestamp(6) NOT NULL,
+    content       varchar(255) NOT NULL,
+    chat_rooms_id varchar(255),
+    sender_id     integer,
+    recipient_id  integer,
+    content_tsv   tsvector GENERATED ALWAYS AS (to_tsvector('simple', content)) STORED
+) PARTITION BY RANGE (timestamp);
+
+-- every month with messages, up to three months ahead, later months are created by the application
+DO $$
+DECLARE
+    partition_start timestamp := date_trunc('month', LEAST((SELECT min(timestamp) FROM chat_messages), now()));
+BEGIN
+    WHILE partition_start < date_trunc('month', now()) + interval '4 months' LOOP
+        EXECUTE format('CREATE TABLE %I PARTITION OF chat_messages_partitioned FOR VALUES FROM (%L) TO (%L)',
+                'chat_messages_' || to_char(partition_start, 'YYYY_MM'), partition_start, partition_start + interval '1 month');
+        partition_start := partition_start + interval '1 month';
+    END LOOP;
+END
+$$;
+
+INSERT INTO chat_messages_partitioned (id, timestamp, content, chat_rooms_id, sender_id, recipient_id)
+SELECT id, timestamp, content, chat_rooms_id, sender_id, recipient_id FROM chat_messages;
+
+-- CASCADE takes the latest_message_id foreign key with it, whatever name the schema update gave it
+DROP TABLE chat_messages CASCADE;
+ALTER TABLE chat_messages_partitioned RENAME TO chat_messages;
+
+ALTER TABLE chat_messages ADD CONSTRAINT chat_messages_pkey PRIMARY KEY (id, timestamp);
+ALTER TABLE chat_messages ADD CONSTRAINT fk_chat_messages_chat_room FOREIGN KEY (chat_rooms_id) REFERENCES chat_rooms (id);
+ALTER TABLE chat_messages ADD CONSTRAINT fk_chat_messages_sender FOREIGN KEY (sender_id) REFERENCES users (id);
+ALTER TABLE chat_messages ADD CONSTRAINT fk_chat_messages_recipient FOREIGN KEY (recipient_id) REFERENCES users (id);
+
+CREATE INDEX idx_chat_messages_room_history ON chat_messages (chat_rooms_id, timestamp, id, sender_id, recipient_id);
+CREATE INDEX idx_chat_messages_sender_room ON chat_messages (sender_id, chat_rooms_id);
+CREATE INDEX idx_chat_messages_recipient_room ON chat_messages (recipient_id, chat_rooms_id);
+CREATE INDEX idx_chat_messages_content_tsv ON chat_messages USING gin (content_tsv);
+
+-- which archived months hold messages of a conversation, so that reading history only opens the archive files
+-- that have something for it
+CREATE TABLE chat_message_archive_rooms (
+    chat_room_id  varchar(255) NOT NULL,
+    month         date         NOT NULL,
+    message_count integer      NOT NULL,
+    CONSTRAINT chat_message_archive_rooms_pkey PRIMARY KEY (chat_room_id, month)
+);
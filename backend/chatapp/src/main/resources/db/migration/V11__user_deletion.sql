@@ -0,0 +1,4 @@
+-- set when an account deletion is accepted, UserDeletionService removes the row and everything referencing it in the
+-- background and picks deletions that did not finish up again on startup
+ALTER TABLE users ADD COLUMN deleted_at timestamp(6);
+CREATE INDEX idx_users_deleted_at ON users (deleted_at) WHERE deleted_at IS NOT NULL;
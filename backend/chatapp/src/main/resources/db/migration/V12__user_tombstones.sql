@@ -0,0 +1,8 @@
+-- deleted users outlive their row here so directory deltas can report them, one small row per deleted account
+CREATE TABLE user_tombstones (
+    user_id           integer NOT NULL,
+    directory_version bigint  NOT NULL,
+    CONSTRAINT user_tombstones_pkey PRIMARY KEY (user_id)
+);
+
+CREATE INDEX idx_user_tombstones_directory_version ON user_tombstones (directory_version);
@@ -0,0 +1,4 @@
+-- where the gzip member of a conversation starts in its month's archive file and how many bytes it takes, so reading
+-- it doesn't decompress the months of every other conversation. Null for months archived before, those are scanned.
+ALTER TABLE chat_message_archive_rooms ADD COLUMN file_offset bigint;
+ALTER TABLE chat_message_archive_rooms ADD COLUMN byte_length bigint;
@@ -0,0 +1,39 @@
+-- Schema as ddl-auto update created it from the entities before the schema moved to migrations, which is what
+-- existing databases have and why they are baselined at this version. Everything added since is in the later
+-- migrations. The foreign key names are the ones Hibernate generated.
+
+CREATE TABLE users (
+    id                  integer      GENERATED BY DEFAULT AS IDENTITY,
+    email               varchar(255) NOT NULL,
+    name                varchar(20),
+    password            varchar(255) NOT NULL,
+    is_online           boolean,
+    profile_picture_url varchar(255),
+    last_seen           timestamp(6),
+    CONSTRAINT users_pkey PRIMARY KEY (id),
+    CONSTRAINT users_email_key UNIQUE (email)
+);
+
+CREATE TABLE chat_rooms (
+    id                varchar(255) NOT NULL,
+    latest_message_id integer,
+    read_status       boolean      NOT NULL,
+    CONSTRAINT chat_rooms_pkey PRIMARY KEY (id),
+    CONSTRAINT chat_rooms_latest_message_id_key UNIQUE (latest_message_id)
+);
+
+CREATE TABLE chat_messages (
+    id            integer      GENERATED BY DEFAULT AS IDENTITY,
+    timestamp     timestamp(6) NOT NULL,
+    content       varchar(255) NOT NULL,
+    chat_rooms_id varchar(255),
+    sender_id     integer,
+    recipient_id  integer,
+    CONSTRAINT chat_messages_pkey PRIMARY KEY (id),
+    CONSTRAINT fkngevxsdt94vdroc7eyqyc58ph FOREIGN KEY (chat_rooms_id) REFERENCES chat_rooms (id),
+    CONSTRAINT fkgiqeap8ays4lf684x7m0r2729 FOREIGN KEY (sender_id) REFERENCES users (id),
+    CONSTRAINT fk9cy5qdbo924k3jflvj0y04s6y FOREIGN KEY (recipient_id) REFERENCES users (id)
+);
+
+ALTER TABLE chat_rooms
+    ADD CONSTRAINT fk6pmj7as4nggwfr56v7govhda4 FOREIGN KEY (latest_message_id) REFERENCES chat_messages (id);
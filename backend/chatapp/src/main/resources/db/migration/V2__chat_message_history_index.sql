@@ -0,0 +1,3 @@
+-- history of a conversation is read by room and (timestamp, id) cursor, the sender and recipient ids are included so
+-- the page comes from the index alone
+CREATE INDEX idx_chat_messages_room_history ON chat_messages (chat_rooms_id, timestamp, id, sender_id, recipient_id);
@@ -0,0 +1,31 @@
+-- one row per user and conversation with the room's latest message and the user's read state, maintained on every
+-- send by ChatRoomService.updateInboxes so the conversation list is a single index range read
+CREATE TABLE inbox_entries (
+    user_id                   integer      NOT NULL,
+    chat_room_id              varchar(255) NOT NULL,
+    partner_id                integer      NOT NULL,
+    last_message_id           integer      NOT NULL,
+    last_message_sender_id    integer      NOT NULL,
+    last_message_recipient_id integer      NOT NULL,
+    last_message_content      varchar(255),
+    last_message_timestamp    timestamp(6),
+    unread_count              integer      NOT NULL,
+    last_read_message_id      integer,
+    CONSTRAINT inbox_entries_pkey PRIMARY KEY (user_id, chat_room_id)
+);
+
+CREATE INDEX idx_inbox_entries_user_activity ON inbox_entries (user_id, last_message_timestamp);
+-- whose conversation list a presence or profile change goes to
+CREATE INDEX idx_inbox_entries_partner ON inbox_entries (partner_id, user_id);
+
+-- entries for the conversations that already exist, the shared room flag is the best read state there is for them
+-- so unread rooms start with a count of one
+INSERT INTO inbox_entries (user_id, chat_room_id, partner_id, last_message_id, last_message_sender_id,
+                           last_message_recipient_id, last_message_content, last_message_timestamp, unread_count,
+                           last_read_message_id)
+SELECT p.user_id, c.id, p.partner_id, m.id, m.sender_id, m.recipient_id, m.content, m.timestamp,
+       CASE WHEN p.user_id = m.recipient_id AND NOT c.read_status THEN 1 ELSE 0 END,
+       CASE WHEN p.user_id = m.sender_id OR c.read_status THEN m.id END
+FROM chat_rooms c
+JOIN chat_messages m ON m.id = c.latest_message_id
+CROSS JOIN LATERAL (VALUES (m.sender_id, m.recipient_id), (m.recipient_id, m.sender_id)) AS p(user_id, partner_id);
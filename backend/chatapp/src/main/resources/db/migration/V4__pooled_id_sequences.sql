@@ -0,0 +1,11 @@
+-- message and user ids come from pooled sequences instead of identity columns so that inserts can be batched, see
+-- ChatMessageIdAllocator. Each sequence value is the upper end of a block of 50, start a whole block past the
+-- existing ids.
+ALTER TABLE users ALTER COLUMN id DROP IDENTITY;
+ALTER TABLE chat_messages ALTER COLUMN id DROP IDENTITY;
+
+CREATE SEQUENCE users_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE chat_messages_seq START WITH 1 INCREMENT BY 50;
+
+SELECT setval('users_seq', (SELECT coalesce(max(id), 0) FROM users) + 50);
+SELECT setval('chat_messages_seq', (SELECT coalesce(max(id), 0) FROM chat_messages) + 50);
@@ -0,0 +1,18 @@
+-- nodes of a cluster without an external broker and which node each user session is connected to, see
+-- ClusterMembership and ClusterSessionRegistry
+CREATE TABLE cluster_nodes (
+    node_id      varchar(255) NOT NULL,
+    url          varchar(255),
+    heartbeat_at timestamp(6),
+    CONSTRAINT cluster_nodes_pkey PRIMARY KEY (node_id)
+);
+
+CREATE TABLE cluster_user_sessions (
+    id           varchar(255) NOT NULL,
+    email        varchar(255),
+    node_id      varchar(255),
+    connected_at timestamp(6),
+    CONSTRAINT cluster_user_sessions_pkey PRIMARY KEY (id)
+);
+
+CREATE INDEX idx_cluster_user_sessions_email ON cluster_user_sessions (email, node_id);
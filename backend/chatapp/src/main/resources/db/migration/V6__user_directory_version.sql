@@ -0,0 +1,4 @@
+-- the transaction id that last changed the user's directory entry, see UserDirectoryVersions. Existing users are at
+-- zero, clients load the full directory on start anyway
+ALTER TABLE users ADD COLUMN directory_version bigint NOT NULL DEFAULT 0;
+CREATE INDEX idx_users_directory_version ON users (directory_version);
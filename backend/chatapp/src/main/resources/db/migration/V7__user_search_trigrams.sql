@@ -0,0 +1,4 @@
+-- user directory search by name or email substring, managed Postgres services may need pg_trgm allow-listed first
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE INDEX idx_users_name_trgm ON users USING gin (name gin_trgm_ops);
+CREATE INDEX idx_users_email_trgm ON users USING gin (email gin_trgm_ops);
@@ -0,0 +1,3 @@
+-- full-text search over message content, see ChatMessageSearchRepository
+ALTER TABLE chat_messages ADD COLUMN content_tsv tsvector GENERATED ALWAYS AS (to_tsvector('simple', content)) STORED;
+CREATE INDEX idx_chat_messages_content_tsv ON chat_messages USING gin (content_tsv);
@@ -0,0 +1,8 @@
+-- Indexes for the lookups that had none: chat rooms by participant (ChatRoomRepository), the foreign key
+-- checks when a user is deleted, inbox cleanup by room and cluster session cleanup by node.
+-- CONCURRENTLY keeps the tables writable while the indexes build, Flyway runs this script outside a transaction.
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chat_messages_sender_room ON chat_messages (sender_id, chat_rooms_id);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chat_messages_recipient_room ON chat_messages (recipient_id, chat_rooms_id);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_inbox_entries_chat_room ON inbox_entries (chat_room_id);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_cluster_user_sessions_node ON cluster_user_sessions (node_id);
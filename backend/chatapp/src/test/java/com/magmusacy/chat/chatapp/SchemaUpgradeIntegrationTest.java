@@ -0,0 +1,101 @@
+package com.magmusacy.chat.chatapp;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.configuration.FluentConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Upgrades a database the way production has it, with the baseline schema ddl-auto update created but no migration
+ * history, and checks that the migrations carry its data over.
+ */
+class SchemaUpgradeIntegrationTest {
+    private static final String DATABASE = "chatapp_upgrade_test";
+
+    private JdbcTemplate adminJdbcTemplate;
+    private DriverManagerDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        adminJdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+                TestcontainersInitializer.postgres.getJdbcUrl(),
+                TestcontainersInitializer.postgres.getUsername(),
+                TestcontainersInitializer.postgres.getPassword()
+        ));
+        adminJdbcTemplate.execute("DROP DATABASE IF EXISTS " + DATABASE + " WITH (FORCE)");
+        adminJdbcTemplate.execute("CREATE DATABASE " + DATABASE);
+        dataSource = new DriverManagerDataSource(
+                TestcontainersInitializer.postgres.getJdbcUrl().replace("/chatapp_test", "/" + DATABASE),
+                TestcontainersInitializer.postgres.getUsername(),
+                TestcontainersInitializer.postgres.getPassword()
+        );
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @AfterEach
+    void tearDown() {
+        adminJdbcTemplate.execute("DROP DATABASE IF EXISTS " + DATABASE + " WITH (FORCE)");
+    }
+
+    @Test
+    @DisplayName("Given a database with the baseline schema and no migration history, when migrated, then it should be baselined and its users, messages and conversations carried over")
+    void migrate_BaselineDatabase_KeepsData() {
+        // Given
+        // only the baseline, under a history table of its own so the real migration sees a schema it has never seen
+        flyway().table("baseline_only_history").target("1").load().migrate();
+        int alice = insertUser("alice@example.com", "Alice");
+        int bob = insertUser("bob@example.com", "Bob");
+        jdbcTemplate.update("INSERT INTO chat_rooms (id, read_status) VALUES (?, false)", alice + "_" + bob);
+        insertMessage("Hi Bob", alice, bob);
+        int latestMessageId = insertMessage("Hi Alice", bob, alice);
+        jdbcTemplate.update("UPDATE chat_rooms SET latest_message_id = ?", latestMessageId);
+
+        // When
+        flyway().baselineOnMigrate(true).baselineVersion("1").load().migrate();
+
+        // Then
+        assertEquals("p", jdbcTemplate.queryForObject("SELECT relkind::text FROM pg_class WHERE relname = 'chat_messages'", String.class));
+        assertEquals(List.of("Hi Bob", "Hi Alice"), jdbcTemplate.queryForList("SELECT content FROM chat_messages ORDER BY id", String.class));
+        assertEquals(List.of(0L, 0L), jdbcTemplate.queryForList("SELECT directory_version FROM users ORDER BY id", Long.class));
+
+        List<Map<String, Object>> inbox = jdbcTemplate.queryForList(
+                "SELECT user_id, partner_id, last_message_id, unread_count FROM inbox_entries ORDER BY user_id");
+        assertEquals(List.of(
+                Map.of("user_id", alice, "partner_id", bob, "last_message_id", latestMessageId, "unread_count", 1),
+                Map.of("user_id", bob, "partner_id", alice, "last_message_id", latestMessageId, "unread_count", 0)
+        ), inbox);
+
+        // a pooled value is the upper end of its block, the whole block has to be past the existing ids
+        Long messageBlockEnd = jdbcTemplate.queryForObject("SELECT nextval('chat_messages_seq')", Long.class);
+        Long userBlockEnd = jdbcTemplate.queryForObject("SELECT nextval('users_seq')", Long.class);
+        assertTrue(messageBlockEnd - 50 >= latestMessageId);
+        assertTrue(userBlockEnd - 50 >= bob);
+    }
+
+    private FluentConfiguration flyway() {
+        return Flyway.configure()
+                .dataSource(dataSource)
+                .configuration(Map.of("flyway.postgresql.transactional.lock", "false"));
+    }
+
+    private int insertUser(String email, String name) {
+        return jdbcTemplate.queryForObject("INSERT INTO users (email, name, password, is_online) VALUES (?, ?, 'password', false) RETURNING id",
+                Integer.class, email, name);
+    }
+
+    private int insertMessage(String content, int senderId, int recipientId) {
+        return jdbcTemplate.queryForObject("INSERT INTO chat_messages (timestamp, content, chat_rooms_id, sender_id, recipient_id) " +
+                        "VALUES (now(), ?, ?, ?, ?) RETURNING id",
+                Integer.class, content, Math.min(senderId, recipientId) + "_" + Math.max(senderId, recipientId), senderId, recipientId);
+    }
+}
@@ -0,0 +1,68 @@
+package com.magmusacy.chat.chatapp.auth;
+
+import com.magmusacy.chat.chatapp.cluster.ClusterForwarder;
+import com.magmusacy.chat.chatapp.user.UserDirectory;
+import com.magmusacy.chat.chatapp.user.UserDirectoryEntry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.time.Duration;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PrincipalCacheTest {
+
+    @Mock
+    private UserDirectory userDirectory;
+
+    @Mock
+    private ObjectProvider<ClusterForwarder> clusterForwarder;
+
+    private PrincipalCache principalCache;
+    private final Date issuedAt = new Date(1_700_000_000_000L);
+
+    @BeforeEach
+    void setUp() {
+        principalCache = new PrincipalCache(userDirectory, clusterForwarder, new SimpleMeterRegistry(), 100, Duration.ofMinutes(1));
+        when(userDirectory.findByEmail("test@example.com"))
+                .thenReturn(new UserDirectoryEntry(1, "test@example.com", "Test User", null, 1));
+    }
+
+    @Test
+    @DisplayName("Given the same token twice, when get is called, then the user should be resolved once")
+    void get_SameToken_ResolvesUserOnce() {
+        // When
+        UserDetails first = principalCache.get("test@example.com", issuedAt);
+        UserDetails second = principalCache.get("test@example.com", issuedAt);
+
+        // Then
+        assertEquals("test@example.com", first.getUsername());
+        assertSame(first, second);
+        verify(userDirectory, times(1)).findByEmail("test@example.com");
+    }
+
+    @Test
+    @DisplayName("Given a cached principal, when evict is called for its subject, then the next get should resolve the user again")
+    void evict_RemovesAllTokensOfSubject() {
+        // Given
+        principalCache.get("test@example.com", issuedAt);
+        principalCache.get("test@example.com", new Date(issuedAt.getTime() + 1000));
+
+        // When
+        principalCache.evict("test@example.com");
+        principalCache.get("test@example.com", issuedAt);
+
+        // Then
+        verify(userDirectory, times(3)).findByEmail("test@example.com");
+    }
+}
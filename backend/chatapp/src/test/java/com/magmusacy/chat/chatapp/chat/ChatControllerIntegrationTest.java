@@ -6,6 +6,7 @@ import com.magmusacy.chat.chatapp.blobs.BlobService;
 import com.magmusacy.chat.chatapp.chatroom.ChatRoom;
 import com.magmusacy.chat.chatapp.chatroom.ChatRoomRepository;
 import com.magmusacy.chat.chatapp.user.User;
+import com.magmusacy.chat.chatapp.user.UserDirectory;
 import com.magmusacy.chat.chatapp.user.UserRepository;
 import jakarta.transaction.Transactional;
 import org.junit.jupiter.api.AfterEach;
@@ -24,7 +25,6 @@ import org.springframework.test.web.servlet.MockMvc;
 import java.security.Principal;
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.UUID;
 
 import static org.hamcrest.Matchers.hasSize;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
@@ -61,6 +61,9 @@ class ChatControllerIntegrationTest extends AbstractIntegrationTest {
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
 
+    @Autowired
+    private UserDirectory userDirectory;
+
     private User sender;
     private User recipient;
     private ChatRoom chatRoom;
@@ -80,7 +83,7 @@ class ChatControllerIntegrationTest extends AbstractIntegrationTest {
         recipient = userRepository.save(recipient);
 
         chatRoom = new ChatRoom();
-        chatRoom.setId(UUID.randomUUID().toString());
+        chatRoom.setId(String.format("%d_%d", sender.getId(), recipient.getId()));
         chatRoom = chatRoomRepository.save(chatRoom);
 
         ChatMessage message1 = new ChatMessage(
@@ -104,6 +107,8 @@ class ChatControllerIntegrationTest extends AbstractIntegrationTest {
     void tearDown() {
         chatMessageRepository.deleteAll();
         chatRoomRepository.deleteAll();
+        // the next test recreates these emails with new ids, drop what the directory cached for them
+        userRepository.findAll().forEach(userDirectory::invalidate);
         userRepository.deleteAll();
     }
 
@@ -118,10 +123,70 @@ class ChatControllerIntegrationTest extends AbstractIntegrationTest {
         // When & Then
         mockMvc.perform(get("/messages/{recipientId}", recipientId))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$").isArray())
-                .andExpect(jsonPath("$", hasSize(2)))
-                .andExpect(jsonPath("$[0].content").value("Hello"))
-                .andExpect(jsonPath("$[1].content").value("Hi there"));
+                .andExpect(jsonPath("$.messages").isArray())
+                .andExpect(jsonPath("$.messages", hasSize(2)))
+                .andExpect(jsonPath("$.messages[0].content").value("Hello"))
+                .andExpect(jsonPath("$.messages[1].content").value("Hi there"))
+                .andExpect(jsonPath("$.hasMore").value(false));
+    }
+
+    @Test
+    @WithMockUser(username = "sender@example.com")
+    @DisplayName("Given a limit smaller than the conversation, when GET /messages/{recipientId}, then pages should be walked with the before cursor")
+    void findChatMessages_WithLimit_ReturnsPagesByCursor() throws Exception {
+        // Given
+        int recipientId = recipient.getId();
+
+        // When
+        String firstPage = mockMvc.perform(get("/messages/{recipientId}", recipientId).param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.messages", hasSize(1)))
+                .andExpect(jsonPath("$.messages[0].content").value("Hi there"))
+                .andExpect(jsonPath("$.hasMore").value(true))
+                .andReturn().getResponse().getContentAsString();
+        String beforeCursor = objectMapper.readTree(firstPage).get("beforeCursor").asText();
+
+        // Then
+        mockMvc.perform(get("/messages/{recipientId}", recipientId)
+                        .param("limit", "1")
+                        .param("before", beforeCursor))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.messages", hasSize(1)))
+                .andExpect(jsonPath("$.messages[0].content").value("Hello"))
+                .andExpect(jsonPath("$.hasMore").value(false));
+    }
+
+    @Test
+    @WithMockUser(username = "sender@example.com")
+    @DisplayName("Given a malformed cursor, when GET /messages/{recipientId}, then bad request status should be returned")
+    void findChatMessages_WithMalformedCursor_ReturnsBadRequest() throws Exception {
+        // When & Then
+        mockMvc.perform(get("/messages/{recipientId}", recipient.getId()).param("before", "not-a-cursor"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @WithMockUser(username = "sender@example.com")
+    @DisplayName("Given messages in and outside the caller's rooms, when GET /messages/search, then only the caller's matches should be returned with snippets")
+    void searchMessages_WithMatches_ReturnsOnlyCallersMessages() throws Exception {
+        // Given
+        User outsider = new User();
+        outsider.setName("Outsider User");
+        outsider.setEmail("outsider@example.com");
+        outsider.setPassword("password");
+        outsider = userRepository.save(outsider);
+        ChatRoom outsiderRoom = new ChatRoom();
+        outsiderRoom.setId(String.format("%d_%d", recipient.getId(), outsider.getId()));
+        outsiderRoom = chatRoomRepository.save(outsiderRoom);
+        chatMessageRepository.save(new ChatMessage(LocalDateTime.now(), "Hello from elsewhere", outsiderRoom, outsider, recipient));
+
+        // When & Then
+        mockMvc.perform(get("/messages/search").param("query", "hello"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.hits", hasSize(1)))
+                .andExpect(jsonPath("$.hits[0].snippet").value("<b>Hello</b>"))
+                .andExpect(jsonPath("$.hits[0].chatRoomId").value(chatRoom.getId()))
+                .andExpect(jsonPath("$.hasMore").value(false));
     }
 
     @Test
@@ -0,0 +1,83 @@
+package com.magmusacy.chat.chatapp.chat;
+
+import com.magmusacy.chat.chatapp.chatroom.ChatRoomService;
+import com.magmusacy.chat.chatapp.user.UserDirectory;
+import com.magmusacy.chat.chatapp.user.UserDirectoryEntry;
+import com.magmusacy.chat.chatapp.user.UserService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import java.security.Principal;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ChatControllerTest {
+
+    @Mock
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Mock
+    private UserService userService;
+
+    @Mock
+    private UserDirectory userDirectory;
+
+    @Mock
+    private ChatMessageService chatMessageService;
+
+    @Mock
+    private ChatRoomService chatRoomService;
+
+    @Mock
+    private ObjectProvider<ChatMessageWriteBehindQueue> writeBehindQueueProvider;
+
+    @Mock
+    private ChatMessageWriteBehindQueue writeBehindQueue;
+
+    private ChatController chatController;
+    private final Principal principal = () -> "sender@gmail.com";
+
+    @BeforeEach
+    void setUp() {
+        when(writeBehindQueueProvider.getIfAvailable()).thenReturn(writeBehindQueue);
+        chatController = new ChatController(messagingTemplate, userService, userDirectory, chatMessageService,
+                chatRoomService, writeBehindQueueProvider);
+    }
+
+    @Test
+    @DisplayName("Given write-behind and a sender id of another user, when processMessage is called, then the message should be rejected before it is queued")
+    void processMessage_WriteBehindWithForeignSender_RejectsBeforeSubmit() {
+        // Given
+        when(userDirectory.findById(1)).thenReturn(new UserDirectoryEntry(1, "someone-else@gmail.com", "Someone Else", null, 0));
+        ChatMessageDTO messageDTO = new ChatMessageDTO("Hello", 1, 2, "1_2");
+
+        // When & Then
+        assertThrows(IllegalArgumentException.class, () -> chatController.processMessage(messageDTO, principal));
+        verify(writeBehindQueue, never()).submit(any(), any());
+        verifyNoInteractions(messagingTemplate);
+    }
+
+    @Test
+    @DisplayName("Given write-behind and an unknown recipient, when processMessage is called, then the message should be rejected before it is queued")
+    void processMessage_WriteBehindWithUnknownRecipient_RejectsBeforeSubmit() {
+        // Given
+        when(userDirectory.findById(1)).thenReturn(new UserDirectoryEntry(1, "sender@gmail.com", "Sender", null, 0));
+        when(userDirectory.findById(2)).thenThrow(new UsernameNotFoundException("User not found"));
+        ChatMessageDTO messageDTO = new ChatMessageDTO("Hello", 1, 2, "1_2");
+
+        // When & Then
+        assertThrows(UsernameNotFoundException.class, () -> chatController.processMessage(messageDTO, principal));
+        verify(writeBehindQueue, never()).submit(any(), any());
+        verifyNoInteractions(messagingTemplate);
+    }
+}
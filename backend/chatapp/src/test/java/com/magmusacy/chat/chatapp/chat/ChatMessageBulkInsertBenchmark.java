@@ -0,0 +1,124 @@
+package com.magmusacy.chat.chatapp.chat;
+
+import com.magmusacy.chat.chatapp.AbstractIntegrationTest;
+import com.magmusacy.chat.chatapp.blobs.BlobService;
+import com.magmusacy.chat.chatapp.chatroom.ChatRoom;
+import com.magmusacy.chat.chatapp.chatroom.ChatRoomRepository;
+import com.magmusacy.chat.chatapp.chatroom.ChatRoomService;
+import com.magmusacy.chat.chatapp.chatroom.InboxEntryRepository;
+import com.magmusacy.chat.chatapp.user.User;
+import com.magmusacy.chat.chatapp.user.UserRepository;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rows per second for bulk message inserts. "row-at-a-time" forces a JDBC batch size of 1, which is what every
+ * insert cost while ids came from identity columns, "batched" uses the pooled sequence with batching enabled.
+ * Run with ./gradlew benchmark.
+ */
+@Tag("benchmark")
+@TestPropertySource(properties = {
+        "spring.jpa.show-sql=false",
+        "spring.jpa.properties.hibernate.jdbc.batch_size=50",
+        "spring.jpa.properties.hibernate.order_inserts=true",
+        "spring.jpa.properties.hibernate.order_updates=true",
+        "spring.datasource.hikari.data-source-properties.reWriteBatchedInserts=true"
+})
+class ChatMessageBulkInsertBenchmark extends AbstractIntegrationTest {
+    private static final int ROWS = 10_000;
+    private static final int WARMUP_ROWS = 2_000;
+
+    @MockitoBean
+    private BlobService blobService;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private InboxEntryRepository inboxEntryRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private User sender;
+    private User recipient;
+    private ChatRoom chatRoom;
+
+    @BeforeEach
+    void setUp() {
+        sender = saveUser("Bench Sender", "bench-sender@example.com");
+        recipient = saveUser("Bench Recipient", "bench-recipient@example.com");
+        chatRoom = chatRoomRepository.save(ChatRoom.builder()
+                .id(ChatRoomService.generateChatRoomId(sender.getId(), recipient.getId()))
+                .build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        inboxEntryRepository.deleteAll();
+        chatMessageRepository.deleteAllInBatch();
+        chatRoomRepository.deleteAllInBatch();
+        userRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void bulkInsertRowsPerSecond() {
+        insert(WARMUP_ROWS, 1);
+        insert(WARMUP_ROWS, null);
+
+        double rowAtATime = insert(ROWS, 1);
+        double batched = insert(ROWS, null);
+
+        System.out.printf("chat_messages bulk insert, %d rows%n", ROWS);
+        System.out.printf("  row-at-a-time: %,.0f rows/s%n", rowAtATime);
+        System.out.printf("  batched:       %,.0f rows/s (%.1fx)%n", batched, batched / rowAtATime);
+    }
+
+    private double insert(int rows, Integer jdbcBatchSize) {
+        long start = System.nanoTime();
+        transactionTemplate.executeWithoutResult(status -> {
+            if (jdbcBatchSize != null) {
+                entityManager.unwrap(Session.class).setJdbcBatchSize(jdbcBatchSize);
+            }
+            ChatRoom room = entityManager.getReference(ChatRoom.class, chatRoom.getId());
+            User messageSender = entityManager.getReference(User.class, sender.getId());
+            User messageRecipient = entityManager.getReference(User.class, recipient.getId());
+            List<ChatMessage> messages = new ArrayList<>(rows);
+            for (int i = 0; i < rows; i++) {
+                messages.add(new ChatMessage(LocalDateTime.now(), "Benchmark message " + i, room, messageSender, messageRecipient));
+            }
+            chatMessageRepository.saveAll(messages);
+            entityManager.flush();
+        });
+        return rows / ((System.nanoTime() - start) / 1_000_000_000.0);
+    }
+
+    private User saveUser(String name, String email) {
+        User user = new User();
+        user.setName(name);
+        user.setEmail(email);
+        user.setPassword("password123");
+        return userRepository.save(user);
+    }
+}
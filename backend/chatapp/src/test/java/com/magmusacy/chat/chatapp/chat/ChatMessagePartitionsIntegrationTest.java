@@ -0,0 +1,160 @@
+package com.magmusacy.chat.chatapp.chat;
+
+import com.magmusacy.chat.chatapp.AbstractIntegrationTest;
+import com.magmusacy.chat.chatapp.blobs.BlobService;
+import com.magmusacy.chat.chatapp.chatroom.ChatRoom;
+import com.magmusacy.chat.chatapp.chatroom.ChatRoomRepository;
+import com.magmusacy.chat.chatapp.user.User;
+import com.magmusacy.chat.chatapp.user.UserDirectory;
+import com.magmusacy.chat.chatapp.user.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatMessagePartitionsIntegrationTest extends AbstractIntegrationTest {
+
+    @MockitoBean
+    private BlobService blobService;
+
+    @Autowired
+    private ChatMessagePartitions chatMessagePartitions;
+
+    @Autowired
+    private ChatMessageArchive chatMessageArchive;
+
+    @Autowired
+    private ChatMessageService chatMessageService;
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserDirectory userDirectory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final YearMonth coldMonth = YearMonth.now().minusYears(2);
+    private User sender;
+    private User recipient;
+    private ChatMessage coldMessage;
+    private ChatMessage liveMessage;
+
+    @BeforeEach
+    void setUp() {
+        sender = new User();
+        sender.setName("Sender User");
+        sender.setEmail("sender@example.com");
+        sender.setPassword("password");
+        sender = userRepository.save(sender);
+
+        recipient = new User();
+        recipient.setName("Recipient User");
+        recipient.setEmail("recipient@example.com");
+        recipient.setPassword("password");
+        recipient = userRepository.save(recipient);
+
+        ChatRoom chatRoom = new ChatRoom();
+        chatRoom.setId(String.format("%d_%d", sender.getId(), recipient.getId()));
+        chatRoom = chatRoomRepository.save(chatRoom);
+
+        chatMessagePartitions.createPartition(coldMonth);
+        coldMessage = chatMessageRepository.save(new ChatMessage(coldMonth.atDay(10).atTime(12, 0), "Long ago", chatRoom, sender, recipient));
+        liveMessage = chatMessageRepository.save(new ChatMessage(LocalDateTime.now(), "Just now", chatRoom, recipient, sender));
+        chatRoom.setLatestMessage(coldMessage);
+        chatRoomRepository.save(chatRoom);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        jdbcTemplate.update("UPDATE chat_rooms SET latest_message_id = NULL");
+        chatMessageRepository.deleteAll();
+        jdbcTemplate.update("DELETE FROM chat_message_archive_rooms");
+        chatRoomRepository.deleteAll();
+        userRepository.findAll().forEach(userDirectory::invalidate);
+        userRepository.deleteAll();
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + ChatMessagePartitions.partitionName(coldMonth));
+        Files.deleteIfExists(chatMessageArchive.file(coldMonth));
+    }
+
+    @Test
+    @DisplayName("Given a partition past the archive age, when partitions are maintained, then it should be archived and still be readable")
+    void maintain_ColdPartition_ArchivesAndKeepsHistoryReadable() {
+        // When
+        chatMessagePartitions.maintain();
+
+        // Then
+        assertFalse(chatMessagePartitions.partitionMonths().contains(coldMonth));
+        assertTrue(chatMessagePartitions.partitionMonths().contains(YearMonth.now().plusMonths(3)));
+        assertTrue(Files.exists(chatMessageArchive.file(coldMonth)));
+        assertEquals(List.of(liveMessage.getId()), chatMessageRepository.findAll().stream().map(ChatMessage::getId).toList());
+
+        ChatMessagePageDTO latest = chatMessageService.findChatMessages(sender.getId(), recipient.getId(), null, null, 50);
+        assertEquals(List.of("Long ago", "Just now"), latest.messages().stream().map(ChatMessageResponseDTO::content).toList());
+        assertFalse(latest.hasMore());
+
+        MessageCursor afterCold = MessageCursor.from(latest.beforeCursor());
+        ChatMessagePageDTO newer = chatMessageService.findChatMessages(sender.getId(), recipient.getId(), null, afterCold, 50);
+        assertEquals(List.of("Just now"), newer.messages().stream().map(ChatMessageResponseDTO::content).toList());
+    }
+
+    @Test
+    @DisplayName("Given two conversations archived in the same month, when one conversation's history is read, then only its own part of the file should come back")
+    void maintain_TwoConversationsInMonth_ReadsEachFromItsOffset() {
+        // Given
+        User other = new User();
+        other.setName("Other User");
+        other.setEmail("other@example.com");
+        other.setPassword("password");
+        other = userRepository.save(other);
+        ChatRoom otherRoom = new ChatRoom();
+        otherRoom.setId(String.format("%d_%d", sender.getId(), other.getId()));
+        otherRoom = chatRoomRepository.save(otherRoom);
+        chatMessageRepository.save(new ChatMessage(coldMonth.atDay(11).atTime(12, 0), "Elsewhere long ago", otherRoom, sender, other));
+        chatMessageRepository.save(new ChatMessage(coldMonth.atDay(12).atTime(12, 0), "Elsewhere later", otherRoom, other, sender));
+
+        // When
+        chatMessagePartitions.maintain();
+
+        // Then
+        List<Map<String, Object>> rooms = jdbcTemplate.queryForList(
+                "SELECT message_count, file_offset, byte_length FROM chat_message_archive_rooms ORDER BY file_offset");
+        assertEquals(2, rooms.size());
+        assertEquals(0L, rooms.get(0).get("file_offset"));
+        assertEquals((Long) rooms.get(0).get("byte_length"), rooms.get(1).get("file_offset"));
+
+        ChatMessagePageDTO own = chatMessageService.findChatMessages(sender.getId(), recipient.getId(), null, null, 50);
+        assertEquals(List.of("Long ago", "Just now"), own.messages().stream().map(ChatMessageResponseDTO::content).toList());
+        ChatMessagePageDTO others = chatMessageService.findChatMessages(sender.getId(), other.getId(), null, null, 50);
+        assertEquals(List.of("Elsewhere long ago", "Elsewhere later"), others.messages().stream().map(ChatMessageResponseDTO::content).toList());
+    }
+
+    @Test
+    @DisplayName("Given a chat room whose latest message was archived, when the partition is dropped, then the room should no longer point to it")
+    void maintain_ArchivedLatestMessage_ClearsChatRoomReference() {
+        // When
+        chatMessagePartitions.maintain();
+
+        // Then
+        String chatRoomId = String.format("%d_%d", sender.getId(), recipient.getId());
+        assertNull(jdbcTemplate.queryForObject("SELECT latest_message_id FROM chat_rooms WHERE id = ?", Integer.class, chatRoomId));
+    }
+}
@@ -11,16 +11,19 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 
 import java.time.LocalDateTime;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -35,6 +38,15 @@ class ChatMessageServiceTest {
     @Mock
     private UserService userService;
 
+    @Mock
+    private ChatMessageSearchRepository chatMessageSearchRepository;
+
+    @Mock
+    private ChatMessageArchive chatMessageArchive;
+
+    @Mock
+    private ChatMessagePartitions chatMessagePartitions;
+
     @InjectMocks
     private ChatMessageService chatMessageService;
 
@@ -76,7 +88,7 @@ class ChatMessageServiceTest {
     void save_WithNonExistingUser_ThrowsException() {
         // Given
 
-        when(userService.findById(999)).thenThrow(new UsernameNotFoundException("User not found"));
+        when(userService.getReference(999)).thenThrow(new UsernameNotFoundException("User not found"));
         ChatMessageDTO invalidMessageDTO = new ChatMessageDTO("Test message", 999, 2, roomId);
 
         // When & Then
@@ -90,8 +102,8 @@ class ChatMessageServiceTest {
     @DisplayName("Given non-existing chat room, when save is called, then NoSuchElementException should be thrown")
     void save_WithNonExistingChatRoom_ThrowsException() {
         // Given
-        when(userService.findById(1)).thenReturn(sender);
-        when(userService.findById(2)).thenReturn(recipient);
+        when(userService.getReference(1)).thenReturn(sender);
+        when(userService.getReference(2)).thenReturn(recipient);
         when(chatRoomService.getChatRoom(sender, recipient, true)).thenReturn(Optional.empty());
 
         // When & Then
@@ -102,40 +114,201 @@ class ChatMessageServiceTest {
     }
 
     @Test
-    @DisplayName("Given sender and recipient IDs, when findChatMessages is called, then chat messages should be returned")
+    @DisplayName("Given several messages in one conversation, when saveAll is called, then users and chat room should be resolved once and the messages saved together")
+    void saveAll_WithSameConversation_ResolvesOnceAndSavesTogether() {
+        // Given
+        when(userService.getReference(1)).thenReturn(sender);
+        when(userService.getReference(2)).thenReturn(recipient);
+        when(chatRoomService.getChatRoom(sender, recipient, true)).thenReturn(Optional.of(chatRoom));
+        when(chatMessageRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<ChatMessage> messages = invocation.getArgument(0);
+            for (int i = 0; i < messages.size(); i++) {
+                messages.get(i).setId(i + 1);
+            }
+            return messages;
+        });
+        List<ChatMessageDTO> messageDTOs = List.of(
+                new ChatMessageDTO("First", 1, 2, roomId),
+                new ChatMessageDTO("Second", 2, 1, roomId),
+                new ChatMessageDTO("Third", 1, 2, roomId)
+        );
+
+        // When
+        List<ChatMessage> result = chatMessageService.saveAll(messageDTOs);
+
+        // Then
+        assertEquals(3, result.size());
+        assertEquals("Third", chatRoom.getLatestMessage().getContent());
+        verify(userService, times(1)).getReference(1);
+        verify(userService, times(1)).getReference(2);
+        verify(chatRoomService, times(1)).getChatRoom(sender, recipient, true);
+        verify(chatMessageRepository, times(1)).saveAll(anyList());
+        verify(chatMessageRepository, never()).save(any(ChatMessage.class));
+        verify(chatRoomService, times(1)).updateInboxes(argThat((Collection<ChatMessageResponseDTO> messages) -> messages.size() == 3));
+    }
+
+    @Test
+    @DisplayName("Given sender and recipient IDs, when findChatMessages is called, then the newest page should be returned in chronological order")
     void findChatMessages_WithValidIds_ReturnsChatMessages() {
         // Given
-        List<ChatMessage> messages = Arrays.asList(
-                new ChatMessage(LocalDateTime.now(), "Message 1", chatRoom, sender, recipient),
-                new ChatMessage(LocalDateTime.now(), "Message 2", chatRoom, recipient, sender)
+        LocalDateTime now = LocalDateTime.now();
+        List<ChatMessageResponseDTO> messages = Arrays.asList(
+                new ChatMessageResponseDTO(2, "Message 2", 2, 1, "1_2", now),
+                new ChatMessageResponseDTO(1, "Message 1", 1, 2, "1_2", now.minusMinutes(1))
         );
-        messages.get(0).setId(1);
-        messages.get(1).setId(2);
+        when(chatMessageRepository.findLatestByChatRoomId("1_2", Limit.of(51))).thenReturn(messages);
 
-        when(userService.findById(1)).thenReturn(sender);
-        when(userService.findById(2)).thenReturn(recipient);
-        when(chatMessageRepository.findBySenderAndRecipient(sender, recipient)).thenReturn(messages);
+        // When
+        ChatMessagePageDTO result = chatMessageService.findChatMessages(1, 2, null, null, 50);
+
+        // Then
+        assertEquals(2, result.messages().size());
+        assertEquals("Message 1", result.messages().get(0).content());
+        assertEquals("Message 2", result.messages().get(1).content());
+        assertFalse(result.hasMore());
+        assertEquals(1, MessageCursor.from(result.beforeCursor()).id());
+        assertEquals(2, MessageCursor.from(result.afterCursor()).id());
+    }
+
+    @Test
+    @DisplayName("Given recipient ID lower than sender ID, when findChatMessages is called, then the same chat room should be queried without user lookups")
+    void findChatMessages_WithReversedIds_QueriesSameChatRoom() {
+        // Given
+        when(chatMessageRepository.findLatestByChatRoomId("1_2", Limit.of(51))).thenReturn(List.of());
+
+        // When
+        ChatMessagePageDTO result = chatMessageService.findChatMessages(2, 1, null, null, 50);
+
+        // Then
+        assertTrue(result.messages().isEmpty());
+        assertNull(result.beforeCursor());
+        verify(chatMessageRepository).findLatestByChatRoomId("1_2", Limit.of(51));
+        verifyNoInteractions(userService, chatRoomService);
+    }
+
+    @Test
+    @DisplayName("Given a before cursor, when findChatMessages is called, then one extra row should be fetched to detect more pages")
+    void findChatMessages_WithBeforeCursor_ReturnsOlderPage() {
+        // Given
+        LocalDateTime now = LocalDateTime.now();
+        MessageCursor before = new MessageCursor(now, 10);
+        List<ChatMessageResponseDTO> messages = Arrays.asList(
+                new ChatMessageResponseDTO(9, "Message 9", 1, 2, "1_2", now.minusMinutes(1)),
+                new ChatMessageResponseDTO(8, "Message 8", 1, 2, "1_2", now.minusMinutes(2))
+        );
+        when(chatMessageRepository.findByChatRoomIdBefore("1_2", now, 10, Limit.of(2))).thenReturn(messages);
 
         // When
-        List<ChatMessageResponseDTO> result = chatMessageService.findChatMessages(1, 2);
+        ChatMessagePageDTO result = chatMessageService.findChatMessages(1, 2, before, null, 1);
 
         // Then
-        assertEquals(2, result.size());
-        assertEquals("Message 1", result.get(0).content());
-        assertEquals("Message 2", result.get(1).content());
-        verify(chatMessageRepository).findBySenderAndRecipient(sender, recipient);
+        assertEquals(1, result.messages().size());
+        assertEquals("Message 9", result.messages().getFirst().content());
+        assertTrue(result.hasMore());
     }
 
     @Test
-    @DisplayName("Given non-existing user ID, when findChatMessages is called, then UsernameNotFoundException should be thrown")
-    void findChatMessages_WithNonExistingUser_ThrowsException() {
+    @DisplayName("Given both before and after cursors, when findChatMessages is called, then InvalidCursorException should be thrown")
+    void findChatMessages_WithBothCursors_ThrowsException() {
         // Given
-        when(userService.findById(999)).thenThrow(new UsernameNotFoundException("User not found"));
+        MessageCursor cursor = new MessageCursor(LocalDateTime.now(), 1);
 
         // When & Then
-        assertThrows(UsernameNotFoundException.class, () ->
-                chatMessageService.findChatMessages(999, 2)
+        assertThrows(InvalidCursorException.class, () ->
+                chatMessageService.findChatMessages(1, 2, cursor, cursor, 50)
         );
-        verify(chatMessageRepository, never()).findBySenderAndRecipient(any(), any());
+        verifyNoInteractions(chatMessageRepository);
+    }
+
+    @Test
+    @DisplayName("Given a page reaching past the live partitions, when findChatMessages is called, then it should continue with archived messages")
+    void findChatMessages_PageReachesArchive_ContinuesFromArchive() {
+        // Given
+        LocalDateTime now = LocalDateTime.now();
+        ChatMessageResponseDTO live = new ChatMessageResponseDTO(9, "Message 9", 1, 2, "1_2", now);
+        ChatMessageResponseDTO archived = new ChatMessageResponseDTO(3, "Message 3", 2, 1, "1_2", now.minusYears(2));
+        when(chatMessageRepository.findLatestByChatRoomId("1_2", Limit.of(3))).thenReturn(List.of(live));
+        when(chatMessageArchive.findBefore("1_2", MessageCursor.of(live), 2)).thenReturn(List.of(archived));
+
+        // When
+        ChatMessagePageDTO result = chatMessageService.findChatMessages(1, 2, null, null, 2);
+
+        // Then
+        assertEquals(List.of(archived, live), result.messages());
+        assertFalse(result.hasMore());
+    }
+
+    @Test
+    @DisplayName("Given an after cursor inside the archive, when findChatMessages is called, then archived messages should come before live ones")
+    void findChatMessages_AfterCursorInArchive_ReadsArchiveThenLive() {
+        // Given
+        LocalDateTime now = LocalDateTime.now();
+        MessageCursor after = new MessageCursor(now.minusYears(2), 3);
+        ChatMessageResponseDTO archived = new ChatMessageResponseDTO(4, "Message 4", 1, 2, "1_2", now.minusYears(2));
+        List<ChatMessageResponseDTO> live = List.of(
+                new ChatMessageResponseDTO(9, "Message 9", 1, 2, "1_2", now),
+                new ChatMessageResponseDTO(10, "Message 10", 2, 1, "1_2", now)
+        );
+        when(chatMessagePartitions.liveSince()).thenReturn(now.minusYears(1));
+        when(chatMessageArchive.findAfter("1_2", after, 3)).thenReturn(List.of(archived));
+        when(chatMessageRepository.findByChatRoomIdAfter("1_2", after.timestamp(), 3, Limit.of(2))).thenReturn(live);
+
+        // When
+        ChatMessagePageDTO result = chatMessageService.findChatMessages(1, 2, null, after, 2);
+
+        // Then
+        assertEquals(List.of(archived, live.getFirst()), result.messages());
+        assertTrue(result.hasMore());
+    }
+
+    @Test
+    @DisplayName("Given an after cursor inside the live partitions, when findChatMessages is called, then the archive should not be read")
+    void findChatMessages_AfterCursorLive_SkipsArchive() {
+        // Given
+        LocalDateTime now = LocalDateTime.now();
+        MessageCursor after = new MessageCursor(now.minusDays(1), 8);
+        List<ChatMessageResponseDTO> live = List.of(new ChatMessageResponseDTO(9, "Message 9", 1, 2, "1_2", now));
+        when(chatMessagePartitions.liveSince()).thenReturn(now.minusYears(1));
+        when(chatMessageRepository.findByChatRoomIdAfter("1_2", after.timestamp(), 8, Limit.of(3))).thenReturn(live);
+
+        // When
+        ChatMessagePageDTO result = chatMessageService.findChatMessages(1, 2, null, after, 2);
+
+        // Then
+        assertEquals(live, result.messages());
+        verifyNoInteractions(chatMessageArchive);
+    }
+
+    @Test
+    @DisplayName("Given more hits than the page size, when searchMessages is called, then one page and a cursor to the last hit should be returned")
+    void searchMessages_MoreHitsThanPageSize_ReturnsPageWithCursor() {
+        // Given
+        LocalDateTime now = LocalDateTime.now();
+        List<ChatMessageSearchHitDTO> hits = List.of(
+                new ChatMessageSearchHitDTO(9, "<b>hello</b>", 1, 2, roomId, now, 0.2f),
+                new ChatMessageSearchHitDTO(7, "<b>hello</b> there", 2, 1, roomId, now, 0.1f),
+                new ChatMessageSearchHitDTO(3, "well <b>hello</b>", 1, 2, roomId, now, 0.1f)
+        );
+        when(chatMessageSearchRepository.search(1, "hello", null, 3)).thenReturn(hits);
+
+        // When
+        ChatMessageSearchPageDTO page = chatMessageService.searchMessages(1, "hello", null, 2);
+
+        // Then
+        assertEquals(hits.subList(0, 2), page.hits());
+        assertTrue(page.hasMore());
+        assertEquals(new SearchCursor(0.1f, 7), SearchCursor.from(page.nextCursor()));
+    }
+
+    @Test
+    @DisplayName("Given a blank query, when searchMessages is called, then an empty page should be returned without querying")
+    void searchMessages_BlankQuery_ReturnsEmptyPage() {
+        // When
+        ChatMessageSearchPageDTO page = chatMessageService.searchMessages(1, "  ", null, 20);
+
+        // Then
+        assertTrue(page.hits().isEmpty());
+        assertFalse(page.hasMore());
+        verifyNoInteractions(chatMessageSearchRepository);
     }
 }
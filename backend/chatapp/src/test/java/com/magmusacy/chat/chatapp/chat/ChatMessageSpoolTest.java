@@ -0,0 +1,84 @@
+package com.magmusacy.chat.chatapp.chat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatMessageSpoolTest {
+
+    @TempDir
+    private Path spoolDirectory;
+
+    private ChatMessageSpool spool;
+
+    @BeforeEach
+    void setUp() {
+        spool = new ChatMessageSpool(spoolDirectory, new ObjectMapper().registerModule(new JavaTimeModule()), false);
+    }
+
+    private PendingChatMessage message(int id) {
+        return new PendingChatMessage(id, LocalDateTime.of(2025, 1, 1, 12, 0).plusSeconds(id), "Hello " + id, 1, 2, "1_2", "sender@test.com");
+    }
+
+    @Test
+    @DisplayName("rotate should return the written segment and the spooled messages should be read back in order")
+    void rotate_ReturnsSegmentWithAppendedMessages() {
+        spool.append(message(1));
+        spool.append(message(2));
+
+        Path segment = spool.rotate();
+
+        assertNotNull(segment);
+        assertEquals(List.of(message(1), message(2)), spool.read(List.of(segment)));
+    }
+
+    @Test
+    @DisplayName("rotate should return null when nothing was appended")
+    void rotate_NothingAppended_ReturnsNull() {
+        assertNull(spool.rotate());
+    }
+
+    @Test
+    @DisplayName("existingSegments should skip the segment that is still being written")
+    void existingSegments_SkipsOpenSegment() {
+        spool.append(message(1));
+        Path closedSegment = spool.rotate();
+        spool.append(message(2));
+
+        assertEquals(List.of(closedSegment), spool.existingSegments());
+    }
+
+    @Test
+    @DisplayName("delete should remove the committed segments")
+    void delete_RemovesSegments() {
+        spool.append(message(1));
+        Path segment = spool.rotate();
+
+        spool.delete(List.of(segment));
+
+        assertFalse(Files.exists(segment));
+        assertTrue(spool.existingSegments().isEmpty());
+    }
+
+    @Test
+    @DisplayName("read should skip a torn line left by a crash mid-append")
+    void read_TornLastLine_SkipsIt() throws IOException {
+        spool.append(message(1));
+        Path segment = spool.rotate();
+        Files.writeString(segment, "{\"id\":2,\"timest", StandardOpenOption.APPEND);
+
+        assertEquals(List.of(message(1)), spool.read(List.of(segment)));
+    }
+}
@@ -0,0 +1,203 @@
+package com.magmusacy.chat.chatapp.chat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.magmusacy.chat.chatapp.chatroom.ChatRoomService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ChatMessageWriteBehindQueueTest {
+
+    @TempDir
+    private Path spoolDirectory;
+
+    @Mock
+    private ChatMessageIdAllocator idAllocator;
+
+    @Mock
+    private ChatRoomService chatRoomService;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private SimpMessagingTemplate messagingTemplate;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private ChatMessageWriteBehindQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        when(idAllocator.nextId()).thenReturn(1, 2, 3);
+        lenient().when(jdbcTemplate.queryForList(startsWith("SELECT id FROM users"), eq(Integer.class), any()))
+                .thenReturn(List.of(1, 2));
+        queue = new ChatMessageWriteBehindQueue(idAllocator, chatRoomService, jdbcTemplate,
+                new TransactionTemplate(transactionManager), messagingTemplate, objectMapper,
+                spoolDirectory, false, 3, 50, 3);
+        queue.start();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        queue.stop();
+    }
+
+    @Test
+    @DisplayName("Given a batch with a message the database refuses, when it is flushed, then the others should be committed and that one dead-lettered")
+    void flush_MessageRefused_CommitsOthersAndDeadLettersIt() throws IOException {
+        // Given
+        // the chat room and latest message batches go through unstubbed
+        lenient().when(jdbcTemplate.batchUpdate(startsWith("INSERT INTO chat_messages"), anyCollection(), anyInt(), any()))
+                .thenAnswer(invocation -> {
+                    Collection<?> messages = invocation.getArgument(1);
+                    if (messages.stream().anyMatch(message -> ((PendingChatMessage) message).id() == 2)) {
+                        throw new DataIntegrityViolationException("violates foreign key constraint");
+                    }
+                    return new int[0][];
+                });
+
+        // When
+        submitThree();
+
+        // Then
+        verify(messagingTemplate, timeout(5000)).convertAndSendToUser(eq("sender@test.com"), eq("/queue/chat.message-persisted"), eq(new ChatMessagePersistedDTO(1, "1_2")));
+        verify(messagingTemplate, timeout(5000)).convertAndSendToUser(eq("sender@test.com"), eq("/queue/chat.message-persisted"), eq(new ChatMessagePersistedDTO(3, "1_2")));
+        verify(messagingTemplate, never()).convertAndSendToUser(any(), any(), eq(new ChatMessagePersistedDTO(2, "1_2")));
+        List<String> deadLetters = Files.readAllLines(spoolDirectory.resolve(ChatMessageSpool.DEAD_LETTER_FILE));
+        assertEquals(1, deadLetters.size());
+        assertEquals(2, objectMapper.readValue(deadLetters.getFirst(), PendingChatMessage.class).id());
+    }
+
+    @Test
+    @DisplayName("Given a recipient deleted on another node after the submit, when the batch is flushed, then its messages should be dropped without an acknowledgement")
+    void flush_RecipientDeleted_DropsMessages() {
+        // Given
+        when(jdbcTemplate.queryForList(startsWith("SELECT id FROM users"), eq(Integer.class), any()))
+                .thenReturn(List.of(1));
+
+        // When
+        submitThree();
+
+        // Then
+        verify(jdbcTemplate, timeout(5000)).queryForList(startsWith("SELECT id FROM users"), eq(Integer.class), any());
+        verify(jdbcTemplate, after(500).never()).batchUpdate(startsWith("INSERT INTO chat_messages"), anyCollection(), anyInt(), any());
+        verify(messagingTemplate, never()).convertAndSendToUser(any(), eq("/queue/chat.message-persisted"), any());
+        assertFalse(Files.exists(spoolDirectory.resolve(ChatMessageSpool.DEAD_LETTER_FILE)));
+    }
+
+    @Test
+    @DisplayName("Given a database that can't be reached for the first flush, when it comes back, then the whole batch should be retried and committed")
+    void flush_DatabaseUnreachable_RetriesBatch() {
+        // Given
+        AtomicBoolean unreachable = new AtomicBoolean(true);
+        // the chat room and latest message batches go through unstubbed
+        lenient().when(jdbcTemplate.batchUpdate(startsWith("INSERT INTO chat_messages"), anyCollection(), anyInt(), any()))
+                .thenAnswer(invocation -> {
+                    if (unreachable.getAndSet(false)) {
+                        throw new CannotGetJdbcConnectionException("Connection refused");
+                    }
+                    return new int[0][];
+                });
+
+        // When
+        submitThree();
+
+        // Then
+        for (int id = 1; id <= 3; id++) {
+            verify(messagingTemplate, timeout(5000)).convertAndSendToUser(eq("sender@test.com"), eq("/queue/chat.message-persisted"), eq(new ChatMessagePersistedDTO(id, "1_2")));
+        }
+        assertFalse(Files.exists(spoolDirectory.resolve(ChatMessageSpool.DEAD_LETTER_FILE)));
+    }
+
+    @Test
+    @DisplayName("Given as many uncommitted messages as the capacity, when another is submitted, then it should be refused until the batch commits")
+    void submit_AtCapacity_RefusesUntilCommitted() {
+        // Given
+        AtomicBoolean unreachable = new AtomicBoolean(true);
+        lenient().when(jdbcTemplate.batchUpdate(startsWith("INSERT INTO chat_messages"), anyCollection(), anyInt(), any()))
+                .thenAnswer(invocation -> {
+                    if (unreachable.get()) {
+                        throw new CannotGetJdbcConnectionException("Connection refused");
+                    }
+                    return new int[0][];
+                });
+        submitThree();
+
+        // When & Then
+        ChatMessageDTO messageDTO = new ChatMessageDTO("One too many", 1, 2, "1_2");
+        assertThrows(ChatMessageQueueFullException.class, () -> queue.submit(messageDTO, "sender@test.com"));
+        unreachable.set(false);
+        verify(messagingTemplate, timeout(5000)).convertAndSendToUser(eq("sender@test.com"), eq("/queue/chat.message-persisted"), eq(new ChatMessagePersistedDTO(3, "1_2")));
+        assertDoesNotThrow(() -> queue.submit(messageDTO, "sender@test.com"));
+    }
+
+    @Test
+    @DisplayName("Given a spool that is forced to disk, when many senders submit at once, then every submit should return and every message be committed")
+    void submit_WithSpoolFsyncFromManyThreads_ReturnsAndCommitsAll() throws Exception {
+        // Given
+        ChatMessageWriteBehindQueue fsyncQueue = new ChatMessageWriteBehindQueue(idAllocator, chatRoomService, jdbcTemplate,
+                new TransactionTemplate(transactionManager), messagingTemplate, objectMapper,
+                spoolDirectory.resolve("fsync"), true, 200, 50, 1000);
+        fsyncQueue.start();
+
+        // When
+        try (ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<ChatMessageResponseDTO>> submits = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                ChatMessageDTO messageDTO = new ChatMessageDTO("Message " + i, 1, 2, "1_2");
+                submits.add(senders.submit(() -> fsyncQueue.submit(messageDTO, "sender@test.com")));
+            }
+
+            // Then
+            for (Future<ChatMessageResponseDTO> submit : submits) {
+                assertNotNull(submit.get(5, TimeUnit.SECONDS));
+            }
+            verify(messagingTemplate, timeout(5000).times(50))
+                    .convertAndSendToUser(eq("sender@test.com"), eq("/queue/chat.message-persisted"), any(ChatMessagePersistedDTO.class));
+        } finally {
+            fsyncQueue.stop();
+        }
+    }
+
+    private void submitThree() {
+        for (int i = 0; i < 3; i++) {
+            queue.submit(new ChatMessageDTO("Message " + i, 1, 2, "1_2"), "sender@test.com");
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.magmusacy.chat.chatapp.chatroom;
+
+import com.magmusacy.chat.chatapp.AbstractIntegrationTest;
+import com.magmusacy.chat.chatapp.blobs.BlobService;
+import com.magmusacy.chat.chatapp.chat.ChatMessageDTO;
+import com.magmusacy.chat.chatapp.chat.ChatMessageRepository;
+import com.magmusacy.chat.chatapp.chat.ChatMessageResponseDTO;
+import com.magmusacy.chat.chatapp.chat.ChatMessageService;
+import com.magmusacy.chat.chatapp.user.User;
+import com.magmusacy.chat.chatapp.user.UserRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestPropertySource(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class ChatRoomServiceIntegrationTest extends AbstractIntegrationTest {
+
+    @MockitoBean
+    private BlobService blobService;
+
+    @Autowired
+    private ChatRoomService chatRoomService;
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private ChatMessageService chatMessageService;
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
+    @Autowired
+    private InboxEntryRepository inboxEntryRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private User currentUser;
+
+    @BeforeEach
+    void setUp() {
+        currentUser = saveUser("Current User", "current@example.com");
+        for (int i = 0; i < 5; i++) {
+            User otherUser = saveUser("Other User " + i, "other" + i + "@example.com");
+            String chatRoomId = ChatRoomService.generateChatRoomId(currentUser.getId(), otherUser.getId());
+            chatMessageService.save(new ChatMessageDTO("First message " + i, currentUser.getId(), otherUser.getId(), chatRoomId));
+            chatMessageService.save(new ChatMessageDTO("Latest message " + i, otherUser.getId(), currentUser.getId(), chatRoomId));
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        inboxEntryRepository.deleteAll();
+        List<ChatRoom> chatRooms = chatRoomRepository.findAll();
+        chatRooms.forEach(chatRoom -> chatRoom.setLatestMessage(null));
+        chatRoomRepository.saveAll(chatRooms);
+        chatMessageRepository.deleteAll();
+        chatRoomRepository.deleteAll();
+        userRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Given a user with several conversations, when getAllLatestMessages is called, then a single SQL statement should be executed")
+    void getAllLatestMessages_WithManyChatRooms_ExecutesSingleStatement() {
+        // Given
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        // When
+        List<LatestMessageResponseDTO> latestMessages = chatRoomService.getAllLatestMessages(currentUser);
+
+        // Then
+        assertEquals(5, latestMessages.size());
+        assertTrue(latestMessages.stream().allMatch(m -> m.recipientId() == currentUser.getId()));
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    @DisplayName("Given unread messages from both sides, when the recipient reads a room, then only the recipient's entry should become read")
+    void setReadLatestMessageStatus_WithUnreadMessages_UpdatesOnlyReadersEntry() {
+        // Given
+        User otherUser = userRepository.findByEmail("other0@example.com").orElseThrow();
+        String chatRoomId = ChatRoomService.generateChatRoomId(currentUser.getId(), otherUser.getId());
+        chatMessageService.save(new ChatMessageDTO("Another one", otherUser.getId(), currentUser.getId(), chatRoomId));
+        ChatRoom chatRoom = chatRoomService.getChatRoom(currentUser, otherUser, false).orElseThrow();
+        assertEquals(2, inboxEntryRepository.findById(new InboxEntryId(currentUser.getId(), chatRoomId)).orElseThrow().getUnreadCount());
+
+        // When
+        chatRoomService.setReadLatestMessageStatus(chatRoom, currentUser);
+
+        // Then
+        InboxEntry readerEntry = inboxEntryRepository.findById(new InboxEntryId(currentUser.getId(), chatRoomId)).orElseThrow();
+        assertEquals(0, readerEntry.getUnreadCount());
+        assertEquals(readerEntry.getLastMessageId(), readerEntry.getLastReadMessageId());
+        assertTrue(chatRoomService.getAllLatestMessages(currentUser).stream()
+                .filter(m -> m.chatRoomId().equals(chatRoomId))
+                .allMatch(LatestMessageResponseDTO::readStatus));
+        assertTrue(chatRoomService.getAllLatestMessages(otherUser).getFirst().readStatus());
+    }
+
+    @Test
+    @DisplayName("Given an entry with the latest message, when an older message commits after it, then the entry should keep the latest message and still count the older one as unread")
+    void updateInboxes_OlderMessageCommitsLate_KeepsLatestMessage() {
+        // Given
+        User otherUser = userRepository.findByEmail("other0@example.com").orElseThrow();
+        String chatRoomId = ChatRoomService.generateChatRoomId(currentUser.getId(), otherUser.getId());
+        InboxEntry before = inboxEntryRepository.findById(new InboxEntryId(currentUser.getId(), chatRoomId)).orElseThrow();
+
+        // When
+        ChatMessageResponseDTO lateMessage = new ChatMessageResponseDTO(before.getLastMessageId() - 1, "Late message",
+                otherUser.getId(), currentUser.getId(), chatRoomId, before.getLastMessageTimestamp().minusSeconds(1));
+        transactionTemplate.executeWithoutResult(status -> chatRoomService.updateInboxes(List.of(lateMessage)));
+
+        // Then
+        InboxEntry recipientEntry = inboxEntryRepository.findById(new InboxEntryId(currentUser.getId(), chatRoomId)).orElseThrow();
+        assertEquals("Latest message 0", recipientEntry.getLastMessageContent());
+        assertEquals(before.getLastMessageId(), recipientEntry.getLastMessageId());
+        assertEquals(2, recipientEntry.getUnreadCount());
+        InboxEntry senderEntry = inboxEntryRepository.findById(new InboxEntryId(otherUser.getId(), chatRoomId)).orElseThrow();
+        assertEquals("Latest message 0", senderEntry.getLastMessageContent());
+        assertEquals(0, senderEntry.getUnreadCount());
+    }
+
+    @Test
+    @DisplayName("Given a batch where a user answers between two received messages, when the inboxes are updated, then only the message after the answer should be unread")
+    void updateInboxes_AnswerWithinBatch_CountsOnlyLaterMessagesUnread() {
+        // Given
+        User otherUser = userRepository.findByEmail("other0@example.com").orElseThrow();
+        String chatRoomId = ChatRoomService.generateChatRoomId(currentUser.getId(), otherUser.getId());
+        InboxEntry before = inboxEntryRepository.findById(new InboxEntryId(currentUser.getId(), chatRoomId)).orElseThrow();
+        assertEquals(1, before.getUnreadCount());
+        int id = before.getLastMessageId();
+        LocalDateTime timestamp = before.getLastMessageTimestamp();
+        List<ChatMessageResponseDTO> batch = List.of(
+                new ChatMessageResponseDTO(id + 1, "Question", otherUser.getId(), currentUser.getId(), chatRoomId, timestamp.plusSeconds(1)),
+                new ChatMessageResponseDTO(id + 2, "Answer", currentUser.getId(), otherUser.getId(), chatRoomId, timestamp.plusSeconds(2)),
+                new ChatMessageResponseDTO(id + 3, "Follow-up", otherUser.getId(), currentUser.getId(), chatRoomId, timestamp.plusSeconds(3))
+        );
+
+        // When
+        transactionTemplate.executeWithoutResult(status -> chatRoomService.updateInboxes(batch));
+
+        // Then
+        InboxEntry currentEntry = inboxEntryRepository.findById(new InboxEntryId(currentUser.getId(), chatRoomId)).orElseThrow();
+        assertEquals("Follow-up", currentEntry.getLastMessageContent());
+        assertEquals(1, currentEntry.getUnreadCount());
+        assertEquals(id + 2, currentEntry.getLastReadMessageId());
+        InboxEntry otherEntry = inboxEntryRepository.findById(new InboxEntryId(otherUser.getId(), chatRoomId)).orElseThrow();
+        assertEquals("Follow-up", otherEntry.getLastMessageContent());
+        assertEquals(0, otherEntry.getUnreadCount());
+    }
+
+    private User saveUser(String name, String email) {
+        User user = new User();
+        user.setName(name);
+        user.setEmail(email);
+        user.setPassword("password");
+        return userRepository.save(user);
+    }
+}
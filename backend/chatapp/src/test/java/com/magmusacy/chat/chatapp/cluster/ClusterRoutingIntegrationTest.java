@@ -0,0 +1,403 @@
+package com.magmusacy.chat.chatapp.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.magmusacy.chat.chatapp.ChatappApplication;
+import com.magmusacy.chat.chatapp.TestcontainersInitializer;
+import com.magmusacy.chat.chatapp.auth.JwtService;
+import com.magmusacy.chat.chatapp.chat.ChatMessageDTO;
+import com.magmusacy.chat.chatapp.chatroom.ChatRoomService;
+import com.magmusacy.chat.chatapp.user.User;
+import com.magmusacy.chat.chatapp.user.UserDirectory;
+import com.magmusacy.chat.chatapp.user.UserRepository;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Starts two nodes in cluster mode against the same database, each with its own simple broker, and checks that a
+ * message sent on one node reaches a recipient connected to the other.
+ */
+class ClusterRoutingIntegrationTest {
+    private static ConfigurableApplicationContext nodeA;
+    private static ConfigurableApplicationContext nodeB;
+
+    @BeforeAll
+    static void startNodes() {
+        nodeA = startNode();
+        nodeB = startNode();
+    }
+
+    @AfterAll
+    static void stopNodes() {
+        if (nodeA != null) {
+            // the schema is shared with the other integration tests, leave it empty
+            JdbcTemplate jdbcTemplate = nodeA.getBean(JdbcTemplate.class);
+            jdbcTemplate.update("DELETE FROM inbox_entries");
+            jdbcTemplate.update("UPDATE chat_rooms SET latest_message_id = NULL");
+            jdbcTemplate.update("DELETE FROM chat_messages");
+            jdbcTemplate.update("DELETE FROM chat_rooms");
+            jdbcTemplate.update("DELETE FROM users");
+        }
+        if (nodeB != null) {
+            nodeB.close();
+        }
+        if (nodeA != null) {
+            nodeA.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Given a recipient connected to another node, when a chat message is sent, then it should be forwarded to that node and delivered")
+    void processMessage_RecipientOnOtherNode_DeliversAcrossNodes() throws Exception {
+        // Given
+        UserRepository userRepository = nodeA.getBean(UserRepository.class);
+        User sender = saveUser(userRepository, "Cluster Sender", "cluster-sender@example.com");
+        User recipient = saveUser(userRepository, "Cluster Recipient", "cluster-recipient@example.com");
+        JwtService jwtService = nodeA.getBean(JwtService.class);
+
+        StompSession recipientSession = connect(nodeB, jwtService.generateAccessToken(recipient));
+        StompSession senderSession = connect(nodeA, jwtService.generateAccessToken(sender));
+
+        BlockingQueue<Map<?, ?>> received = new LinkedBlockingQueue<>();
+        String destination = "/user/queue/messages-from-" + recipient.getId();
+        recipientSession.subscribe(destination, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Map.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                received.add((Map<?, ?>) payload);
+            }
+        });
+        // the simple broker sends no receipts, wait until node B has registered the subscription instead
+        awaitSubscription(nodeB, destination);
+
+        // When
+        senderSession.send("/app/chat.send-message", new ChatMessageDTO(
+                "hello from node A",
+                sender.getId(),
+                recipient.getId(),
+                ChatRoomService.generateChatRoomId(sender.getId(), recipient.getId())
+        ));
+
+        // Then
+        Map<?, ?> message = received.poll(10, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertEquals("hello from node A", message.get("content"));
+
+        senderSession.disconnect();
+        recipientSession.disconnect();
+    }
+
+    @Test
+    @DisplayName("Given a recipient connected to both nodes, when a chat message is sent, then the sessions on both nodes should receive it")
+    void processMessage_RecipientOnBothNodes_DeliversToEverySession() throws Exception {
+        // Given
+        UserRepository userRepository = nodeA.getBean(UserRepository.class);
+        User sender = saveUser(userRepository, "Dual Sender", "cluster-sender-2@example.com");
+        User recipient = saveUser(userRepository, "Dual Recipient", "cluster-recipient-2@example.com");
+        JwtService jwtService = nodeA.getBean(JwtService.class);
+
+        String destination = "/user/queue/messages-from-" + recipient.getId();
+        StompSession recipientOnA = connect(nodeA, jwtService.generateAccessToken(recipient));
+        StompSession recipientOnB = connect(nodeB, jwtService.generateAccessToken(recipient));
+        BlockingQueue<Map<?, ?>> receivedOnA = subscribe(recipientOnA, destination);
+        BlockingQueue<Map<?, ?>> receivedOnB = subscribe(recipientOnB, destination);
+        awaitSubscription(nodeA, destination);
+        awaitSubscription(nodeB, destination);
+        StompSession senderSession = connect(nodeA, jwtService.generateAccessToken(sender));
+
+        // When
+        senderSession.send("/app/chat.send-message", new ChatMessageDTO(
+                "hello to both nodes",
+                sender.getId(),
+                recipient.getId(),
+                ChatRoomService.generateChatRoomId(sender.getId(), recipient.getId())
+        ));
+
+        // Then
+        Map<?, ?> onA = receivedOnA.poll(10, TimeUnit.SECONDS);
+        Map<?, ?> onB = receivedOnB.poll(10, TimeUnit.SECONDS);
+        assertNotNull(onA);
+        assertNotNull(onB);
+        assertEquals("hello to both nodes", onA.get("content"));
+        assertEquals("hello to both nodes", onB.get("content"));
+
+        senderSession.disconnect();
+        recipientOnA.disconnect();
+        recipientOnB.disconnect();
+    }
+
+    @Test
+    @DisplayName("Given a node whose rows were reaped by the others, when it heartbeats, then it should register itself and its sessions again and receive forwarded messages")
+    void heartbeat_NodeReaped_RejoinsWithItsSessions() throws Exception {
+        // Given
+        UserRepository userRepository = nodeA.getBean(UserRepository.class);
+        User sender = saveUser(userRepository, "Reaped Sender", "cluster-sender-3@example.com");
+        User recipient = saveUser(userRepository, "Reaped Recipient", "cluster-recipient-3@example.com");
+        JwtService jwtService = nodeA.getBean(JwtService.class);
+
+        String destination = "/user/queue/messages-from-" + recipient.getId();
+        StompSession recipientSession = connect(nodeB, jwtService.generateAccessToken(recipient));
+        BlockingQueue<Map<?, ?>> received = subscribe(recipientSession, destination);
+        awaitSubscription(nodeB, destination);
+        StompSession senderSession = connect(nodeA, jwtService.generateAccessToken(sender));
+
+        ClusterMembership membershipB = nodeB.getBean(ClusterMembership.class);
+        JdbcTemplate jdbcTemplate = nodeA.getBean(JdbcTemplate.class);
+        jdbcTemplate.update("DELETE FROM cluster_user_sessions WHERE node_id = ?", membershipB.getNodeId());
+        jdbcTemplate.update("DELETE FROM cluster_nodes WHERE node_id = ?", membershipB.getNodeId());
+
+        // When
+        membershipB.heartbeat();
+
+        // Then
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM cluster_nodes WHERE node_id = ?", Integer.class, membershipB.getNodeId()));
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM cluster_user_sessions WHERE node_id = ? AND email = ?", Integer.class,
+                membershipB.getNodeId(), recipient.getEmail()));
+
+        senderSession.send("/app/chat.send-message", new ChatMessageDTO(
+                "hello after the rejoin",
+                sender.getId(),
+                recipient.getId(),
+                ChatRoomService.generateChatRoomId(sender.getId(), recipient.getId())
+        ));
+        Map<?, ?> message = received.poll(10, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertEquals("hello after the rejoin", message.get("content"));
+
+        senderSession.disconnect();
+        recipientSession.disconnect();
+    }
+
+    @Test
+    @DisplayName("Given a recipient connected to another node, when many messages are sent to them at once, then that node's broker should get them in the order they were sent")
+    void convertAndSendToUser_BurstToOtherNode_KeepsOrder() throws Exception {
+        // Given
+        UserRepository userRepository = nodeA.getBean(UserRepository.class);
+        User recipient = saveUser(userRepository, "Burst Recipient", "cluster-recipient-4@example.com");
+        JwtService jwtService = nodeA.getBean(JwtService.class);
+
+        String destination = "/user/queue/messages-from-" + recipient.getId();
+        StompSession recipientSession = connect(nodeB, jwtService.generateAccessToken(recipient));
+        BlockingQueue<Map<?, ?>> received = subscribe(recipientSession, destination);
+        awaitSubscription(nodeB, destination);
+        // the outbound channel of the receiving node hands a session's frames to its pool in any order, look at
+        // what the forwarding put on its broker channel instead
+        BlockingQueue<Object> brokered = new LinkedBlockingQueue<>();
+        ObjectMapper objectMapper = new ObjectMapper();
+        AbstractSubscribableChannel brokerChannelB = nodeB.getBean("brokerChannel", AbstractSubscribableChannel.class);
+        ChannelInterceptor recorder = new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                String brokerDestination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+                if (brokerDestination != null && brokerDestination.startsWith("/queue/messages-from-" + recipient.getId())
+                        && message.getPayload() instanceof byte[] payload) {
+                    try {
+                        brokered.add(objectMapper.readValue(payload, Map.class).get("content"));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return message;
+            }
+        };
+        brokerChannelB.addInterceptor(recorder);
+        SimpMessagingTemplate messagingTemplate = nodeA.getBean(SimpMessagingTemplate.class);
+
+        // When
+        for (int i = 0; i < 200; i++) {
+            messagingTemplate.convertAndSendToUser(recipient.getEmail(), "/queue/messages-from-" + recipient.getId(), Map.of("content", i));
+        }
+
+        // Then
+        try {
+            for (int i = 0; i < 200; i++) {
+                assertEquals(i, brokered.poll(10, TimeUnit.SECONDS));
+            }
+            for (int i = 0; i < 200; i++) {
+                assertNotNull(received.poll(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            brokerChannelB.removeInterceptor(recorder);
+            recipientSession.disconnect();
+        }
+    }
+
+    @Test
+    @DisplayName("Given a node that cached a user as connected nowhere else, when the user connects to another node, then messages should reach them there before the cached route expires")
+    void handleSessionConnected_CachedRouteOnOtherNode_InvalidatesIt() throws Exception {
+        // Given
+        UserRepository userRepository = nodeA.getBean(UserRepository.class);
+        User recipient = saveUser(userRepository, "Late Recipient", "cluster-recipient-5@example.com");
+        JwtService jwtService = nodeA.getBean(JwtService.class);
+        SimpMessagingTemplate messagingTemplate = nodeA.getBean(SimpMessagingTemplate.class);
+        String destination = "/queue/messages-from-" + recipient.getId();
+        assertEquals(Map.of(recipient.getEmail(), List.of()),
+                nodeA.getBean(ClusterSessionRegistry.class).findRemoteNodeUrls(List.of(recipient.getEmail())));
+
+        // When
+        StompSession recipientSession = connect(nodeB, jwtService.generateAccessToken(recipient));
+        BlockingQueue<Map<?, ?>> received = subscribe(recipientSession, "/user" + destination);
+        awaitSubscription(nodeB, "/user" + destination);
+
+        // Then
+        // well within the 10s the route is cached for, the invalidation from node B travels asynchronously
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        Map<?, ?> message = null;
+        while (message == null && System.nanoTime() < deadline) {
+            messagingTemplate.convertAndSendToUser(recipient.getEmail(), destination, Map.of("content", "are you there"));
+            message = received.poll(200, TimeUnit.MILLISECONDS);
+        }
+        assertNotNull(message);
+        assertEquals("are you there", message.get("content"));
+
+        recipientSession.disconnect();
+    }
+
+    @Test
+    @DisplayName("Given a user cached in the directory of another node, when the user is invalidated on this node, then the other node should reload it")
+    void invalidate_UserCachedOnOtherNode_EvictsItThere() throws Exception {
+        // Given
+        UserRepository userRepository = nodeA.getBean(UserRepository.class);
+        User user = saveUser(userRepository, "Cached User", "cluster-cached@example.com");
+        UserDirectory directoryOnB = nodeB.getBean(UserDirectory.class);
+        assertEquals("Cached User", directoryOnB.findById(user.getId()).name());
+        nodeA.getBean(JdbcTemplate.class).update("UPDATE users SET name = 'Renamed User' WHERE id = ?", user.getId());
+
+        // When
+        nodeA.getBean(UserDirectory.class).invalidate(user);
+
+        // Then
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!directoryOnB.findById(user.getId()).name().equals("Renamed User")) {
+            assertTrue(System.nanoTime() < deadline, "node B still serves the cached user");
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    @DisplayName("Given a client on another node subscribed to a topic, when a message is broadcast to that topic, then it should be delivered on that node too")
+    void convertAndSend_TopicSubscribedOnOtherNode_DeliversAcrossNodes() throws Exception {
+        // Given
+        UserRepository userRepository = nodeA.getBean(UserRepository.class);
+        User listener = saveUser(userRepository, "Topic Listener", "cluster-listener@example.com");
+        JwtService jwtService = nodeA.getBean(JwtService.class);
+
+        StompSession listenerSession = connect(nodeB, jwtService.generateAccessToken(listener));
+        BlockingQueue<Map<?, ?>> received = subscribe(listenerSession, "/topic/deleted.user");
+        awaitSubscription(nodeB, "/topic/deleted.user");
+
+        // When
+        nodeA.getBean(SimpMessagingTemplate.class).convertAndSend("/topic/deleted.user", Map.of("userId", 42));
+
+        // Then
+        Map<?, ?> message = received.poll(10, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertEquals(42, message.get("userId"));
+
+        listenerSession.disconnect();
+    }
+
+    private static BlockingQueue<Map<?, ?>> subscribe(StompSession session, String destination) {
+        BlockingQueue<Map<?, ?>> received = new LinkedBlockingQueue<>();
+        session.subscribe(destination, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Map.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                received.add((Map<?, ?>) payload);
+            }
+        });
+        return received;
+    }
+
+    private static ConfigurableApplicationContext startNode() {
+        return new SpringApplicationBuilder(ChatappApplication.class)
+                .properties(
+                        "server.port=0",
+                        "spring.datasource.url=" + TestcontainersInitializer.postgres.getJdbcUrl(),
+                        "spring.datasource.username=" + TestcontainersInitializer.postgres.getUsername(),
+                        "spring.datasource.password=" + TestcontainersInitializer.postgres.getPassword(),
+                        "spring.jpa.hibernate.ddl-auto=validate",
+                        "azure.storage.connection-string=DefaultEndpointsProtocol=https;AccountName=test;AccountKey=dGVzdA==;EndpointSuffix=core.windows.net",
+                        "azure.storage.blob-container-name=test",
+                        "chat.broker.mode=cluster",
+                        "chat.cluster.secret=test-cluster-secret"
+                )
+                .run();
+    }
+
+    private static StompSession connect(ConfigurableApplicationContext node, String accessToken) throws Exception {
+        WebSocketStompClient stompClient = new WebSocketStompClient(
+                new SockJsClient(List.of(new WebSocketTransport(new StandardWebSocketClient())))
+        );
+        stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("Authorization", "Bearer " + accessToken);
+        int port = ((WebServerApplicationContext) node).getWebServer().getPort();
+        return stompClient.connectAsync(
+                "http://localhost:" + port + "/ws",
+                new WebSocketHttpHeaders(),
+                connectHeaders,
+                new StompSessionHandlerAdapter() {}
+        ).get(10, TimeUnit.SECONDS);
+    }
+
+    private static void awaitSubscription(ConfigurableApplicationContext node, String destination) throws InterruptedException {
+        SimpUserRegistry userRegistry = node.getBean(SimpUserRegistry.class);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (userRegistry.findSubscriptions(subscription -> subscription.getDestination().equals(destination)).isEmpty()) {
+            assertTrue(System.nanoTime() < deadline, "subscription to " + destination + " was not registered");
+            Thread.sleep(50);
+        }
+    }
+
+    private static User saveUser(UserRepository userRepository, String name, String email) {
+        User user = new User();
+        user.setName(name);
+        user.setEmail(email);
+        user.setPassword("password");
+        return userRepository.save(user);
+    }
+}
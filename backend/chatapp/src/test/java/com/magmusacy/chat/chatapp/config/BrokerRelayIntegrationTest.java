@@ -0,0 +1,170 @@
+package com.magmusacy.chat.chatapp.config;
+
+import com.magmusacy.chat.chatapp.AbstractIntegrationTest;
+import com.magmusacy.chat.chatapp.auth.JwtService;
+import com.magmusacy.chat.chatapp.blobs.BlobService;
+import com.magmusacy.chat.chatapp.user.User;
+import com.magmusacy.chat.chatapp.user.UserRepository;
+import org.apache.activemq.artemis.core.config.impl.ConfigurationImpl;
+import org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompBrokerRelayMessageHandler;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BrokerRelayIntegrationTest extends AbstractIntegrationTest {
+    private static final int BROKER_PORT = freePort();
+    private static final EmbeddedActiveMQ broker = startBroker();
+
+    @MockitoBean
+    private BlobService blobService;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JwtService jwtService;
+
+    @Autowired
+    private StompBrokerRelayMessageHandler brokerRelay;
+
+    @LocalServerPort
+    private int port;
+
+    private User user;
+    private StompSession session;
+
+    @DynamicPropertySource
+    static void configureBroker(DynamicPropertyRegistry registry) {
+        registry.add("chat.broker.mode", () -> "relay");
+        registry.add("chat.broker.relay.port", () -> BROKER_PORT);
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // the relay connects its system session in the background, CONNECT frames before that are rejected
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!brokerRelay.isBrokerAvailable()) {
+            assertTrue(System.nanoTime() < deadline, "the broker relay did not connect");
+            Thread.sleep(50);
+        }
+
+        user = new User();
+        user.setName("Relay User");
+        user.setEmail("relay@example.com");
+        user.setPassword("password");
+        user = userRepository.save(user);
+
+        WebSocketStompClient stompClient = new WebSocketStompClient(
+                new SockJsClient(List.of(new WebSocketTransport(new StandardWebSocketClient())))
+        );
+        stompClient.setMessageConverter(new StringMessageConverter());
+        // receipts and the heart-beats negotiated with the broker both need a scheduler
+        ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.initialize();
+        stompClient.setTaskScheduler(taskScheduler);
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("Authorization", "Bearer " + jwtService.generateAccessToken(user));
+        session = stompClient.connectAsync(
+                "http://localhost:" + port + "/ws",
+                new WebSocketHttpHeaders(),
+                connectHeaders,
+                new StompSessionHandlerAdapter() {}
+        ).get(10, TimeUnit.SECONDS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (session != null && session.isConnected()) {
+            session.disconnect();
+        }
+        userRepository.deleteAll();
+    }
+
+    @AfterAll
+    static void stopBroker() throws Exception {
+        broker.stop();
+    }
+
+    @Test
+    @DisplayName("Given relay mode, when a message is sent to a user destination, then it should reach the subscribed client through the external broker")
+    void convertAndSendToUser_InRelayMode_DeliversThroughBroker() throws Exception {
+        // Given
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        CountDownLatch subscribed = new CountDownLatch(1);
+        session.setAutoReceipt(true);
+        session.subscribe("/user/queue/relay-test", new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return String.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                received.add((String) payload);
+            }
+        }).addReceiptTask(subscribed::countDown);
+        assertTrue(subscribed.await(10, TimeUnit.SECONDS));
+
+        // When
+        messagingTemplate.convertAndSendToUser(user.getEmail(), "/queue/relay-test", "hello through the relay");
+
+        // Then
+        assertEquals("hello through the relay", received.poll(10, TimeUnit.SECONDS));
+    }
+
+    private static EmbeddedActiveMQ startBroker() {
+        try {
+            EmbeddedActiveMQ embeddedBroker = new EmbeddedActiveMQ();
+            embeddedBroker.setConfiguration(new ConfigurationImpl()
+                    .setPersistenceEnabled(false)
+                    .setSecurityEnabled(false)
+                    .addAcceptorConfiguration("stomp", "tcp://127.0.0.1:" + BROKER_PORT + "?protocols=STOMP"));
+            embeddedBroker.start();
+            return embeddedBroker;
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not start the embedded STOMP broker", e);
+        }
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
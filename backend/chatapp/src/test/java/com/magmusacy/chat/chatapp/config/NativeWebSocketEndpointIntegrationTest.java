@@ -0,0 +1,180 @@
+package com.magmusacy.chat.chatapp.config;
+
+import com.magmusacy.chat.chatapp.AbstractIntegrationTest;
+import com.magmusacy.chat.chatapp.auth.JwtService;
+import com.magmusacy.chat.chatapp.blobs.BlobService;
+import com.magmusacy.chat.chatapp.chatroom.SignalingMessage;
+import com.magmusacy.chat.chatapp.user.User;
+import com.magmusacy.chat.chatapp.user.UserDirectory;
+import com.magmusacy.chat.chatapp.user.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NativeWebSocketEndpointIntegrationTest extends AbstractIntegrationTest {
+    @MockitoBean
+    private BlobService blobService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserDirectory userDirectory;
+
+    @Autowired
+    private JwtService jwtService;
+
+    @Autowired
+    private SimpUserRegistry userRegistry;
+
+    @LocalServerPort
+    private int port;
+
+    private final BlockingQueue<String> frames = new LinkedBlockingQueue<>();
+
+    @AfterEach
+    void tearDown() {
+        userRepository.findAll().forEach(userDirectory::invalidate);
+        userRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Given a client offering permessage-deflate, when it connects to the native endpoint with a valid JWT, then compression should be negotiated and the STOMP session accepted")
+    void connect_NativeEndpointWithJwt_NegotiatesDeflateAndConnects() throws Exception {
+        // Given
+        User user = saveUser("Native User", "native-user@example.com");
+        WebSocketSession session = openNativeSession();
+
+        // When
+        session.sendMessage(connectFrame("Authorization:Bearer " + jwtService.generateAccessToken(user) + "\n"));
+
+        // Then
+        assertTrue(session.getExtensions().stream().anyMatch(e -> e.getName().equals("permessage-deflate")));
+        String frame = frames.poll(10, TimeUnit.SECONDS);
+        assertNotNull(frame);
+        assertTrue(frame.startsWith("CONNECTED\n"), frame);
+        session.close();
+    }
+
+    @Test
+    @DisplayName("Given no JWT, when a client connects to the native endpoint, then the JwtInterceptor should reject the STOMP session")
+    void connect_NativeEndpointWithoutJwt_Rejected() throws Exception {
+        // Given
+        WebSocketSession session = openNativeSession();
+
+        // When
+        session.sendMessage(connectFrame(""));
+
+        // Then
+        String frame = frames.poll(10, TimeUnit.SECONDS);
+        assertNotNull(frame);
+        assertTrue(frame.startsWith("ERROR\n"), frame);
+    }
+
+    @Test
+    @DisplayName("Given two native sessions that asked for CBOR, when one sends a CBOR signaling message, then the other should receive it as CBOR")
+    void send_CborSessions_SignalingMessageRoundTripsAsCbor() throws Exception {
+        // Given
+        User caller = saveUser("Native Caller", "native-caller@example.com");
+        User callee = saveUser("Native Callee", "native-callee@example.com");
+        StompSession callerSession = connectCbor(caller);
+        StompSession calleeSession = connectCbor(callee);
+        BlockingQueue<SignalingMessage> received = new LinkedBlockingQueue<>();
+        BlockingQueue<String> contentTypes = new LinkedBlockingQueue<>();
+        calleeSession.subscribe("/user/queue/webrtc", new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return SignalingMessage.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                contentTypes.add(String.valueOf(headers.getContentType()));
+                received.add((SignalingMessage) payload);
+            }
+        });
+        awaitSubscription("/user/queue/webrtc");
+
+        // When
+        StompHeaders headers = new StompHeaders();
+        headers.setDestination("/app/signal");
+        headers.setContentType(CborMessageConverter.APPLICATION_CBOR_FRAME);
+        SignalingMessage offer = new SignalingMessage("offer", "v=0 o=- 4611731400430051336 2 IN IP4 127.0.0.1",
+                String.valueOf(callee.getId()), String.valueOf(caller.getId()));
+        callerSession.send(headers, offer);
+
+        // Then
+        assertEquals(offer, received.poll(10, TimeUnit.SECONDS));
+        assertEquals(CborMessageConverter.APPLICATION_CBOR_FRAME.toString(), contentTypes.poll());
+        callerSession.disconnect();
+        calleeSession.disconnect();
+    }
+
+    private StompSession connectCbor(User user) throws Exception {
+        WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+        stompClient.setMessageConverter(new CompositeMessageConverter(
+                List.of(new CborMessageConverter(), WebSocketConfig.createMessageConverter())));
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("Authorization", "Bearer " + jwtService.generateAccessToken(user));
+        connectHeaders.add(PayloadEncodingInterceptor.PAYLOAD_ENCODING_HEADER, "cbor");
+        return stompClient.connectAsync("ws://localhost:" + port + "/ws-native", new WebSocketHttpHeaders(),
+                connectHeaders, new StompSessionHandlerAdapter() {}).get(10, TimeUnit.SECONDS);
+    }
+
+    // the simple broker sends no receipts, wait until the subscription is registered instead
+    private void awaitSubscription(String destination) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (userRegistry.findSubscriptions(subscription -> subscription.getDestination().equals(destination)).isEmpty()) {
+            assertTrue(System.nanoTime() < deadline, "subscription to " + destination + " was not registered");
+            Thread.sleep(50);
+        }
+    }
+
+    private WebSocketSession openNativeSession() throws Exception {
+        WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
+        headers.setSecWebSocketExtensions(List.of(new WebSocketExtension("permessage-deflate")));
+        return new StandardWebSocketClient().execute(new TextWebSocketHandler() {
+            @Override
+            protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+                frames.add(message.getPayload());
+            }
+        }, headers, URI.create("ws://localhost:" + port + "/ws-native")).get(10, TimeUnit.SECONDS);
+    }
+
+    private static TextMessage connectFrame(String headers) {
+        return new TextMessage("CONNECT\naccept-version:1.2\nhost:localhost\nheart-beat:0,0\n" + headers + "\n\0");
+    }
+
+    private User saveUser(String name, String email) {
+        User user = new User();
+        user.setName(name);
+        user.setEmail(email);
+        user.setPassword("password");
+        return userRepository.save(user);
+    }
+}
@@ -0,0 +1,95 @@
+package com.magmusacy.chat.chatapp.config;
+
+import com.magmusacy.chat.chatapp.chat.ChatMessageResponseDTO;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PayloadEncodingInterceptorTest {
+    private final PayloadEncodingInterceptor interceptor = new PayloadEncodingInterceptor();
+    private final ChatMessageResponseDTO chatMessage =
+            new ChatMessageResponseDTO(42, "Hey, are we still on for tonight?", 1, 2, "1_2", LocalDateTime.of(2025, 1, 1, 12, 0));
+
+    @Test
+    @DisplayName("Given a native session that asked for CBOR, when a chat message is pushed to it, then the payload should be transcoded to CBOR")
+    void preSend_NativeSessionAskedForCbor_TranscodesMessages() {
+        // Given
+        Map<String, Object> attributes = nativeSessionAttributes();
+        interceptor.preSend(connect("session-a", attributes, "cbor"), null);
+
+        // When
+        Message<?> sent = interceptor.preSend(jsonMessage("session-a"), null);
+
+        // Then
+        assertEquals(CborMessageConverter.APPLICATION_CBOR_FRAME, sent.getHeaders().get(MessageHeaders.CONTENT_TYPE));
+        assertEquals("/user/queue/messages-from-2", SimpMessageHeaderAccessor.getDestination(sent.getHeaders()));
+        assertEquals(chatMessage, new CborMessageConverter().fromMessage(sent, ChatMessageResponseDTO.class));
+    }
+
+    @Test
+    @DisplayName("Given a SockJS session that asked for CBOR, when a chat message is pushed to it, then the payload should stay JSON")
+    void preSend_SockJsSessionAskedForCbor_KeepsJson() {
+        // Given
+        interceptor.preSend(connect("session-a", new HashMap<>(), "cbor"), null);
+        Message<?> message = jsonMessage("session-a");
+
+        // When
+        Message<?> sent = interceptor.preSend(message, null);
+
+        // Then
+        assertSame(message, sent);
+    }
+
+    @Test
+    @DisplayName("Given a CBOR session that disconnected, when a message with its session id is pushed, then the payload should stay JSON")
+    void preSend_DisconnectedSession_ForgetsEncoding() {
+        // Given
+        interceptor.preSend(connect("session-a", nativeSessionAttributes(), "cbor"), null);
+        SimpMessageHeaderAccessor disconnect = SimpMessageHeaderAccessor.create(SimpMessageType.DISCONNECT);
+        disconnect.setSessionId("session-a");
+        interceptor.preSend(MessageBuilder.createMessage(new byte[0], disconnect.getMessageHeaders()), null);
+        Message<?> message = jsonMessage("session-a");
+
+        // When
+        Message<?> sent = interceptor.preSend(message, null);
+
+        // Then
+        assertSame(message, sent);
+    }
+
+    private Map<String, Object> nativeSessionAttributes() {
+        Map<String, Object> attributes = new HashMap<>();
+        interceptor.beforeHandshake(null, null, null, attributes);
+        return attributes;
+    }
+
+    private static Message<byte[]> connect(String sessionId, Map<String, Object> attributes, String encoding) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.CONNECT);
+        accessor.setSessionId(sessionId);
+        accessor.setSessionAttributes(attributes);
+        accessor.setNativeHeader(PayloadEncodingInterceptor.PAYLOAD_ENCODING_HEADER, encoding);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private Message<?> jsonMessage(String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination("/user/queue/messages-from-2");
+        Message<?> json = WebSocketConfig.createMessageConverter().toMessage(chatMessage, accessor.getMessageHeaders());
+        assertNotNull(json);
+        return json;
+    }
+}
@@ -0,0 +1,145 @@
+package com.magmusacy.chat.chatapp.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionStripedExecutorTest {
+    private SimpleMeterRegistry meterRegistry;
+    private SessionStripedExecutor executor;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        executor = new SessionStripedExecutor(meterRegistry, 4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    @DisplayName("Given many frames of one session, when they are executed, then they should run in arrival order on one thread")
+    void execute_SameSession_RunsInOrderOnOneThread() throws InterruptedException {
+        // Given
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        Set<String> threads = Collections.synchronizedSet(new HashSet<>());
+        CountDownLatch done = new CountDownLatch(100);
+
+        // When
+        for (int i = 0; i < 100; i++) {
+            int sequence = i;
+            executor.execute(frame("session-a", () -> {
+                order.add(sequence);
+                threads.add(Thread.currentThread().getName());
+                done.countDown();
+            }));
+        }
+
+        // Then
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(IntStream.range(0, 100).boxed().toList(), order);
+        assertEquals(1, threads.size());
+    }
+
+    @Test
+    @DisplayName("Given a session blocked in a handler, when a session on another stripe sends a frame, then it should not wait for the blocked one")
+    void execute_BlockedSession_OtherStripesKeepRunning() throws InterruptedException {
+        // Given
+        String blockedSession = "session-a";
+        String otherSession = sessionOnOtherStripe(blockedSession);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(frame(blockedSession, () -> awaitQuietly(release)));
+
+        // When
+        CountDownLatch otherHandled = new CountDownLatch(1);
+        executor.execute(frame(otherSession, otherHandled::countDown));
+
+        // Then
+        assertTrue(otherHandled.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    @DisplayName("Given frames waiting behind a blocked handler, when the queue depth is read, then the stripe's gauge should count them")
+    void execute_QueuedFrames_PublishesStripeQueueDepth() {
+        // Given
+        String session = "session-a";
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(frame(session, () -> {
+            started.countDown();
+            awaitQuietly(release);
+        }));
+        awaitQuietly(started);
+
+        // When
+        for (int i = 0; i < 3; i++) {
+            executor.execute(frame(session, () -> {}));
+        }
+
+        // Then
+        int stripe = executor.stripe(frame(session, () -> {}));
+        assertEquals(3, meterRegistry.get("chat.inbound.stripe.queue").tag("stripe", String.valueOf(stripe)).gauge().value());
+        assertEquals(4, meterRegistry.get("chat.inbound.stripe.queue").gauges().size());
+        release.countDown();
+    }
+
+    private String sessionOnOtherStripe(String sessionId) {
+        int stripe = executor.stripe(frame(sessionId, () -> {}));
+        return IntStream.range(0, 100)
+                .mapToObj(i -> "session-" + i)
+                .filter(candidate -> executor.stripe(frame(candidate, () -> {})) != stripe)
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private static MessageHandlingRunnable frame(String sessionId, Runnable handler) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create();
+        accessor.setSessionId(sessionId);
+        Message<byte[]> message = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+        return new MessageHandlingRunnable() {
+            @Override
+            public Message<?> getMessage() {
+                return message;
+            }
+
+            @Override
+            public MessageHandler getMessageHandler() {
+                return m -> handler.run();
+            }
+
+            @Override
+            public void run() {
+                handler.run();
+            }
+        };
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.magmusacy.chat.chatapp.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SlowConsumerSessionDecoratorTest {
+    private static final int BUFFER_SIZE_LIMIT = 1000;
+    private static final int SHED_THRESHOLD = 200;
+
+    @Mock
+    private WebSocketSession session;
+
+    private final CountDownLatch sending = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private Counter shedFrames;
+    private Counter overflowedSessions;
+    private SlowConsumerSessionDecorator decorator;
+    private Thread stalledSender;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        shedFrames = meterRegistry.counter("shed");
+        overflowedSessions = meterRegistry.counter("overflowed");
+        decorator = new SlowConsumerSessionDecorator(session, 10_000, BUFFER_SIZE_LIMIT, SHED_THRESHOLD,
+                List.of("/user/queue/users"), shedFrames, overflowedSessions);
+
+        // the first frame never finishes writing, everything after it has to wait in the buffer
+        doAnswer(invocation -> {
+            sending.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return null;
+        }).doNothing().when(session).sendMessage(any());
+        stalledSender = Thread.ofPlatform().start(() -> {
+            try {
+                decorator.sendMessage(frame("/user/queue/messages-from-1", 10));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        release.countDown();
+        stalledSender.join();
+    }
+
+    @Test
+    @DisplayName("Given a buffer past the shed threshold, when presence and chat frames are sent, then presence should be dropped and chat messages kept")
+    void sendMessage_PastShedThreshold_DropsPresenceAndKeepsChatMessages() throws Exception {
+        // Given
+        decorator.sendMessage(frame("/user/queue/messages-from-1", SHED_THRESHOLD));
+        int buffered = decorator.getBufferSize();
+
+        // When
+        decorator.sendMessage(frame("/user/queue/users", 50));
+        decorator.sendMessage(frame("/user/queue/messages-from-1", 50));
+
+        // Then
+        assertEquals(1, shedFrames.count());
+        assertTrue(decorator.getBufferSize() > buffered);
+        release.countDown();
+        stalledSender.join();
+        verify(session, times(3)).sendMessage(any());
+    }
+
+    @Test
+    @DisplayName("Given a buffer past the shed threshold, when a binary presence frame is sent, then it should be dropped")
+    void sendMessage_PastShedThresholdBinaryFrame_DropsPresence() throws Exception {
+        // Given
+        decorator.sendMessage(frame("/user/queue/messages-from-1", SHED_THRESHOLD));
+
+        // When
+        decorator.sendMessage(new BinaryMessage(frame("/user/queue/users", 50).asBytes()));
+
+        // Then
+        assertEquals(1, shedFrames.count());
+    }
+
+    @Test
+    @DisplayName("Given a buffer below the shed threshold, when a presence frame is sent, then it should be queued")
+    void sendMessage_BelowShedThreshold_QueuesPresence() throws Exception {
+        // When
+        decorator.sendMessage(frame("/user/queue/users", 50));
+
+        // Then
+        assertEquals(0, shedFrames.count());
+        assertTrue(decorator.getBufferSize() > 0);
+    }
+
+    @Test
+    @DisplayName("Given chat messages past the buffer limit, when another is sent, then the session limit should be exceeded and counted")
+    void sendMessage_PastBufferLimit_ThrowsAndCountsOverflow() {
+        // When & Then
+        assertThrows(SessionLimitExceededException.class, () -> {
+            for (int i = 0; i < 10; i++) {
+                decorator.sendMessage(frame("/user/queue/messages-from-1", BUFFER_SIZE_LIMIT / 4));
+            }
+        });
+        assertEquals(1, overflowedSessions.count());
+    }
+
+    private static TextMessage frame(String destination, int bodyLength) {
+        return new TextMessage("MESSAGE\ndestination:" + destination + "\ncontent-type:application/json\n\n"
+                + "x".repeat(bodyLength) + "\0");
+    }
+}
@@ -0,0 +1,261 @@
+package com.magmusacy.chat.chatapp.config;
+
+import com.magmusacy.chat.chatapp.AbstractIntegrationTest;
+import com.magmusacy.chat.chatapp.auth.JwtService;
+import com.magmusacy.chat.chatapp.blobs.BlobService;
+import com.magmusacy.chat.chatapp.chat.ChatMessageDTO;
+import com.magmusacy.chat.chatapp.chat.ChatMessageService;
+import com.magmusacy.chat.chatapp.chatroom.ChatRoomEnterRequestDTO;
+import com.magmusacy.chat.chatapp.chatroom.ChatRoomService;
+import com.magmusacy.chat.chatapp.user.User;
+import com.magmusacy.chat.chatapp.user.UserDirectory;
+import com.magmusacy.chat.chatapp.user.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Chat message delivery latency while other sessions wait on a slow query. A trigger makes every read receipt of
+ * the "slow" users sleep in Postgres, those sessions keep one receipt in flight each, and meanwhile pairs of users
+ * exchange chat messages at a steady rate. On the default pools the receipts hold the inbound threads and the chat
+ * messages queue behind them, on virtual threads only the receipts wait. Run with ./gradlew benchmark, compare the
+ * two nested classes.
+ */
+@Tag("benchmark")
+@TestPropertySource(properties = {
+        "spring.jpa.show-sql=false",
+        "logging.level.org.springframework.messaging=INFO",
+        "logging.level.org.springframework.web.socket=INFO",
+        // every slow receipt holds a connection, the pool must not be what the chat messages wait for
+        "spring.datasource.hikari.maximum-pool-size=64"
+})
+abstract class StompDeliveryLoadBenchmark extends AbstractIntegrationTest {
+    private static final int SLOW_SESSIONS = 10;
+    private static final double SLOW_QUERY_SECONDS = 1;
+    private static final int CHAT_PAIRS = 5;
+    private static final int MESSAGES_PER_SENDER = 50;
+    private static final long SEND_INTERVAL_MS = 200;
+
+    @TestPropertySource(properties = "spring.threads.virtual.enabled=false")
+    static class PlatformThreads extends StompDeliveryLoadBenchmark {
+    }
+
+    @TestPropertySource(properties = "spring.threads.virtual.enabled=true")
+    static class VirtualThreads extends StompDeliveryLoadBenchmark {
+    }
+
+    @MockitoBean
+    private BlobService blobService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserDirectory userDirectory;
+
+    @Autowired
+    private ChatMessageService chatMessageService;
+
+    @Autowired
+    private JwtService jwtService;
+
+    @Autowired
+    private SimpUserRegistry userRegistry;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${spring.threads.virtual.enabled}")
+    private boolean virtualThreads;
+
+    @LocalServerPort
+    private int port;
+
+    private final List<StompSession> sessions = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        sessions.forEach(StompSession::disconnect);
+        jdbcTemplate.execute("DROP TRIGGER IF EXISTS slow_read_receipt ON inbox_entries");
+        jdbcTemplate.execute("DROP FUNCTION IF EXISTS slow_read_receipt()");
+        jdbcTemplate.update("UPDATE chat_rooms SET latest_message_id = NULL");
+        jdbcTemplate.update("DELETE FROM chat_messages");
+        jdbcTemplate.update("DELETE FROM inbox_entries");
+        jdbcTemplate.update("DELETE FROM chat_rooms");
+        userRepository.findAll().forEach(userDirectory::invalidate);
+        userRepository.deleteAll();
+    }
+
+    @Test
+    void chatMessageLatencyWhileReadReceiptsAreSlow() throws Exception {
+        List<User> senders = new ArrayList<>();
+        List<User> recipients = new ArrayList<>();
+        for (int i = 0; i < CHAT_PAIRS; i++) {
+            senders.add(saveUser("Sender " + i, "load-sender-" + i + "@example.com"));
+            recipients.add(saveUser("Recipient " + i, "load-recipient-" + i + "@example.com"));
+        }
+        List<User> slowReaders = new ArrayList<>();
+        for (int i = 0; i < SLOW_SESSIONS; i++) {
+            User slowReader = saveUser("Slow Reader " + i, "load-slow-" + i + "@example.com");
+            chatMessageService.save(new ChatMessageDTO("unread", senders.getFirst().getId(), slowReader.getId(),
+                    ChatRoomService.generateChatRoomId(senders.getFirst().getId(), slowReader.getId())));
+            slowReaders.add(slowReader);
+        }
+        jdbcTemplate.execute("""
+                CREATE FUNCTION slow_read_receipt() RETURNS trigger AS $$
+                BEGIN
+                    PERFORM pg_sleep(%s);
+                    RETURN NEW;
+                END $$ LANGUAGE plpgsql
+                """.formatted(SLOW_QUERY_SECONDS));
+        jdbcTemplate.execute("CREATE TRIGGER slow_read_receipt BEFORE UPDATE ON inbox_entries FOR EACH ROW " +
+                "WHEN (OLD.user_id >= %d) EXECUTE FUNCTION slow_read_receipt()".formatted(slowReaders.getFirst().getId()));
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger outOfOrder = new AtomicInteger();
+        CountDownLatch delivered = new CountDownLatch(CHAT_PAIRS * MESSAGES_PER_SENDER);
+        for (User recipient : recipients) {
+            String destination = "/user/queue/messages-from-" + recipient.getId();
+            AtomicInteger lastSequence = new AtomicInteger(-1);
+            subscribe(connect(recipient), destination, payload -> {
+                String[] content = ((String) payload.get("content")).split(":");
+                latencies.add(System.nanoTime() - Long.parseLong(content[1]));
+                if (Integer.parseInt(content[0]) < lastSequence.getAndSet(Integer.parseInt(content[0]))) {
+                    outOfOrder.incrementAndGet();
+                }
+                delivered.countDown();
+            });
+            awaitSubscription(destination);
+        }
+        List<StompSession> senderSessions = new ArrayList<>();
+        for (User sender : senders) {
+            senderSessions.add(connect(sender));
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger receipts = new AtomicInteger();
+        for (int i = 0; i < SLOW_SESSIONS; i++) {
+            StompSession session = connect(slowReaders.get(i));
+            ChatRoomEnterRequestDTO receipt = new ChatRoomEnterRequestDTO(senders.getFirst().getId());
+            // one receipt in flight per session, the next goes out when the previous is answered
+            subscribe(session, "/user/queue/chat.latest-message-updated", payload -> {
+                receipts.incrementAndGet();
+                if (running.get()) {
+                    session.send("/app/chat.read-latest-message", receipt);
+                }
+            });
+            awaitSubscription("/user/queue/chat.latest-message-updated", i + 1);
+            session.send("/app/chat.read-latest-message", receipt);
+        }
+        Thread.sleep(1000);
+
+        for (int i = 0; i < MESSAGES_PER_SENDER; i++) {
+            for (int pair = 0; pair < CHAT_PAIRS; pair++) {
+                User sender = senders.get(pair);
+                User recipient = recipients.get(pair);
+                senderSessions.get(pair).send("/app/chat.send-message", new ChatMessageDTO(i + ":" + System.nanoTime(),
+                        sender.getId(), recipient.getId(), ChatRoomService.generateChatRoomId(sender.getId(), recipient.getId())));
+            }
+            Thread.sleep(SEND_INTERVAL_MS);
+        }
+        boolean allDelivered = delivered.await(2, TimeUnit.MINUTES);
+        running.set(false);
+
+        assertTrue(allDelivered, delivered.getCount() + " chat messages were not delivered");
+        List<Long> sorted = latencies.stream().sorted().toList();
+        System.out.printf("chat delivery, %s threads, %d sessions on a %.0f ms query, %d chat messages%n",
+                virtualThreads ? "virtual" : "platform", SLOW_SESSIONS, SLOW_QUERY_SECONDS * 1000, sorted.size());
+        System.out.printf("  p50 %8.1f ms  p99 %8.1f ms  max %8.1f ms  out of order %d  read receipts answered %d%n",
+                percentile(sorted, 0.50), percentile(sorted, 0.99), sorted.getLast() / 1_000_000.0,
+                outOfOrder.get(), receipts.get());
+    }
+
+    private interface PayloadHandler {
+        void handle(Map<?, ?> payload);
+    }
+
+    private static void subscribe(StompSession session, String destination, PayloadHandler handler) {
+        session.subscribe(destination, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Map.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                handler.handle((Map<?, ?>) payload);
+            }
+        });
+    }
+
+    private StompSession connect(User user) throws Exception {
+        WebSocketStompClient stompClient = new WebSocketStompClient(
+                new SockJsClient(List.of(new WebSocketTransport(new StandardWebSocketClient())))
+        );
+        stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("Authorization", "Bearer " + jwtService.generateAccessToken(user));
+        StompSession session = stompClient.connectAsync(
+                "http://localhost:" + port + "/ws",
+                new WebSocketHttpHeaders(),
+                connectHeaders,
+                new StompSessionHandlerAdapter() {}
+        ).get(10, TimeUnit.SECONDS);
+        sessions.add(session);
+        return session;
+    }
+
+    private void awaitSubscription(String destination) throws InterruptedException {
+        awaitSubscription(destination, 1);
+    }
+
+    // the simple broker sends no receipts, wait until the subscriptions are registered instead
+    private void awaitSubscription(String destination, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (userRegistry.findSubscriptions(subscription -> subscription.getDestination().equals(destination)).size() < count) {
+            assertTrue(System.nanoTime() < deadline, "subscription to " + destination + " was not registered");
+            Thread.sleep(50);
+        }
+    }
+
+    private User saveUser(String name, String email) {
+        User user = new User();
+        user.setName(name);
+        user.setEmail(email);
+        user.setPassword("password");
+        return userRepository.save(user);
+    }
+
+    private static double percentile(List<Long> sorted, double percentile) {
+        return sorted.get((int) Math.ceil(percentile * sorted.size()) - 1) / 1_000_000.0;
+    }
+}
@@ -0,0 +1,159 @@
+package com.magmusacy.chat.chatapp.config;
+
+import com.magmusacy.chat.chatapp.AbstractIntegrationTest;
+import com.magmusacy.chat.chatapp.auth.JwtService;
+import com.magmusacy.chat.chatapp.blobs.BlobService;
+import com.magmusacy.chat.chatapp.chat.ChatMessageDTO;
+import com.magmusacy.chat.chatapp.chat.ChatMessageRepository;
+import com.magmusacy.chat.chatapp.chatroom.ChatRoomRepository;
+import com.magmusacy.chat.chatapp.chatroom.ChatRoomService;
+import com.magmusacy.chat.chatapp.user.User;
+import com.magmusacy.chat.chatapp.user.UserDirectory;
+import com.magmusacy.chat.chatapp.user.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestPropertySource(properties = "spring.threads.virtual.enabled=true")
+class VirtualThreadsIntegrationTest extends AbstractIntegrationTest {
+    private static final int MESSAGES = 50;
+
+    @MockitoBean
+    private BlobService blobService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
+    @Autowired
+    private UserDirectory userDirectory;
+
+    @Autowired
+    private JwtService jwtService;
+
+    @Autowired
+    private SimpUserRegistry userRegistry;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @LocalServerPort
+    private int port;
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("UPDATE chat_rooms SET latest_message_id = NULL");
+        chatMessageRepository.deleteAll();
+        jdbcTemplate.update("DELETE FROM inbox_entries");
+        chatRoomRepository.deleteAll();
+        userRepository.findAll().forEach(userDirectory::invalidate);
+        userRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Given virtual threads, when a session sends a burst of chat messages, then the recipient should receive them in the order they were sent")
+    void processMessage_OnVirtualThreads_KeepsSessionOrder() throws Exception {
+        // Given
+        User sender = saveUser("Virtual Sender", "virtual-sender@example.com");
+        User recipient = saveUser("Virtual Recipient", "virtual-recipient@example.com");
+        StompSession recipientSession = connect(recipient);
+        StompSession senderSession = connect(sender);
+
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        String destination = "/user/queue/messages-from-" + recipient.getId();
+        recipientSession.subscribe(destination, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Map.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                received.add((String) ((Map<?, ?>) payload).get("content"));
+            }
+        });
+        awaitSubscription(destination);
+
+        // When
+        String chatRoomId = ChatRoomService.generateChatRoomId(sender.getId(), recipient.getId());
+        for (int i = 0; i < MESSAGES; i++) {
+            senderSession.send("/app/chat.send-message", new ChatMessageDTO("message " + i, sender.getId(), recipient.getId(), chatRoomId));
+        }
+
+        // Then
+        List<String> contents = new ArrayList<>();
+        while (contents.size() < MESSAGES) {
+            String content = received.poll(10, TimeUnit.SECONDS);
+            assertNotNull(content, "only " + contents.size() + " messages arrived");
+            contents.add(content);
+        }
+        assertEquals(IntStream.range(0, MESSAGES).mapToObj(i -> "message " + i).toList(), contents);
+
+        senderSession.disconnect();
+        recipientSession.disconnect();
+    }
+
+    private StompSession connect(User user) throws Exception {
+        WebSocketStompClient stompClient = new WebSocketStompClient(
+                new SockJsClient(List.of(new WebSocketTransport(new StandardWebSocketClient())))
+        );
+        stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("Authorization", "Bearer " + jwtService.generateAccessToken(user));
+        return stompClient.connectAsync(
+                "http://localhost:" + port + "/ws",
+                new WebSocketHttpHeaders(),
+                connectHeaders,
+                new StompSessionHandlerAdapter() {}
+        ).get(10, TimeUnit.SECONDS);
+    }
+
+    // the simple broker sends no receipts, wait until the subscription is registered instead
+    private void awaitSubscription(String destination) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (userRegistry.findSubscriptions(subscription -> subscription.getDestination().equals(destination)).isEmpty()) {
+            assertTrue(System.nanoTime() < deadline, "subscription to " + destination + " was not registered");
+            Thread.sleep(50);
+        }
+    }
+
+    private User saveUser(String name, String email) {
+        User user = new User();
+        user.setName(name);
+        user.setEmail(email);
+        user.setPassword("password");
+        return userRepository.save(user);
+    }
+}
@@ -0,0 +1,286 @@
+package com.magmusacy.chat.chatapp.config;
+
+import com.magmusacy.chat.chatapp.AbstractIntegrationTest;
+import com.magmusacy.chat.chatapp.auth.JwtService;
+import com.magmusacy.chat.chatapp.blobs.BlobService;
+import com.magmusacy.chat.chatapp.chat.ChatMessageResponseDTO;
+import com.magmusacy.chat.chatapp.chatroom.ChatRoomService;
+import com.magmusacy.chat.chatapp.user.User;
+import com.magmusacy.chat.chatapp.user.UserDirectory;
+import com.magmusacy.chat.chatapp.user.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Type;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Bytes on the wire and CPU per chat message for the SockJS endpoint and the native one, with and without
+ * permessage-deflate. The server pushes chat messages to one subscribed session, the client connects through a
+ * proxy that counts the bytes in both directions. Process CPU includes the client and the proxy, the outbound
+ * channel CPU is only the server's encoding and writing. Run with ./gradlew benchmark.
+ */
+@Tag("benchmark")
+@TestPropertySource(properties = {
+        "spring.jpa.show-sql=false",
+        "logging.level.org.springframework.messaging=INFO",
+        "logging.level.org.springframework.web.socket=INFO"
+})
+class WebSocketEndpointWireBenchmark extends AbstractIntegrationTest {
+    private static final int WARMUP_MESSAGES = 2_000;
+    private static final int MESSAGES = 10_000;
+    // pushed in batches so the send buffer never reaches its limit
+    private static final int BATCH = 100;
+    private static final List<String> CONTENTS = List.of(
+            "hey, are we still on for tonight?",
+            "yes! 7pm at the usual place",
+            "can you send me the photos from the trip when you get a chance",
+            "running a bit late, traffic is terrible 🙃",
+            "ok no worries",
+            "did you see the new episode? don't spoil it for me",
+            "I'll bring the board games, you bring snacks",
+            "sounds good 👍"
+    );
+
+    @MockitoBean
+    private BlobService blobService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserDirectory userDirectory;
+
+    @Autowired
+    private JwtService jwtService;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private SimpUserRegistry userRegistry;
+
+    @LocalServerPort
+    private int port;
+
+    @AfterEach
+    void tearDown() {
+        userRepository.findAll().forEach(userDirectory::invalidate);
+        userRepository.deleteAll();
+    }
+
+    @Test
+    void bytesAndCpuPerMessage() throws Exception {
+        User sender = saveUser("Wire Sender", "wire-sender@example.com");
+        User recipient = saveUser("Wire Recipient", "wire-recipient@example.com");
+        try (CountingProxy proxy = new CountingProxy(port)) {
+            WebSocketHttpHeaders deflate = new WebSocketHttpHeaders();
+            deflate.setSecWebSocketExtensions(List.of(new WebSocketExtension("permessage-deflate")));
+            StandardWebSocketClient webSocketClient = new StandardWebSocketClient();
+            SockJsClient sockJsClient = new SockJsClient(List.of(new WebSocketTransport(webSocketClient)));
+
+            System.out.printf("%d chat messages pushed to one session%n", MESSAGES);
+            measure("sockjs /ws", sockJsClient, "http://localhost:" + proxy.port() + "/ws",
+                    new WebSocketHttpHeaders(), sender, recipient, proxy);
+            measure("native /ws-native", webSocketClient, "ws://localhost:" + proxy.port() + "/ws-native",
+                    new WebSocketHttpHeaders(), sender, recipient, proxy);
+            measure("native /ws-native, deflate", webSocketClient, "ws://localhost:" + proxy.port() + "/ws-native",
+                    deflate, sender, recipient, proxy);
+        }
+    }
+
+    private void measure(String name, WebSocketClient client, String url, WebSocketHttpHeaders handshakeHeaders,
+                         User sender, User recipient, CountingProxy proxy) throws Exception {
+        WebSocketStompClient stompClient = new WebSocketStompClient(client);
+        stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("Authorization", "Bearer " + jwtService.generateAccessToken(recipient));
+        StompSession session = stompClient.connectAsync(url, handshakeHeaders, connectHeaders,
+                new StompSessionHandlerAdapter() {}).get(10, TimeUnit.SECONDS);
+
+        String destination = "/user/queue/messages-from-" + sender.getId();
+        AtomicLong received = new AtomicLong();
+        session.subscribe(destination, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Map.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                synchronized (received) {
+                    received.incrementAndGet();
+                    received.notifyAll();
+                }
+            }
+        });
+        awaitSubscription(destination, 1);
+
+        String chatRoomId = ChatRoomService.generateChatRoomId(sender.getId(), recipient.getId());
+        push(recipient, sender, chatRoomId, 0, WARMUP_MESSAGES, received);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        proxy.reset();
+        long processCpu = os.getProcessCpuTime();
+        long outboundCpu = outboundChannelCpu(threads);
+        long start = System.nanoTime();
+        push(recipient, sender, chatRoomId, WARMUP_MESSAGES, MESSAGES, received);
+        long elapsed = System.nanoTime() - start;
+        processCpu = os.getProcessCpuTime() - processCpu;
+        outboundCpu = outboundChannelCpu(threads) - outboundCpu;
+
+        System.out.printf("  %-28s down %6.1f B/msg  up %5.1f B/msg  process cpu %6.1f us/msg  " +
+                        "outbound channel cpu %6.1f us/msg  %6.0f msg/s%n",
+                name, proxy.downstream.get() / (double) MESSAGES, proxy.upstream.get() / (double) MESSAGES,
+                processCpu / 1000.0 / MESSAGES, outboundCpu / 1000.0 / MESSAGES, MESSAGES / (elapsed / 1e9));
+        session.disconnect();
+        // the next endpoint must not find this session's subscription and push before its own is registered
+        awaitSubscription(destination, 0);
+    }
+
+    private void push(User recipient, User sender, String chatRoomId, int first, int count, AtomicLong received)
+            throws InterruptedException {
+        long alreadyReceived = received.get();
+        for (int i = 1; i <= count; i++) {
+            int id = first + i;
+            messagingTemplate.convertAndSendToUser(recipient.getEmail(), "/queue/messages-from-" + sender.getId(),
+                    new ChatMessageResponseDTO(id, CONTENTS.get(id % CONTENTS.size()), sender.getId(),
+                            recipient.getId(), chatRoomId, LocalDateTime.now()));
+            if (i % BATCH == 0 || i == count) {
+                awaitReceived(received, alreadyReceived + i);
+            }
+        }
+    }
+
+    private static void awaitReceived(AtomicLong received, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        synchronized (received) {
+            while (received.get() < expected) {
+                long remaining = deadline - System.currentTimeMillis();
+                assertTrue(remaining > 0, "only " + received.get() + " of " + expected + " messages arrived");
+                received.wait(remaining);
+            }
+        }
+    }
+
+    private static long outboundChannelCpu(ThreadMXBean threads) {
+        return Arrays.stream(threads.getThreadInfo(threads.getAllThreadIds()))
+                .filter(info -> info != null && info.getThreadName().startsWith("clientOutboundChannel"))
+                .mapToLong(info -> Math.max(0, threads.getThreadCpuTime(info.getThreadId())))
+                .sum();
+    }
+
+    // the simple broker sends no receipts, wait until the subscriptions are registered instead
+    private void awaitSubscription(String destination, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (userRegistry.findSubscriptions(subscription -> subscription.getDestination().equals(destination)).size() != count) {
+            assertTrue(System.nanoTime() < deadline, "subscriptions to " + destination + " did not reach " + count);
+            Thread.sleep(50);
+        }
+    }
+
+    private User saveUser(String name, String email) {
+        User user = new User();
+        user.setName(name);
+        user.setEmail(email);
+        user.setPassword("password");
+        return userRepository.save(user);
+    }
+
+    private static class CountingProxy implements AutoCloseable {
+        private final ServerSocket serverSocket;
+        private final int targetPort;
+        private final AtomicLong upstream = new AtomicLong();
+        private final AtomicLong downstream = new AtomicLong();
+
+        CountingProxy(int targetPort) throws IOException {
+            this.targetPort = targetPort;
+            this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread.ofPlatform().name("wire-proxy").daemon(true).start(this::accept);
+        }
+
+        int port() {
+            return serverSocket.getLocalPort();
+        }
+
+        void reset() {
+            upstream.set(0);
+            downstream.set(0);
+        }
+
+        private void accept() {
+            try {
+                while (true) {
+                    Socket client = serverSocket.accept();
+                    Socket server = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+                    client.setTcpNoDelay(true);
+                    server.setTcpNoDelay(true);
+                    Thread.ofPlatform().daemon(true).start(() -> pump(client, server, upstream));
+                    Thread.ofPlatform().daemon(true).start(() -> pump(server, client, downstream));
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private static void pump(Socket from, Socket to, AtomicLong counter) {
+            byte[] buffer = new byte[16 * 1024];
+            try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    counter.addAndGet(read);
+                    out.write(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                // the other side went away
+            } finally {
+                try {
+                    from.close();
+                    to.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
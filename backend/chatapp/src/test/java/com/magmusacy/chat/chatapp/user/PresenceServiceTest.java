@@ -0,0 +1,237 @@
+package com.magmusacy.chat.chatapp.user;
+
+import com.magmusacy.chat.chatapp.chatroom.ChatRoomService;
+import com.magmusacy.chat.chatapp.cluster.ClusterSessionRegistry;
+import com.magmusacy.chat.chatapp.user.dto.UserDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PresenceServiceTest {
+
+    @Mock
+    private UserDirectory userDirectory;
+
+    @Mock
+    private ChatRoomService chatRoomService;
+
+    @Mock
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private ObjectProvider<ClusterSessionRegistry> clusterSessionRegistryProvider;
+
+    @Mock
+    private ClusterSessionRegistry clusterSessionRegistry;
+
+    @Captor
+    private ArgumentCaptor<List<?>> rows;
+
+    private UserDirectoryEntry alice;
+    private UserDirectoryEntry bob;
+    private UserDirectoryEntry carol;
+
+    @BeforeEach
+    void setUp() {
+        alice = new UserDirectoryEntry(1, "alice@example.com", "Alice", null, 1);
+        bob = new UserDirectoryEntry(2, "bob@example.com", "Bob", null, 1);
+        carol = new UserDirectoryEntry(3, "carol@example.com", "Carol", null, 1);
+        // carol talks to both alice and bob, alice and bob only to carol
+        lenient().when(chatRoomService.findChatPartnerIds(anyCollection())).thenAnswer(invocation -> {
+            Map<Integer, List<Integer>> partners = Map.of(1, List.of(3), 2, List.of(3), 3, List.of(1, 2));
+            Map<Integer, List<Integer>> result = new HashMap<>();
+            for (Object userId : (Collection<?>) invocation.getArgument(0)) {
+                result.put((Integer) userId, partners.get(userId));
+            }
+            return result;
+        });
+        lenient().when(userDirectory.findById(3)).thenReturn(carol);
+    }
+
+    @Test
+    @DisplayName("Given several users connecting, when changes are broadcast, then a shared chat partner should get them as one list")
+    void broadcastChanges_SeveralConnects_SendsOneBatchPerPartner() {
+        // Given
+        PresenceService presenceService = presenceService(Duration.ofSeconds(10));
+        when(userDirectory.findById(1)).thenReturn(alice);
+        when(userDirectory.findById(2)).thenReturn(bob);
+        presenceService.connect(1, "s1");
+        presenceService.connect(2, "s2");
+
+        // When
+        presenceService.broadcastChanges();
+        presenceService.broadcastChanges();
+
+        // Then
+        List<UserDTO> users = captureUpdates("carol@example.com").getFirst();
+        assertEquals(List.of(1, 2), users.stream().map(UserDTO::id).toList());
+        assertTrue(users.stream().allMatch(UserDTO::isOnline));
+        verify(messagingTemplate, times(1)).convertAndSendToUser(anyString(), anyString(), any());
+    }
+
+    @Test
+    @DisplayName("Given a user with several chat partners, when their profile changes, then each partner and nobody else should get it")
+    void publishProfileUpdate_SendsToChatPartnersOnly() {
+        // Given
+        PresenceService presenceService = presenceService(Duration.ofSeconds(10));
+        when(userDirectory.findById(1)).thenReturn(alice);
+        when(userDirectory.findById(2)).thenReturn(bob);
+        UserDTO updated = new UserDTO(3, "Carol Renamed", true, null, null, 4);
+
+        // When
+        presenceService.publishProfileUpdate(updated);
+
+        // Then
+        assertEquals(List.of(List.of(updated)), captureUpdates("alice@example.com"));
+        assertEquals(List.of(List.of(updated)), captureUpdates("bob@example.com"));
+        verify(messagingTemplate, times(2)).convertAndSendToUser(anyString(), anyString(), any());
+    }
+
+    @Test
+    @DisplayName("Given a user reconnecting within the grace period, when changes are broadcast, then nothing should be sent")
+    void broadcastChanges_ReconnectWithinGrace_SendsNothing() {
+        // Given
+        PresenceService presenceService = presenceService(Duration.ofSeconds(10));
+        when(userDirectory.findById(1)).thenReturn(alice);
+        presenceService.connect(1, "s1");
+        presenceService.broadcastChanges();
+
+        // When
+        presenceService.disconnect(1, "s1");
+        presenceService.connect(1, "s2");
+        presenceService.broadcastChanges();
+
+        // Then
+        verify(messagingTemplate, times(1)).convertAndSendToUser(eq("carol@example.com"), eq("/queue/users"), anyList());
+    }
+
+    @Test
+    @DisplayName("Given a user with two sessions, when one closes, then the user should stay online")
+    void broadcastChanges_OneOfTwoSessionsCloses_StaysOnline() {
+        // Given
+        PresenceService presenceService = presenceService(Duration.ZERO);
+        when(userDirectory.findById(1)).thenReturn(alice);
+        presenceService.connect(1, "phone");
+        presenceService.connect(1, "laptop");
+        presenceService.broadcastChanges();
+
+        // When
+        presenceService.disconnect(1, "phone");
+        presenceService.disconnect(1, "phone");
+        presenceService.broadcastChanges();
+
+        // Then
+        verify(messagingTemplate, times(1)).convertAndSendToUser(eq("carol@example.com"), eq("/queue/users"), anyList());
+    }
+
+    @Test
+    @DisplayName("Given the grace period has passed, when changes are broadcast, then the user should be sent as offline with lastSeen")
+    void broadcastChanges_GraceExpired_SendsOffline() {
+        // Given
+        PresenceService presenceService = presenceService(Duration.ZERO);
+        when(userDirectory.findById(1)).thenReturn(alice);
+        presenceService.connect(1, "s1");
+        presenceService.broadcastChanges();
+
+        // When
+        presenceService.disconnect(1, "s1");
+        presenceService.broadcastChanges();
+
+        // Then
+        UserDTO offline = captureUpdates("carol@example.com").getLast().getFirst();
+        assertFalse(offline.isOnline());
+        assertNotNull(offline.lastSeen());
+    }
+
+    @Test
+    @DisplayName("Given a cluster where another node still has a session of the user, when their grace period here passes, then they should stay online")
+    void broadcastChanges_GraceExpiredButConnectedToOtherNode_StaysOnline() {
+        // Given
+        PresenceService presenceService = presenceService(Duration.ZERO);
+        when(userDirectory.findById(1)).thenReturn(alice);
+        when(clusterSessionRegistryProvider.getIfAvailable()).thenReturn(clusterSessionRegistry);
+        when(clusterSessionRegistry.findConnectedToOtherNodes(Set.of("alice@example.com"))).thenReturn(Set.of("alice@example.com"));
+        presenceService.connect(1, "s1");
+        presenceService.broadcastChanges();
+
+        // When
+        presenceService.disconnect(1, "s1");
+        presenceService.broadcastChanges();
+
+        // Then
+        verify(messagingTemplate, times(1)).convertAndSendToUser(eq("carol@example.com"), eq("/queue/users"), anyList());
+    }
+
+    @Test
+    @DisplayName("Given several changes for the same user, when they are persisted, then one batched update per user should be written")
+    void persistChanges_SeveralChanges_WritesLatestPerUserInOneBatch() {
+        // Given
+        PresenceService presenceService = presenceService(Duration.ZERO);
+        when(userDirectory.findById(1)).thenReturn(alice);
+        when(userDirectory.findById(2)).thenReturn(bob);
+        presenceService.connect(1, "s1");
+        presenceService.connect(2, "s2");
+        presenceService.disconnect(1, "s1");
+        presenceService.broadcastChanges();
+
+        // When
+        presenceService.persistChanges();
+        presenceService.persistChanges();
+
+        // Then
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), rows.capture(), eq(2), any());
+        assertEquals(2, rows.getValue().size());
+    }
+
+    @Test
+    @DisplayName("Given a failing batch, when persisting again, then the changes should be retried")
+    void persistChanges_BatchFails_RetriesOnNextFlush() {
+        // Given
+        PresenceService presenceService = presenceService(Duration.ofSeconds(10));
+        presenceService.connect(1, "s1");
+        when(jdbcTemplate.batchUpdate(anyString(), anyList(), anyInt(), any()))
+                .thenThrow(new IllegalStateException("database down"))
+                .thenReturn(new int[][]{{1}});
+
+        // When
+        assertThrows(IllegalStateException.class, presenceService::persistChanges);
+        presenceService.persistChanges();
+
+        // Then
+        verify(jdbcTemplate, times(2)).batchUpdate(anyString(), anyList(), eq(1), any());
+    }
+
+    private PresenceService presenceService(Duration offlineGrace) {
+        return new PresenceService(userDirectory, chatRoomService, messagingTemplate, jdbcTemplate, offlineGrace,
+                Duration.ofSeconds(1), Duration.ofSeconds(5), clusterSessionRegistryProvider, "simple");
+    }
+
+    private List<List<UserDTO>> captureUpdates(String recipientEmail) {
+        ArgumentCaptor<List<UserDTO>> payload = ArgumentCaptor.captor();
+        verify(messagingTemplate, atLeastOnce()).convertAndSendToUser(eq(recipientEmail), eq("/queue/users"), payload.capture());
+        return payload.getAllValues();
+    }
+}
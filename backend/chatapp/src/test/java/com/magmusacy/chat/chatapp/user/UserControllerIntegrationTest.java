@@ -3,6 +3,10 @@ package com.magmusacy.chat.chatapp.user;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.magmusacy.chat.chatapp.AbstractIntegrationTest;
 import com.magmusacy.chat.chatapp.blobs.BlobService;
+import com.magmusacy.chat.chatapp.chat.ChatMessageDTO;
+import com.magmusacy.chat.chatapp.chat.ChatMessageRepository;
+import com.magmusacy.chat.chatapp.chat.ChatMessageService;
+import com.magmusacy.chat.chatapp.user.dto.UserDeletionDTO;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -15,6 +19,15 @@ import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -39,6 +52,21 @@ class UserControllerIntegrationTest extends AbstractIntegrationTest {
     @Autowired
     private PasswordEncoder passwordEncoder;
 
+    @Autowired
+    private UserDirectoryVersions directoryVersions;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private UserTombstoneRepository userTombstoneRepository;
+
+    @Autowired
+    private ChatMessageService chatMessageService;
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
     private User testUser;
 
     @BeforeEach
@@ -54,6 +82,7 @@ class UserControllerIntegrationTest extends AbstractIntegrationTest {
     @AfterEach
     void tearDown() {
         userRepository.deleteAll();
+        userTombstoneRepository.deleteAll();
     }
 
     @Test
@@ -67,6 +96,135 @@ class UserControllerIntegrationTest extends AbstractIntegrationTest {
                 .andExpect(jsonPath("$.email").value("test@gmail.com"));
     }
 
+    @Test
+    @WithMockUser(username = "test@gmail.com")
+    @DisplayName("Given a user whose profile changed, when GET /users with sinceVersion, then only users changed after it should be returned")
+    void getAllUsers_WithSinceVersion_ReturnsOnlyChangedUsers() throws Exception {
+        // Given
+        long seenVersion = directoryVersions.watermark();
+        User changedUser = new User();
+        changedUser.setName("Changed User");
+        changedUser.setEmail("changed@gmail.com");
+        changedUser.setPassword(passwordEncoder.encode("password123"));
+        changedUser.setDirectoryVersion(directoryVersions.next());
+        userRepository.save(changedUser);
+
+        // When & Then
+        mockMvc.perform(get("/users").param("sinceVersion", String.valueOf(seenVersion)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.users.length()").value(1))
+                .andExpect(jsonPath("$.users[0].name").value("Changed User"))
+                .andExpect(jsonPath("$.users[0].version").value(changedUser.getDirectoryVersion()))
+                .andExpect(jsonPath("$.version").isNumber());
+    }
+
+    @Test
+    @WithMockUser(username = "test@gmail.com")
+    @DisplayName("Given a profile change that has not committed yet, when GET /users with sinceVersion, then the returned version should not skip past it")
+    void getAllUsers_WithChangeInFlight_VersionStaysBelowIt() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            // Given
+            connection.setAutoCommit(false);
+            long inFlightVersion;
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT pg_current_xact_id()::text::bigint")) {
+                resultSet.next();
+                inFlightVersion = resultSet.getLong(1);
+            }
+            User laterUser = new User();
+            laterUser.setName("Later User");
+            laterUser.setEmail("later@gmail.com");
+            laterUser.setPassword(passwordEncoder.encode("password123"));
+            laterUser.setDirectoryVersion(directoryVersions.next());
+            userRepository.save(laterUser);
+
+            // When
+            String body = mockMvc.perform(get("/users").param("sinceVersion", "0"))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+
+            // Then
+            assertTrue(objectMapper.readTree(body).get("version").asLong() <= inFlightVersion);
+            connection.rollback();
+        }
+    }
+
+    @Test
+    @WithMockUser(username = "test@gmail.com")
+    @DisplayName("Given users matching a search, when GET /users with query, then matches on name or email should be paged by id")
+    void getUsers_WithQuery_ReturnsMatchingUsersPaged() throws Exception {
+        // Given
+        User byName = new User();
+        byName.setName("Searchable Anna");
+        byName.setEmail("anna@gmail.com");
+        byName.setPassword(passwordEncoder.encode("password123"));
+        userRepository.save(byName);
+        User byEmail = new User();
+        byEmail.setName("Someone Else");
+        byEmail.setEmail("searchable.bob@gmail.com");
+        byEmail.setPassword(passwordEncoder.encode("password123"));
+        userRepository.save(byEmail);
+
+        // When & Then
+        mockMvc.perform(get("/users").param("query", "SEARCHABLE").param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.users.length()").value(1))
+                .andExpect(jsonPath("$.users[0].name").value("Searchable Anna"))
+                .andExpect(jsonPath("$.hasMore").value(true))
+                .andExpect(jsonPath("$.nextAfter").value(byName.getId()));
+        mockMvc.perform(get("/users").param("query", "searchable").param("after", String.valueOf(byName.getId())))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.users.length()").value(1))
+                .andExpect(jsonPath("$.users[0].name").value("Someone Else"))
+                .andExpect(jsonPath("$.hasMore").value(false));
+    }
+
+    @Test
+    @WithMockUser(username = "test@gmail.com")
+    @DisplayName("Given a user with a conversation, when DELETE /users, then the account should be gone right away and its messages removed in the background")
+    void deleteUser_WithConversation_RemovesAccountAndMessages() throws Exception {
+        // Given
+        User partner = new User();
+        partner.setName("Partner User");
+        partner.setEmail("partner@gmail.com");
+        partner.setPassword(passwordEncoder.encode("password123"));
+        userRepository.save(partner);
+        chatMessageService.saveAll(IntStream.range(0, 30)
+                .mapToObj(i -> i % 2 == 0
+                        ? new ChatMessageDTO("Message " + i, testUser.getId(), partner.getId(), null)
+                        : new ChatMessageDTO("Message " + i, partner.getId(), testUser.getId(), null))
+                .toList());
+        long seenVersion = directoryVersions.watermark();
+
+        // When
+        String body = mockMvc.perform(delete("/users"))
+                .andExpect(status().isAccepted())
+                .andReturn().getResponse().getContentAsString();
+        String deletionId = objectMapper.readValue(body, UserDeletionDTO.class).id();
+
+        // Then
+        assertTrue(userRepository.findByEmail("test@gmail.com").isEmpty());
+        UserDeletionDTO deletion = null;
+        for (int attempt = 0; attempt < 100; attempt++) {
+            String progress = mockMvc.perform(get("/users/deletions/{id}", deletionId))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+            deletion = objectMapper.readValue(progress, UserDeletionDTO.class);
+            if (deletion.status() == UserDeletionDTO.Status.COMPLETED || deletion.status() == UserDeletionDTO.Status.FAILED) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        assertEquals(new UserDeletionDTO(deletionId, UserDeletionDTO.Status.COMPLETED, 30, 30), deletion);
+        assertFalse(userRepository.existsById(testUser.getId()));
+        assertEquals(0, chatMessageRepository.count());
+        assertEquals(List.of(partner.getId()), userRepository.findAll().stream().map(User::getId).toList());
+        mockMvc.perform(get("/users").param("sinceVersion", String.valueOf(seenVersion)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.users.length()").value(0))
+                .andExpect(jsonPath("$.deletedIds[0]").value(testUser.getId()));
+    }
+
     @Test
     @DisplayName("Given unauthenticated user, when GET /user/me, then unauthorized status should be returned")
     void getUserInfo_WithUnauthenticatedUser_ReturnsUnauthorized() throws Exception {
@@ -0,0 +1,140 @@
+package com.magmusacy.chat.chatapp.user;
+
+import com.magmusacy.chat.chatapp.AbstractIntegrationTest;
+import com.magmusacy.chat.chatapp.blobs.BlobService;
+import com.magmusacy.chat.chatapp.chat.ChatMessageRepository;
+import com.magmusacy.chat.chatapp.chatroom.ChatRoom;
+import com.magmusacy.chat.chatapp.chatroom.ChatRoomRepository;
+import com.magmusacy.chat.chatapp.user.dto.UserDeletionDTO;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Deleting an account with 100k messages spread over 100 conversations. "entity at a time" is how the deletion used
+ * to work, every room and message loaded and removed one by one in the request's transaction. "batched" is
+ * {@link UserService#deleteUser} as it is now, the request only marks the account and {@link UserDeletionService}
+ * removes the rows in chunks. Run with ./gradlew benchmark.
+ */
+@Tag("benchmark")
+@TestPropertySource(properties = "spring.jpa.show-sql=false")
+class UserDeletionBenchmark extends AbstractIntegrationTest {
+    private static final int MESSAGES = 100_000;
+    private static final int PARTNERS = 100;
+    // far above the ids handed out by the sequences during the run
+    private static final int FIRST_SEEDED_ID = 1_000_000_000;
+
+    @MockitoBean
+    private BlobService blobService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserDeletionService userDeletionService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM inbox_entries WHERE user_id >= ?", FIRST_SEEDED_ID);
+        jdbcTemplate.update("UPDATE chat_rooms SET latest_message_id = NULL WHERE id LIKE ?", FIRST_SEEDED_ID + "\\_%");
+        jdbcTemplate.update("DELETE FROM chat_messages WHERE id >= ?", FIRST_SEEDED_ID);
+        jdbcTemplate.update("DELETE FROM chat_rooms WHERE id LIKE ?", FIRST_SEEDED_ID + "\\_%");
+        jdbcTemplate.update("DELETE FROM users WHERE id >= ?", FIRST_SEEDED_ID);
+    }
+
+    @Test
+    void deleteUserWithHundredThousandMessages() throws InterruptedException {
+        System.out.printf("user deletion, %,d messages in %d conversations%n", MESSAGES, PARTNERS);
+
+        seed();
+        long start = System.nanoTime();
+        transactionTemplate.executeWithoutResult(status -> deleteEntityAtATime(FIRST_SEEDED_ID));
+        long entityAtATime = System.nanoTime() - start;
+        System.out.printf("  entity at a time: request %,8.0f ms, one transaction%n", entityAtATime / 1_000_000.0);
+        tearDown();
+
+        seed();
+        start = System.nanoTime();
+        UserDeletionDTO deletion = userService.deleteUser(userRepository.findById(FIRST_SEEDED_ID).orElseThrow());
+        long request = System.nanoTime() - start;
+        while (!isFinished(deletion = userDeletionService.findDeletion(deletion.id()).orElseThrow())) {
+            Thread.sleep(10);
+        }
+        long batched = System.nanoTime() - start;
+        System.out.printf("  batched:          request %,8.0f ms, removed after %,8.0f ms (%s, %,d messages)%n",
+                request / 1_000_000.0, batched / 1_000_000.0, deletion.status(), deletion.deletedMessages());
+    }
+
+    private void seed() {
+        jdbcTemplate.update("""
+                INSERT INTO users (id, email, name, password, is_online, directory_version)
+                SELECT ? + g, 'deletion' || g || '@example.com', 'User ' || g, 'password', false, 0
+                FROM generate_series(0, ?) AS g
+                """, FIRST_SEEDED_ID, PARTNERS);
+        jdbcTemplate.update("""
+                INSERT INTO chat_rooms (id, read_status)
+                SELECT ? || '_' || (? + g), true FROM generate_series(1, ?) AS g
+                """, FIRST_SEEDED_ID, FIRST_SEEDED_ID, PARTNERS);
+        // within the current month, its partition always exists
+        jdbcTemplate.update("""
+                INSERT INTO chat_messages (id, timestamp, content, chat_rooms_id, sender_id, recipient_id)
+                SELECT ? + g, date_trunc('month', now()) + g * interval '1 millisecond', 'Message ' || g,
+                       ? || '_' || (? + 1 + g % ?),
+                       CASE WHEN g % 2 = 0 THEN ? ELSE ? + 1 + g % ? END,
+                       CASE WHEN g % 2 = 0 THEN ? + 1 + g % ? ELSE ? END
+                FROM generate_series(1, ?) AS g
+                """, FIRST_SEEDED_ID, FIRST_SEEDED_ID, FIRST_SEEDED_ID, PARTNERS,
+                FIRST_SEEDED_ID, FIRST_SEEDED_ID, PARTNERS, FIRST_SEEDED_ID, PARTNERS, FIRST_SEEDED_ID, MESSAGES);
+        jdbcTemplate.update("""
+                UPDATE chat_rooms c SET latest_message_id = (SELECT max(m.id) FROM chat_messages m WHERE m.chat_rooms_id = c.id)
+                WHERE c.id LIKE ?
+                """, FIRST_SEEDED_ID + "\\_%");
+        jdbcTemplate.execute("ANALYZE chat_messages");
+    }
+
+    // ChatRoomService.deleteUserChatRooms and UserService.deleteUser before the deletion was batched
+    private void deleteEntityAtATime(int userId) {
+        User user = userRepository.findById(userId).orElseThrow();
+        List<ChatRoom> chatRooms = entityManager.createQuery(
+                        "SELECT DISTINCT c FROM ChatRoom c JOIN c.chatMessages m WHERE m.sender = :user OR m.recipient = :user", ChatRoom.class)
+                .setParameter("user", user)
+                .getResultList();
+        for (ChatRoom chatRoom : chatRooms) {
+            chatRoom.setLatestMessage(null);
+            chatRoomRepository.save(chatRoom);
+            chatMessageRepository.deleteAll(chatRoom.getChatMessages());
+            chatRoomRepository.delete(chatRoom);
+        }
+        userRepository.delete(user);
+    }
+
+    private static boolean isFinished(UserDeletionDTO deletion) {
+        return deletion.status() == UserDeletionDTO.Status.COMPLETED || deletion.status() == UserDeletionDTO.Status.FAILED;
+    }
+}
@@ -0,0 +1,88 @@
+package com.magmusacy.chat.chatapp.user;
+
+import com.magmusacy.chat.chatapp.AbstractIntegrationTest;
+import com.magmusacy.chat.chatapp.blobs.BlobService;
+import com.magmusacy.chat.chatapp.user.dto.UserPageDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Latency of the user directory queries on a table seeded with a million users. Search runs once with the trigram
+ * indexes and once after dropping them, which is the sequential scan they replace. Run with ./gradlew benchmark.
+ */
+@Tag("benchmark")
+@TestPropertySource(properties = "spring.jpa.show-sql=false")
+class UserDirectoryQueryBenchmark extends AbstractIntegrationTest {
+    private static final int USERS = 1_000_000;
+    // far above the ids handed out by users_seq during the run
+    private static final int FIRST_SEEDED_ID = 1_000_000_000;
+    private static final int RUNS = 100;
+
+    @MockitoBean
+    private BlobService blobService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private UserService userService;
+
+    @BeforeEach
+    void setUp() {
+        // names and emails built from md5 hex so that search terms hit a realistic share of rows
+        jdbcTemplate.update("""
+                INSERT INTO users (id, email, name, password, is_online, directory_version)
+                SELECT ? + g, 'user' || g || '.' || substr(md5(g::text), 1, 6) || '@example.com',
+                       'User ' || substr(md5(g::text), 7, 10), 'password', false, 0
+                FROM generate_series(1, ?) AS g
+                """, FIRST_SEEDED_ID, USERS);
+        jdbcTemplate.execute("ANALYZE users");
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM users WHERE id > ?", FIRST_SEEDED_ID);
+        // as created by V7__user_search_trigrams.sql
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_users_name_trgm ON users USING gin (name gin_trgm_ops)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_users_email_trgm ON users USING gin (email gin_trgm_ops)");
+    }
+
+    @Test
+    void directoryQueryLatency() {
+        System.out.printf("user directory, %,d users, %d runs each%n", USERS, RUNS);
+        report("first page", () -> userService.findUsers(null, 0, 50));
+        report("page at 900k", () -> userService.findUsers(null, FIRST_SEEDED_ID + 900_000, 50));
+        report("search name", () -> userService.findUsers("a3f9", 0, 50));
+        report("search email", () -> userService.findUsers("user4242", 0, 50));
+        report("search, no match", () -> userService.findUsers("zzzz", 0, 50));
+
+        jdbcTemplate.execute("DROP INDEX idx_users_name_trgm");
+        jdbcTemplate.execute("DROP INDEX idx_users_email_trgm");
+        report("search name, no trigram index", () -> userService.findUsers("a3f9", 0, 50));
+        report("search, no match, no trigram index", () -> userService.findUsers("zzzz", 0, 50));
+    }
+
+    private static void report(String name, Supplier<UserPageDTO> query) {
+        for (int i = 0; i < RUNS / 10; i++) {
+            query.get();
+        }
+        long[] nanos = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            query.get();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        System.out.printf("  %-36s p50 %8.2f ms   p99 %8.2f ms%n",
+                name + ":", nanos[RUNS / 2] / 1_000_000.0, nanos[RUNS * 99 / 100] / 1_000_000.0);
+    }
+}
@@ -0,0 +1,122 @@
+package com.magmusacy.chat.chatapp.user;
+
+import com.magmusacy.chat.chatapp.cluster.ClusterForwarder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UserDirectoryTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private ObjectProvider<ClusterForwarder> clusterForwarder;
+
+    private SimpleMeterRegistry meterRegistry;
+    private UserDirectory userDirectory;
+    private UserDirectoryEntry entry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        userDirectory = new UserDirectory(userRepository, clusterForwarder, meterRegistry, 100, Duration.ofMinutes(10));
+        entry = new UserDirectoryEntry(1, "test@example.com", "Test User", null, 1);
+    }
+
+    @Test
+    @DisplayName("Given a cached user, when findById is called again, then the repository should be queried once")
+    void findById_CalledTwice_QueriesRepositoryOnce() {
+        // Given
+        when(userRepository.findDirectoryEntryById(1)).thenReturn(Optional.of(entry));
+
+        // When
+        userDirectory.findById(1);
+        UserDirectoryEntry result = userDirectory.findById(1);
+
+        // Then
+        assertEquals(entry, result);
+        verify(userRepository, times(1)).findDirectoryEntryById(1);
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "users.directory.by-id").tag("result", "hit").functionCounter().count());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "users.directory.by-id").tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    @DisplayName("Given a user looked up by email, when findById is called, then the entry should come from the cache")
+    void findByEmail_PopulatesIdCache() {
+        // Given
+        when(userRepository.findDirectoryEntryByEmail("test@example.com")).thenReturn(Optional.of(entry));
+
+        // When
+        UserDirectoryEntry byEmail = userDirectory.findByEmail("test@example.com");
+        UserDirectoryEntry byId = userDirectory.findById(1);
+
+        // Then
+        assertEquals(entry, byEmail);
+        assertEquals(entry, byId);
+        verify(userRepository, never()).findDirectoryEntryById(anyInt());
+    }
+
+    @Test
+    @DisplayName("Given non-existing user ID, when findById is called, then UsernameNotFoundException should be thrown and nothing cached")
+    void findById_WithNonExistingUser_ThrowsException() {
+        // Given
+        when(userRepository.findDirectoryEntryById(999)).thenReturn(Optional.empty());
+
+        // When & Then
+        assertThrows(UsernameNotFoundException.class, () -> userDirectory.findById(999));
+        assertThrows(UsernameNotFoundException.class, () -> userDirectory.findById(999));
+        verify(userRepository, times(2)).findDirectoryEntryById(999);
+    }
+
+    @Test
+    @DisplayName("Given a cached user, when invalidate is called, then the next lookup should reload it")
+    void invalidate_EvictsCachedUser() {
+        // Given
+        UserDirectoryEntry renamed = new UserDirectoryEntry(1, "test@example.com", "Renamed User", null, 2);
+        when(userRepository.findDirectoryEntryById(1)).thenReturn(Optional.of(entry)).thenReturn(Optional.of(renamed));
+        userDirectory.findById(1);
+        User user = new User();
+        user.setId(1);
+        user.setEmail("test@example.com");
+
+        // When
+        userDirectory.invalidate(user);
+        UserDirectoryEntry result = userDirectory.findById(1);
+
+        // Then
+        assertEquals("Renamed User", result.name());
+        verify(userRepository, times(2)).findDirectoryEntryById(1);
+    }
+
+    @Test
+    @DisplayName("Given a cluster, when invalidate is called outside a transaction, then the other nodes should be told right away")
+    void invalidate_InCluster_BroadcastsInvalidation() {
+        // Given
+        ClusterForwarder forwarder = mock(ClusterForwarder.class);
+        doCallRealMethod().when(clusterForwarder).ifAvailable(any());
+        when(clusterForwarder.getIfAvailable()).thenReturn(forwarder);
+        User user = new User();
+        user.setId(1);
+        user.setEmail("test@example.com");
+
+        // When
+        userDirectory.invalidate(user);
+
+        // Then
+        verify(forwarder).invalidateUser(1, "test@example.com");
+    }
+}
@@ -1,6 +1,10 @@
 package com.magmusacy.chat.chatapp.user;
 
+import com.magmusacy.chat.chatapp.auth.PrincipalCache;
 import com.magmusacy.chat.chatapp.auth.dto.RegisterRequest;
+import com.magmusacy.chat.chatapp.user.dto.UserDTO;
+import com.magmusacy.chat.chatapp.user.dto.UserDeletionDTO;
+import com.magmusacy.chat.chatapp.user.dto.UserPageDTO;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -8,6 +12,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
@@ -18,6 +23,7 @@ import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -29,6 +35,21 @@ class UserServiceTest {
     @Mock
     private PasswordEncoder passwordEncoder;
 
+    @Mock
+    private UserDirectory userDirectory;
+
+    @Mock
+    private UserDirectoryVersions directoryVersions;
+
+    @Mock
+    private PrincipalCache principalCache;
+
+    @Mock
+    private UserDeletionService userDeletionService;
+
+    @Mock
+    private UserTombstoneRepository userTombstoneRepository;
+
     @InjectMocks
     private UserService userService;
 
@@ -65,6 +86,23 @@ class UserServiceTest {
         verify(userRepository).save(any(User.class));
     }
 
+    @Test
+    @DisplayName("Given a new profile picture, when it is saved, then the user should get the next directory version")
+    void saveUserProfilePictureUrl_StampsNextDirectoryVersion() {
+        // Given
+        testUser.setDirectoryVersion(3);
+        when(directoryVersions.next()).thenReturn(8L);
+
+        // When
+        userService.saveUserProfilePictureUrl(testUser, "https://example.com/avatar.png");
+
+        // Then
+        assertEquals(8L, testUser.getDirectoryVersion());
+        assertEquals("https://example.com/avatar.png", testUser.getProfilePictureUrl());
+        verify(userRepository).save(testUser);
+        verify(userDirectory).invalidate(testUser);
+    }
+
     @Test
     @DisplayName("Given registration request with mismatched passwords, when createUser is called, then PasswordMismatchException should be thrown")
     void createUser_WithMismatchedPasswords_ThrowsPasswordMismatchException() {
@@ -161,4 +199,62 @@ class UserServiceTest {
         verify(userRepository).save(any(User.class));
         // Would verify the user object had its isOnline set to true
     }
+
+    @Test
+    @DisplayName("Given a search query with LIKE wildcards, when findUsers is called, then they should be matched literally")
+    void findUsers_WithQuery_EscapesWildcards() {
+        // Given
+        UserDTO match = new UserDTO(5, "100%_sure", false, null, null, 0);
+        when(userRepository.searchPageAfter(eq("%100\\%\\_sure%"), eq(0), any(Limit.class))).thenReturn(List.of(match));
+
+        // When
+        UserPageDTO page = userService.findUsers(" 100%_sure ", 0, 20);
+
+        // Then
+        assertEquals(List.of(match), page.users());
+        assertFalse(page.hasMore());
+        assertEquals(5, page.nextAfter());
+    }
+
+    @Test
+    @DisplayName("Given more users than the page size, when findUsers is called, then one page and the next cursor should be returned")
+    void findUsers_MoreThanPageSize_ReturnsPageWithCursor() {
+        // Given
+        List<UserDTO> users = List.of(
+                new UserDTO(11, "Alice", false, null, null, 0),
+                new UserDTO(12, "Bob", false, null, null, 0),
+                new UserDTO(13, "Carol", false, null, null, 0)
+        );
+        when(userRepository.findPageAfter(10, Limit.of(3))).thenReturn(users);
+
+        // When
+        UserPageDTO page = userService.findUsers(null, 10, 2);
+
+        // Then
+        assertEquals(List.of(11, 12), page.users().stream().map(UserDTO::id).toList());
+        assertTrue(page.hasMore());
+        assertEquals(12, page.nextAfter());
+    }
+
+    @Test
+    @DisplayName("Given a user, when deleteUser is called, then the account should be taken out of use and its removal scheduled")
+    void deleteUser_MarksDeletedAndSchedulesRemoval() {
+        // Given
+        UserDeletionDTO scheduled = new UserDeletionDTO("deletion-1", UserDeletionDTO.Status.QUEUED, 0, 0);
+        when(userDeletionService.schedule(1)).thenReturn(scheduled);
+        when(directoryVersions.next()).thenReturn(9L);
+
+        // When
+        UserDeletionDTO deletion = userService.deleteUser(testUser);
+
+        // Then
+        assertEquals(scheduled, deletion);
+        assertNotNull(testUser.getDeletedAt());
+        assertNotEquals("test@gmail.com", testUser.getEmail());
+        verify(principalCache).invalidate("test@gmail.com");
+        verify(userRepository).save(testUser);
+        verify(userRepository, never()).delete(any(User.class));
+        assertEquals(9L, testUser.getDirectoryVersion());
+        verify(userTombstoneRepository).save(argThat(tombstone -> tombstone.getUserId() == 1 && tombstone.getDirectoryVersion() == 9L));
+    }
 }
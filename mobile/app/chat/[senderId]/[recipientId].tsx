@@ -151,7 +151,7 @@ export default function Chat() {
         setError(null);
 
         const response = await api.get(`/messages/${recipientId}`);
-        const data = response.data as Message[];
+        const data = response.data.messages as Message[];
         data.sort(
           (a, b) =>
             new Date(b.timestamp).getTime() - new Date(a.timestamp).getTime()
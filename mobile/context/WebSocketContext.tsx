@@ -1,6 +1,6 @@
 import { API_URL } from "@/config";
 import { LatestMessage } from "@/types/LatestMessage";
-import { OtherUser } from "@/types/OtherUser";
+import { OtherUser, UserChanges, UserPage } from "@/types/OtherUser";
 import { WebSocketContextType } from "@/types/WebSocketTypes";
 import api from "@/utils/api";
 import { Client } from "@stomp/stompjs";
@@ -31,6 +31,8 @@ export default function WebSocketProvider({
   children: ReactNode;
 }) {
   const clientRef = useRef<Client | null>(null);
+  const directoryVersionRef = useRef(0);
+  const hasConnectedRef = useRef(false);
   const { user, tokenRef, handleRefreshToken, accessToken } = useAuth();
   const [allUsers, setAllUsers] = useState<Map<number, OtherUser>>(new Map());
   const [latestMessages, setLatestMessages] = useState<
@@ -135,11 +137,41 @@ export default function WebSocketProvider({
     );
   };
 
+  // after a reconnect only the profiles changed while we were away are fetched
+  const fetchChangedUsers = async () => {
+    try {
+      const response = await api.get("/users", {
+        params: { sinceVersion: directoryVersionRef.current },
+      });
+      const changes = response.data as UserChanges;
+      updateUsersMapWithNewUsersArray(changes.users);
+      setAllUsers((prev) => {
+        const newMap = new Map(prev);
+        changes.deletedIds.forEach((id) => newMap.delete(id));
+        return newMap;
+      });
+      directoryVersionRef.current = changes.version;
+    } catch (err) {
+      console.error(err);
+    }
+  };
+
   const fetchAllUsers = async () => {
     try {
-      const response = await api.get("/users");
-      const data = response.data as OtherUser[];
-      updateUsersMapWithNewUsersArray(data);
+      let after = 0;
+      let hasMore = true;
+      while (hasMore) {
+        const response = await api.get("/users", {
+          params: { after, limit: 200 },
+        });
+        const page = response.data as UserPage;
+        if (after === 0) {
+          directoryVersionRef.current = page.version;
+        }
+        updateUsersMapWithNewUsersArray(page.users);
+        hasMore = page.hasMore;
+        after = page.nextAfter ?? after;
+      }
     } catch (err) {
       console.error(err);
     }
@@ -161,6 +193,7 @@ export default function WebSocketProvider({
     }
 
     fetchAllUsers();
+    hasConnectedRef.current = false;
 
     const webSocketClient = new Client({
       webSocketFactory: () => new SockJS(`${API_URL}/ws`),
@@ -181,9 +214,14 @@ export default function WebSocketProvider({
       },
       onConnect: () => {
         setIsConnected(true);
-        webSocketClient.subscribe("/topic/users", (message) => {
-          const parsedUsers = JSON.parse(message.body) as OtherUser;
-          updateUsersMapWithNewUsersArray([parsedUsers]);
+        if (hasConnectedRef.current) {
+          fetchChangedUsers();
+        }
+        hasConnectedRef.current = true;
+        // presence and profile changes of the users we have conversations with, always an array
+        webSocketClient.subscribe("/user/queue/users", (message) => {
+          const parsedUsers = JSON.parse(message.body) as OtherUser[];
+          updateUsersMapWithNewUsersArray(parsedUsers);
         });
 
         webSocketClient.subscribe(
@@ -4,4 +4,23 @@ export interface OtherUser {
   isOnline: boolean;
   lastSeen: string | null;
   profilePictureUrl: string | null;
+  // directory version of the profile fields, changes with every name or picture change
+  version: number;
+}
+
+export interface UserPage {
+  users: OtherUser[];
+  hasMore: boolean;
+  // pass as ?after= to get the next page
+  nextAfter: number | null;
+  // the first page's one is where ?sinceVersion= picks up after all pages are loaded
+  version: number;
+}
+
+export interface UserChanges {
+  users: OtherUser[];
+  // users deleted while we were away
+  deletedIds: number[];
+  // pass as ?sinceVersion= next time, the users' own versions can't be used for that
+  version: number;
 }